@@ -0,0 +1,23 @@
+package pt.isec.pd.tp;
+
+import pt.isec.pd.tp.estruturas.Operacao;
+
+import java.util.List;
+
+/**
+ * Resultado de uma escrita no principal: as operações a replicar e a versão da BD que essa
+ * escrita produziu (gravada na mesma transação).
+ */
+public class Alteracao {
+
+    private final List<Operacao> operacoes;
+    private final long versao;
+
+    public Alteracao(List<Operacao> operacoes, long versao) {
+        this.operacoes = operacoes;
+        this.versao = versao;
+    }
+
+    public List<Operacao> getOperacoes() { return operacoes; }
+    public long getVersao() { return versao; }
+}
@@ -0,0 +1,244 @@
+package pt.isec.pd.tp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isec.pd.tp.estruturas.RegistoReplicacao;
+import pt.isec.pd.tp.servidor.Servidor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aplica no backup o que o MulticastListener recebe, numa thread própria, para que uma escrita
+ * lenta no SQLite não atrase a leitura do socket. A fila é limitada: se encher, o que chegar é
+ * descartado e a lacuna resultante é pedida ao principal como qualquer outra perda.
+ * Os heartbeats passam pela mesma fila, para a versão do principal ser comparada com a local
+ * só depois de aplicado tudo o que chegou antes deles.
+ */
+public class AplicadorReplicacao implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger("Multicast");
+
+    private static final int CAPACIDADE = Math.max(1, Definicoes.inteiro("pd.replicacao.fila_aplicar", 1024));
+    // Registos aplicados no máximo numa transação
+    private static final int MAX_LOTE = Math.max(1, Definicoes.inteiro("pd.replicacao.lote_aplicar", 512));
+    // Pedidos das versões em falta ao principal antes de recorrer à cópia integral, com espera a duplicar
+    private static final int TENTATIVAS_RECUPERAR = Math.max(1, Definicoes.inteiro("pd.replicacao.tentativas_lacuna", 3));
+    private static final long ESPERA_RECUPERAR_MS = Math.max(1, Definicoes.longo("pd.replicacao.espera_lacuna_ms", 500));
+    private static final long INTERVALO_METRICAS_MS = Math.max(1000, Definicoes.longo("pd.replicacao.metricas_ms", 30_000));
+
+    private static final class Entrada {
+        final List<RegistoReplicacao> registos; // null num heartbeat
+        final long versaoPrincipal;
+        final long recebida = System.nanoTime();
+
+        Entrada(List<RegistoReplicacao> registos, long versaoPrincipal) {
+            this.registos = registos;
+            this.versaoPrincipal = versaoPrincipal;
+        }
+    }
+
+    private final Servidor servidor;
+    private final DatabaseManager db;
+    private final BlockingQueue<Entrada> fila = new ArrayBlockingQueue<>(CAPACIDADE);
+
+    // Porto TCP de BD do principal, para pedir versões em falta; atualizado pelos heartbeats
+    private volatile InetAddress ipPrincipal;
+    private volatile int portoBDPrincipal;
+
+    private final AtomicLong versaoRecebida = new AtomicLong();
+    private final AtomicLong descartadas = new AtomicLong();
+    private volatile long atrasoUltimoMs;
+    // Só usados pela thread de aplicação, para o registo periódico
+    private long atrasoMaximoMs;
+    private long lotesAplicados;
+
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public AplicadorReplicacao(Servidor servidor, DatabaseManager db) {
+        this.servidor = servidor;
+        this.db = db;
+    }
+
+    public void definirPrincipal(InetAddress ip, int portoBD) {
+        this.ipPrincipal = ip;
+        this.portoBDPrincipal = portoBD;
+    }
+
+    /** Chamado pela thread de receção; não bloqueia. */
+    public void receberRegistos(List<RegistoReplicacao> registos) {
+        if (registos.isEmpty()) return;
+        versaoRecebida.accumulateAndGet(registos.get(registos.size() - 1).getVersao(), Math::max);
+        enfileirar(new Entrada(registos, 0));
+    }
+
+    /** Chamado pela thread de receção; não bloqueia. */
+    public void receberHeartbeat(long versaoPrincipal) {
+        versaoRecebida.accumulateAndGet(versaoPrincipal, Math::max);
+        enfileirar(new Entrada(null, versaoPrincipal));
+    }
+
+    private void enfileirar(Entrada e) {
+        if (!fila.offer(e) && descartadas.incrementAndGet() % 100 == 1) {
+            log.warn("Fila de aplicação cheia ({} entradas): mensagens descartadas, serão pedidas ao principal.", CAPACIDADE);
+        }
+    }
+
+    public int getProfundidadeFila() { return fila.size(); }
+    /** Versões recebidas (ou anunciadas pelo principal) ainda por aplicar. */
+    public long getAtrasoVersoes() { return Math.max(0, versaoRecebida.get() - db.getVersaoBD()); }
+    /** Tempo entre a receção e a aplicação do último lote. */
+    public long getAtrasoUltimoMs() { return atrasoUltimoMs; }
+    public long getDescartadas() { return descartadas.get(); }
+
+    public void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        this.thread = Thread.currentThread();
+        List<Entrada> entradas = new ArrayList<>();
+        List<RegistoReplicacao> lote = new ArrayList<>();
+        long proximasMetricas = System.currentTimeMillis() + INTERVALO_METRICAS_MS;
+
+        try {
+            while (running) {
+                Entrada primeira = fila.poll(INTERVALO_METRICAS_MS, TimeUnit.MILLISECONDS);
+                if (primeira != null) {
+                    entradas.add(primeira);
+                    fila.drainTo(entradas);
+
+                    // Registos seguidos vão numa só transação; um heartbeat fecha o lote antes de ser tratado
+                    long maisAntiga = 0;
+                    for (Entrada e : entradas) {
+                        if (e.registos == null) {
+                            aplicar(lote, maisAntiga);
+                            maisAntiga = 0;
+                            verificarVersao(e.versaoPrincipal);
+                            continue;
+                        }
+                        if (maisAntiga == 0) maisAntiga = e.recebida;
+                        lote.addAll(e.registos);
+                        if (lote.size() >= MAX_LOTE) {
+                            aplicar(lote, maisAntiga);
+                            maisAntiga = 0;
+                        }
+                    }
+                    aplicar(lote, maisAntiga);
+                    entradas.clear();
+                }
+
+                if (System.currentTimeMillis() >= proximasMetricas) {
+                    registarMetricas();
+                    proximasMetricas = System.currentTimeMillis() + INTERVALO_METRICAS_MS;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            log.error("ERRO CRÍTICO: Falha ao executar Query de Replicação. A TERMINAR.", e);
+            System.exit(1);
+        }
+    }
+
+    private void aplicar(List<RegistoReplicacao> lote, long recebida) throws SQLException, InterruptedException {
+        if (lote.isEmpty()) return;
+        aplicarReplicacao(lote);
+        lote.clear();
+
+        long atraso = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - recebida);
+        atrasoUltimoMs = atraso;
+        atrasoMaximoMs = Math.max(atrasoMaximoMs, atraso);
+        lotesAplicados++;
+    }
+
+    private void registarMetricas() {
+        if (lotesAplicados > 0 || !fila.isEmpty()) {
+            log.info("Aplicação da replicação: {} lotes, fila {}/{}, {} versões por aplicar, atraso máximo {} ms, {} descartadas.",
+                    lotesAplicados, fila.size(), CAPACIDADE, getAtrasoVersoes(), atrasoMaximoMs, descartadas.get());
+        }
+        lotesAplicados = 0;
+        atrasoMaximoMs = 0;
+    }
+
+    // Atrás do principal: perderam-se os últimos datagramas. À frente: as BDs divergiram
+    private void verificarVersao(long remoteVersion) throws SQLException, InterruptedException {
+        long localVersion = db.getVersaoBD();
+        if (remoteVersion > localVersion) {
+            recuperar(remoteVersion);
+        } else if (remoteVersion < localVersion) {
+            log.error("ERRO CRÍTICO: Perda de sincronização com o Principal (Versão Local: {}, Versão Remota: {} - Periódico). A TERMINAR.", localVersion, remoteVersion);
+            System.exit(1);
+        }
+    }
+
+    // Os registos chegam por ordem de versão; os já aplicados (versão <= local) são ignorados
+    // e os restantes aplicados juntos numa transação. Antes de uma lacuna, pede as versões em falta.
+    private void aplicarReplicacao(List<RegistoReplicacao> registos) throws SQLException, InterruptedException {
+        long localVersion = db.getVersaoBD();
+        List<RegistoReplicacao> novos = new ArrayList<>();
+
+        for (RegistoReplicacao r : registos) {
+            if (r.getVersao() <= localVersion) continue;
+
+            if (r.getVersao() != localVersion + 1) {
+                db.aplicarReplicacao(novos);
+                novos.clear();
+                recuperar(r.getVersao() - 1);
+
+                // Uma cópia integral pode já incluir este registo
+                localVersion = db.getVersaoBD();
+                if (r.getVersao() <= localVersion) continue;
+            }
+            novos.add(r);
+            localVersion = r.getVersao();
+        }
+        db.aplicarReplicacao(novos);
+    }
+
+    /**
+     * Pede ao principal, pelo porto TCP de BD, as versões em falta até ate e aplica-as.
+     * Se já saíram da janela que o principal guarda, recebe uma cópia integral da BD.
+     */
+    private void recuperar(long ate) throws SQLException, InterruptedException {
+        InetAddress ip = ipPrincipal;
+        int porto = portoBDPrincipal;
+        if (ip == null) {
+            log.error("ERRO CRÍTICO: Lacuna na replicação (Versão Local: {}, Remota: {}) sem principal conhecido. A TERMINAR.", db.getVersaoBD(), ate);
+            System.exit(1);
+        }
+
+        log.warn("Lacuna na replicação: versão local {}, principal em {}. A pedir versões em falta.", db.getVersaoBD(), ate);
+        for (int tentativa = 1; tentativa <= TENTATIVAS_RECUPERAR; tentativa++) {
+            try {
+                if (!ProtocoloBD.atualizar(db, ip, porto, ate)) {
+                    log.warn("Versões em falta já fora da janela do principal. A receber cópia integral da BD.");
+                    servidor.receberCopiaBD(ip, porto);
+                    return;
+                }
+                if (db.getVersaoBD() < ate) {
+                    log.error("ERRO CRÍTICO: O principal não tem as versões {}..{}. A TERMINAR.", db.getVersaoBD() + 1, ate);
+                    System.exit(1);
+                }
+                log.info("Lacuna reparada: versão local {}.", db.getVersaoBD());
+                return;
+            } catch (IOException e) {
+                log.warn("Falha ao pedir versões em falta ao principal (tentativa {}/{}): {}", tentativa, TENTATIVAS_RECUPERAR, e.getMessage());
+            }
+            if (tentativa < TENTATIVAS_RECUPERAR) Thread.sleep(ESPERA_RECUPERAR_MS << (tentativa - 1));
+        }
+
+        // O log do principal não respondeu: a cópia integral tem as suas próprias tentativas e retoma
+        log.warn("Versões em falta não recebidas. A receber cópia integral da BD.");
+        servidor.receberCopiaBD(ip, porto);
+    }
+}
@@ -0,0 +1,98 @@
+package pt.isec.pd.tp;
+
+import pt.isec.pd.tp.estruturas.Opcao;
+import pt.isec.pd.tp.estruturas.Pergunta;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Cache LRU de perguntas por código de acesso, com a janela temporal em epoch millis
+ * (lida das colunas inicio_ts/fim_ts). As perguntas guardadas são partilhadas entre
+ * handlers e não devem ser alteradas por quem as recebe.
+ */
+public class CachePerguntas {
+
+    private static final int CAPACIDADE = Math.max(16, Definicoes.inteiro("pd.cache.perguntas", 1024));
+    private static final long INTERVALO_LIMPEZA_MS = 60_000;
+
+    public static final class Entrada {
+        private final Pergunta pergunta;
+        private final Pergunta perguntaEstudante;
+        private final long inicioMs;
+        private final long fimMs;
+        private final boolean datasValidas;
+
+        private Entrada(Pergunta p, Long inicioSeg, Long fimSeg) {
+            this.pergunta = p;
+
+            List<Opcao> semSolucao = p.getOpcoes().stream()
+                    .map(o -> new Opcao(o.getLetra(), o.getTexto(), false))
+                    .collect(Collectors.toList());
+            this.perguntaEstudante = new Pergunta(p.getId(), p.getEnunciado(), p.getCodigoAcesso(), p.getInicio(), p.getFim(), semSolucao);
+
+            this.datasValidas = inicioSeg != null && fimSeg != null;
+            this.inicioMs = datasValidas ? inicioSeg * 1000 : 0;
+            this.fimMs = datasValidas ? fimSeg * 1000 : 0;
+        }
+
+        public Pergunta getPergunta() { return pergunta; }
+
+        /** Cópia sem a indicação da opção correta, para enviar a estudantes. */
+        public Pergunta getPerguntaEstudante() { return perguntaEstudante; }
+
+        public boolean isAtiva(long agoraMs) {
+            return datasValidas && inicioMs <= agoraMs && agoraMs <= fimMs;
+        }
+
+        public boolean isExpirada(long agoraMs) {
+            return datasValidas && fimMs < agoraMs;
+        }
+    }
+
+    private final Map<String, Entrada> entradas = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entrada> eldest) {
+            return size() > CAPACIDADE;
+        }
+    };
+
+    private long proximaLimpeza = System.currentTimeMillis() + INTERVALO_LIMPEZA_MS;
+
+    // Incrementada em cada invalidação: evita guardar uma leitura feita antes de uma alteração
+    private long geracao = 0;
+
+    public synchronized Entrada obter(String codigo) {
+        return entradas.get(codigo);
+    }
+
+    public synchronized long getGeracao() {
+        return geracao;
+    }
+
+    public synchronized Entrada guardar(Pergunta p, Long inicioSeg, Long fimSeg, long geracaoLida) {
+        long agora = System.currentTimeMillis();
+        if (agora >= proximaLimpeza) {
+            entradas.values().removeIf(e -> e.isExpirada(agora));
+            proximaLimpeza = agora + INTERVALO_LIMPEZA_MS;
+        }
+
+        Entrada e = new Entrada(p, inicioSeg, fimSeg);
+        if (geracaoLida == geracao && !e.isExpirada(agora)) {
+            entradas.put(p.getCodigoAcesso(), e);
+        }
+        return e;
+    }
+
+    public synchronized void invalidar(String codigo) {
+        geracao++;
+        entradas.remove(codigo);
+    }
+
+    public synchronized void limpar() {
+        geracao++;
+        entradas.clear();
+    }
+}
@@ -0,0 +1,295 @@
+package pt.isec.pd.tp;
+
+import pt.isec.pd.tp.estruturas.Operacao;
+import pt.isec.pd.tp.estruturas.RegistoReplicacao;
+import pt.isec.pd.tp.estruturas.TipoOperacao;
+import pt.isec.pd.tp.mensagens.Mensagem;
+import pt.isec.pd.tp.mensagens.MsgHeartbeat;
+import pt.isec.pd.tp.mensagens.MsgReplicacao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Formato binário dos datagramas de heartbeat e de replicação.
+ *
+ * Cada datagrama tem um cabeçalho fixo de 12 bytes: magia "PD" (2), versão do formato (1),
+ * tipo (1), id da mensagem (4), índice do fragmento (2) e número de fragmentos (2), tudo
+ * big-endian. Segue-se o troço do conteúdo: inteiros sem sinal em varint, parâmetros com
+ * sinal em varint zigzag e texto em UTF-8 precedido do comprimento.
+ * Uma mensagem maior que um datagrama é partida em fragmentos com o mesmo id
+ * (ver {@link RemontagemFragmentos}).
+ *
+ * Escritor e Leitor reutilizam os seus buffers: cada instância é usada por uma só thread.
+ */
+public final class CodecDatagramas {
+
+    public static final int CABECALHO = 12;
+    public static final int VERSAO = 1;
+
+    public static final int TIPO_HEARTBEAT = 1;
+    public static final int TIPO_REPLICACAO = 2;
+
+    private static final int MAGIA_0 = 'P';
+    private static final int MAGIA_1 = 'D';
+
+    // Marcas do tipo de cada parâmetro de uma operação
+    private static final int P_NULO = 0;
+    private static final int P_INT = 1;
+    private static final int P_LONG = 2;
+    private static final int P_TEXTO = 3;
+    private static final int P_FALSO = 4;
+    private static final int P_VERDADEIRO = 5;
+
+    private CodecDatagramas() {}
+
+    /** Indica se o datagrama começa pela magia deste formato (a serialização Java começa por 0xACED). */
+    public static boolean isBinario(byte[] d, int off, int len) {
+        return len >= CABECALHO && d[off] == MAGIA_0 && d[off + 1] == MAGIA_1;
+    }
+
+    public static int versao(byte[] d, int off) { return d[off + 2] & 0xFF; }
+    public static int tipo(byte[] d, int off) { return d[off + 3] & 0xFF; }
+
+    public static int idMensagem(byte[] d, int off) {
+        return ((d[off + 4] & 0xFF) << 24) | ((d[off + 5] & 0xFF) << 16) | ((d[off + 6] & 0xFF) << 8) | (d[off + 7] & 0xFF);
+    }
+
+    public static int indiceFragmento(byte[] d, int off) { return ((d[off + 8] & 0xFF) << 8) | (d[off + 9] & 0xFF); }
+    public static int totalFragmentos(byte[] d, int off) { return ((d[off + 10] & 0xFF) << 8) | (d[off + 11] & 0xFF); }
+
+    /** Conteúdo de uma mensagem a enviar; cresce conforme necessário e é reutilizado entre mensagens. */
+    public static final class Escritor {
+        private byte[] buf;
+        private int pos;
+        private int tipo;
+
+        public Escritor(int capacidadeInicial) {
+            this.buf = new byte[Math.max(64, capacidadeInicial)];
+        }
+
+        public void iniciar(int tipo) {
+            this.tipo = tipo;
+            this.pos = 0;
+        }
+
+        public int tamanho() { return pos; }
+
+        /** Cópia do conteúdo atual, sem cabeçalho (ex.: para guardar um registo em disco). */
+        public byte[] copiar() { return Arrays.copyOf(buf, pos); }
+
+        /** Escreve o conteúdo atual, sem cabeçalho, num stream (ex.: resposta por TCP). */
+        public void escreverPara(OutputStream os) throws IOException { os.write(buf, 0, pos); }
+
+        public void heartbeat(MsgHeartbeat hb) {
+            varint(hb.getVersaoBD());
+            varint(hb.getPortoClienteTCP());
+            varint(hb.getPortoBDT_TCP());
+        }
+
+        public void registo(RegistoReplicacao r) {
+            varint(r.getVersao());
+            varint(r.getOperacoes().size());
+            for (Operacao op : r.getOperacoes()) {
+                Object[] p = op.getParametros();
+                garantir(2);
+                buf[pos++] = (byte) op.getTipo().getCodigo();
+                buf[pos++] = (byte) p.length;
+                for (Object v : p) parametro(v);
+            }
+        }
+
+        private void parametro(Object v) {
+            garantir(1);
+            if (v == null) {
+                buf[pos++] = P_NULO;
+            } else if (v instanceof Integer) {
+                buf[pos++] = P_INT;
+                zigzag((Integer) v);
+            } else if (v instanceof Long) {
+                buf[pos++] = P_LONG;
+                zigzag((Long) v);
+            } else if (v instanceof String) {
+                buf[pos++] = P_TEXTO;
+                texto((String) v);
+            } else if (v instanceof Boolean) {
+                buf[pos++] = (byte) ((Boolean) v ? P_VERDADEIRO : P_FALSO);
+            } else {
+                throw new IllegalArgumentException("Parâmetro não suportado: " + v.getClass().getSimpleName());
+            }
+        }
+
+        /** Número de datagramas necessários para o conteúdo atual, com troços de no máximo maxTroco bytes. */
+        public int numFragmentos(int maxTroco) {
+            return Math.max(1, (pos + maxTroco - 1) / maxTroco);
+        }
+
+        /** Escreve em destino o fragmento indice (cabeçalho + troço) e devolve o tamanho do datagrama. */
+        public int fragmento(int idMensagem, int indice, int maxTroco, byte[] destino) {
+            int total = numFragmentos(maxTroco);
+            int inicio = indice * maxTroco;
+            int len = Math.min(maxTroco, pos - inicio);
+
+            destino[0] = MAGIA_0;
+            destino[1] = MAGIA_1;
+            destino[2] = VERSAO;
+            destino[3] = (byte) tipo;
+            destino[4] = (byte) (idMensagem >>> 24);
+            destino[5] = (byte) (idMensagem >>> 16);
+            destino[6] = (byte) (idMensagem >>> 8);
+            destino[7] = (byte) idMensagem;
+            destino[8] = (byte) (indice >>> 8);
+            destino[9] = (byte) indice;
+            destino[10] = (byte) (total >>> 8);
+            destino[11] = (byte) total;
+            System.arraycopy(buf, inicio, destino, CABECALHO, len);
+            return CABECALHO + len;
+        }
+
+        private void varint(long v) {
+            garantir(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void zigzag(long v) {
+            varint((v << 1) ^ (v >> 63));
+        }
+
+        // Codifica diretamente no buffer, sem criar o byte[] de String.getBytes
+        private void texto(String s) {
+            int n = s.length();
+            int bytes = 0;
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) bytes++;
+                else if (c < 0x800) bytes += 2;
+                else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 4;
+                    i++;
+                } else bytes += 3;
+            }
+
+            varint(bytes);
+            garantir(bytes);
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    // Surrogate sem par: segue em 3 bytes e o leitor troca-o por U+FFFD
+                    buf[pos++] = (byte) (0xE0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void garantir(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+
+    /** Lê o conteúdo de uma mensagem diretamente do array recebido, sem streams intermédios. */
+    public static final class Leitor {
+        private byte[] buf;
+        private int pos;
+        private int fim;
+
+        /** Lê a mensagem (heartbeat ou replicação) no troço [off, off+len) de um tipo já conhecido. */
+        public Mensagem ler(int tipo, byte[] dados, int off, int len) throws IOException {
+            this.buf = dados;
+            this.pos = off;
+            this.fim = off + len;
+            try {
+                switch (tipo) {
+                    case TIPO_HEARTBEAT:
+                        return new MsgHeartbeat(varint(), (int) varint(), (int) varint());
+                    case TIPO_REPLICACAO:
+                        List<RegistoReplicacao> registos = new ArrayList<>();
+                        while (pos < fim) registos.add(registo());
+                        return new MsgReplicacao(registos);
+                    default:
+                        throw new IOException("Tipo de mensagem desconhecido: " + tipo);
+                }
+            } finally {
+                this.buf = null;
+            }
+        }
+
+        private RegistoReplicacao registo() throws IOException {
+            long versao = varint();
+            int n = (int) varint();
+            List<Operacao> operacoes = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                exigir(2);
+                int codigo = buf[pos++] & 0xFF;
+                TipoOperacao tipo = TipoOperacao.deCodigo(codigo);
+                if (tipo == null) throw new IOException("Operação desconhecida: " + codigo);
+
+                Object[] p = new Object[buf[pos++] & 0xFF];
+                for (int j = 0; j < p.length; j++) p[j] = parametro();
+                operacoes.add(new Operacao(tipo, p));
+            }
+            return new RegistoReplicacao(versao, operacoes);
+        }
+
+        private Object parametro() throws IOException {
+            exigir(1);
+            int marca = buf[pos++];
+            switch (marca) {
+                case P_NULO: return null;
+                case P_INT: return (int) zigzag();
+                case P_LONG: return zigzag();
+                case P_TEXTO: return texto();
+                case P_FALSO: return Boolean.FALSE;
+                case P_VERDADEIRO: return Boolean.TRUE;
+                default: throw new IOException("Parâmetro com marca desconhecida: " + marca);
+            }
+        }
+
+        private long varint() throws IOException {
+            long v = 0;
+            for (int desl = 0; desl < 64; desl += 7) {
+                exigir(1);
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << desl;
+                if (b >= 0) return v;
+            }
+            throw new IOException("Varint demasiado longo.");
+        }
+
+        private long zigzag() throws IOException {
+            long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private String texto() throws IOException {
+            int n = (int) varint();
+            exigir(n);
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+
+        private void exigir(int n) throws IOException {
+            if (n < 0 || pos + n > fim) throw new IOException("Mensagem truncada.");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package pt.isec.pd.tp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isec.pd.tp.servidor.ServerAPI;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agrupa as respostas submetidas em simultâneo e grava-as numa única transação
+ * (group commit), com um só incremento de versão e uma só publicação para os backups.
+ * Um lote fecha ao fim de JANELA_MS ou quando atinge TAMANHO_LOTE respostas.
+ */
+public class ColetorRespostas implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger("Respostas");
+
+
+    private static final int TAMANHO_LOTE = Math.max(1, Definicoes.inteiro("pd.respostas.lote", 64));
+    private static final long JANELA_MS = Math.max(0, Definicoes.longo("pd.respostas.janela_ms", 5));
+
+    private final DatabaseManager db;
+    private final ServerAPI serverAPI;
+    private final BlockingQueue<RespostaPendente> fila = new LinkedBlockingQueue<>();
+
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public ColetorRespostas(DatabaseManager db, ServerAPI serverAPI) {
+        this.db = db;
+        this.serverAPI = serverAPI;
+    }
+
+    public CompletableFuture<RespostaPendente.Estado> submeter(int estudanteId, String codigoAcesso, String letra) {
+        RespostaPendente pendente = new RespostaPendente(estudanteId, codigoAcesso, letra);
+        fila.add(pendente);
+        // Se o coletor parou entretanto, a fila pode já ter sido esvaziada antes deste add
+        if (!running) descartarFila();
+        return pendente.getResultado();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        this.thread = Thread.currentThread();
+        List<RespostaPendente> lote = new ArrayList<>(TAMANHO_LOTE);
+
+        try {
+            while (running) {
+                lote.add(fila.take());
+
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(JANELA_MS);
+                while (lote.size() < TAMANHO_LOTE) {
+                    long restante = limite - System.nanoTime();
+                    if (restante <= 0) {
+                        fila.drainTo(lote, TAMANHO_LOTE - lote.size());
+                        break;
+                    }
+                    RespostaPendente seguinte = fila.poll(restante, TimeUnit.NANOSECONDS);
+                    if (seguinte == null) break;
+                    lote.add(seguinte);
+                }
+
+                processarLote(lote);
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lote.forEach(RespostaPendente::concluir);
+            descartarFila();
+        }
+    }
+
+    // Conclui sem gravar o que ficou por tratar; pode correr ao mesmo tempo em submeter() e run()
+    private void descartarFila() {
+        RespostaPendente p;
+        while ((p = fila.poll()) != null) p.concluir();
+    }
+
+    private void processarLote(List<RespostaPendente> lote) {
+        serverAPI.getBDLock().lock();
+        try {
+            Alteracao alteracao;
+            try {
+                alteracao = db.registarRespostasEmLote(lote);
+            } catch (Exception e) {
+                log.error("Erro ao gravar lote de {} respostas: {}", lote.size(), e.getMessage());
+                lote.forEach(p -> p.setEstado(RespostaPendente.Estado.FALHA));
+                return;
+            }
+
+            // O lote já está gravado: uma falha a publicar não muda a resposta aos estudantes, e os
+            // backups obtêm a versão em falta pela reparação de lacunas quando virem o heartbeat
+            if (alteracao != null) {
+                try {
+                    serverAPI.publicarAlteracao(alteracao);
+                } catch (Exception e) {
+                    log.error("Lote de respostas gravado (versão {}) mas não publicado: {}", alteracao.getVersao(), e.getMessage());
+                }
+            }
+        } finally {
+            serverAPI.getBDLock().unlock();
+            lote.forEach(RespostaPendente::concluir);
+        }
+    }
+}
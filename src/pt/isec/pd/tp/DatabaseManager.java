@@ -1,19 +1,116 @@
 package pt.isec.pd.tp;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import pt.isec.pd.tp.estruturas.*;
+import pt.isec.pd.tp.mensagens.MsgReplicacao;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DatabaseManager {
+    private static final Logger log = LoggerFactory.getLogger("BD");
+
     private static final java.time.format.DateTimeFormatter FORMATTER = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 
+    // Perfil de durabilidade/desempenho do SQLite, ajustável por instalação (-Dpd.bd.*)
+    private static final int NUM_LEITORES = Math.max(1, Definicoes.inteiro("pd.bd.leitores", 4));
+    private static final String SYNCHRONOUS = Definicoes.texto("pd.bd.synchronous", "NORMAL");
+    private static final int CACHE_KB = Definicoes.inteiro("pd.bd.cache_kb", 8192);
+    private static final long MMAP_BYTES = Definicoes.longo("pd.bd.mmap_bytes", 64L * 1024 * 1024);
+    private static final int BUSY_TIMEOUT_MS = Definicoes.inteiro("pd.bd.busy_timeout_ms", 5000);
+
+    private static final int TAMANHO_LOTE_MIGRACAO = 500;
+
+    // Versões recentes guardadas em LogReplicacao para reparar lacunas dos backups sem cópia integral
+    private static final long JANELA_LOG = Math.max(1, Definicoes.longo("pd.replicacao.janela", 10_000));
+    private static final int INTERVALO_PODA_LOG = 256;
+
+    // Uma só leitura decide o destino de uma resposta: sem linha a pergunta não existe; senão cada
+    // coluna diz se está ativa, se o estudante já respondeu e se a letra é uma das opções.
+    // Corre na ligação de escrita, sob o lock escrita, e nada muda entre ela e a inserção
+    private static final String SQL_VERIFICAR_RESPOSTA =
+            "SELECT p.id, (p.inicio_ts <= ? AND p.fim_ts >= ?) AS ativa, " +
+            "EXISTS (SELECT 1 FROM Resposta r WHERE r.estudante_id = ? AND r.pergunta_id = p.id) AS respondida, " +
+            "EXISTS (SELECT 1 FROM Opcao o WHERE o.pergunta_id = p.id AND o.letra_opcao = ?) AS tem_opcao " +
+            "FROM Pergunta p WHERE p.codigo_acesso = ?";
+
+    private static final String SQL_INSERIR_RESPOSTA =
+            "INSERT INTO Resposta(estudante_id, pergunta_id, opcao_escolhida, data_hora, data_hora_ts) VALUES(?,?,?,?,?) RETURNING id";
+
+    private static final String SQL_INCREMENTAR_ESTATISTICA =
+            "UPDATE EstatisticaOpcao SET respostas = respostas + 1 WHERE pergunta_id = ? AND letra_opcao = ?";
+
+    private static final String SQL_EDITAR_DOCENTE = "UPDATE Docente SET nome = ?, password = ? WHERE email = ?";
+    private static final String SQL_EDITAR_ESTUDANTE = "UPDATE Estudante SET numero_estudante = ?, nome = ?, password = ? WHERE email = ?";
+    private static final String SQL_EDITAR_PERGUNTA = "UPDATE Pergunta SET enunciado=?, inicio=?, fim=?, inicio_ts=?, fim_ts=? WHERE codigo_acesso=?";
+    private static final String SQL_ELIMINAR_PERGUNTA = "DELETE FROM Pergunta WHERE codigo_acesso = ?";
+    private static final String SQL_INSERIR_OPCAO = "INSERT INTO Opcao(pergunta_id, letra_opcao, texto_opcao, opcao_correta) VALUES(?,?,?,?)";
+    private static final String SQL_INSERIR_ESTATISTICA = "INSERT INTO EstatisticaOpcao(pergunta_id, letra_opcao, correta, respostas) VALUES(?,?,?,0)";
+
+    // Instrução aplicada nos backups para cada tipo de operação; as inserções levam o id do principal
+    private static final Map<TipoOperacao, String> SQL_REPLICA = new EnumMap<>(TipoOperacao.class);
+    static {
+        SQL_REPLICA.put(TipoOperacao.INSERIR_DOCENTE, "INSERT INTO Docente(id, nome, email, password) VALUES(?,?,?,?)");
+        SQL_REPLICA.put(TipoOperacao.EDITAR_DOCENTE, SQL_EDITAR_DOCENTE);
+        SQL_REPLICA.put(TipoOperacao.INSERIR_ESTUDANTE, "INSERT INTO Estudante(id, numero_estudante, nome, email, password) VALUES(?,?,?,?,?)");
+        SQL_REPLICA.put(TipoOperacao.EDITAR_ESTUDANTE, SQL_EDITAR_ESTUDANTE);
+        SQL_REPLICA.put(TipoOperacao.INSERIR_PERGUNTA, "INSERT INTO Pergunta(id, docente_id, enunciado, codigo_acesso, inicio, fim, inicio_ts, fim_ts) VALUES(?,?,?,?,?,?,?,?)");
+        SQL_REPLICA.put(TipoOperacao.EDITAR_PERGUNTA, SQL_EDITAR_PERGUNTA);
+        SQL_REPLICA.put(TipoOperacao.ELIMINAR_PERGUNTA, SQL_ELIMINAR_PERGUNTA);
+        SQL_REPLICA.put(TipoOperacao.INSERIR_OPCAO, SQL_INSERIR_OPCAO);
+        SQL_REPLICA.put(TipoOperacao.INSERIR_ESTATISTICA, SQL_INSERIR_ESTATISTICA);
+        SQL_REPLICA.put(TipoOperacao.INSERIR_RESPOSTA, "INSERT INTO Resposta(id, estudante_id, pergunta_id, opcao_escolhida, data_hora, data_hora_ts) VALUES(?,?,?,?,?,?)");
+        SQL_REPLICA.put(TipoOperacao.INCREMENTAR_ESTATISTICA, SQL_INCREMENTAR_ESTATISTICA);
+    }
+
     private String dbPath;
+
+    // Versão da BD em memória: carregada ao ligar e avançada só depois do commit de cada escrita
+    private final AtomicLong versao = new AtomicLong();
+
+    // Identifica a linhagem da BD: criada uma vez no principal e herdada pelas cópias dos backups
+    private volatile String idBD;
+
+    // Ligação única de escrita: todas as alterações passam por aqui, sob o lock escrita.
+    // É um ReentrantLock e não synchronized para que uma thread virtual à espera dele não
+    // prenda a thread de suporte
     private Connection conn;
+    private final ReentrantLock escrita = new ReentrantLock();
+
+    // Ligações só de leitura, emprestadas aos métodos de consulta (WAL permite leituras concorrentes).
+    // Cada uma volta à fila de onde saiu: desconectar() troca de fila, e uma ligação já fechada
+    // que só seja devolvida depois não entra no conjunto aberto a seguir
+    private volatile BlockingQueue<Connection> leitores = new LinkedBlockingQueue<>();
+    private final List<Connection> todosLeitores = new ArrayList<>();
+    // Partilhado enquanto há uma ligação de leitura emprestada; desconectar() fica com ele em
+    // exclusivo, para não fechar o conjunto (e trocar o ficheiro) debaixo de uma consulta em curso
+    private final ReentrantReadWriteLock emprestimos = new ReentrantReadWriteLock();
+
+    private final CachePerguntas cache = new CachePerguntas();
+
+    // Codifica os registos guardados em LogReplicacao; usado só dentro de mutar()
+    private final CodecDatagramas.Escritor escritorLog = new CodecDatagramas.Escritor(1024);
+
+    // Instruções de SQL_REPLICA já preparadas na ligação de escrita, reutilizadas entre lotes replicados
+    private final Map<TipoOperacao, PreparedStatement> preparadasReplica = new EnumMap<>(TipoOperacao.class);
 
     public DatabaseManager(String dbPath) {
         this.dbPath = dbPath;
@@ -33,13 +130,13 @@ public class DatabaseManager {
 
     public boolean validarCodigoDocente(String codigoFornecido) {
         String sql = "SELECT codigo_docente_hash FROM Configuracao WHERE id = 1";
-        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+        try (LigacaoLeitura l = emprestarLeitura(); Statement stmt = l.get().createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
             if (rs.next()) {
                 String hashGuardada = rs.getString("codigo_docente_hash");
                 return hashGuardada.equals(hashPassword(codigoFornecido));
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Erro ao validar código de docente", e);
         }
         return false;
     }
@@ -57,19 +154,151 @@ public class DatabaseManager {
         this.conn = DriverManager.getConnection(url);
 
         try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode = WAL;");
+            stmt.execute("PRAGMA synchronous = " + SYNCHRONOUS + ";");
             stmt.execute("PRAGMA foreign_keys = ON;");
+            aplicarPragmasComuns(stmt);
+        }
+
+        Properties propsLeitura = new Properties();
+        propsLeitura.setProperty("open_mode", "1"); // SQLITE_OPEN_READONLY
+
+        for (int i = 0; i < NUM_LEITORES; i++) {
+            Connection leitor = DriverManager.getConnection(url, propsLeitura);
+            try (Statement stmt = leitor.createStatement()) {
+                stmt.execute("PRAGMA query_only = ON;");
+                aplicarPragmasComuns(stmt);
+            }
+            todosLeitores.add(leitor);
+            leitores.add(leitor);
+        }
+
+        carregarVersao();
+        log.info("Ligação estabelecida a {} (WAL, synchronous={}, {} leitores, versão {})", this.dbPath, SYNCHRONOUS, NUM_LEITORES, versao.get());
+    }
+
+    // Numa BD nova a tabela Configuracao ainda não existe: a versão fica a 0 até criarTabelas()
+    private void carregarVersao() {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT versao FROM Configuracao WHERE id = 1")) {
+            versao.set(rs.next() ? rs.getLong("versao") : 0);
+        } catch (SQLException e) {
+            versao.set(0);
+        }
+
+        // Numa BD anterior à coluna id_bd fica null até migrarIdentidade()
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id_bd FROM Configuracao WHERE id = 1")) {
+            idBD = rs.next() ? rs.getString("id_bd") : null;
+        } catch (SQLException e) {
+            idBD = null;
         }
-        System.out.println("[BD] Ligação estabelecida a " + this.dbPath);
+    }
+
+    private void aplicarPragmasComuns(Statement stmt) throws SQLException {
+        stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS + ";");
+        stmt.execute("PRAGMA cache_size = -" + CACHE_KB + ";");
+        stmt.execute("PRAGMA mmap_size = " + MMAP_BYTES + ";");
     }
 
     public void desconectar() {
+        boolean exclusivo = false;
+        try {
+            exclusivo = emprestimos.writeLock().tryLock(BUSY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!exclusivo) log.warn("Leituras ainda em curso ao desligar a BD; as ligações são fechadas na mesma.");
+
+        escrita.lock();
         try {
-            if (conn != null) {
-                conn.close();
-                System.out.println("[BD] Ligação fechada.");
+            cache.limpar();
+            for (PreparedStatement ps : preparadasReplica.values()) {
+                try { ps.close(); } catch (SQLException ignored) {}
+            }
+            preparadasReplica.clear();
+            for (Connection leitor : todosLeitores) {
+                try { leitor.close(); } catch (SQLException ignored) {}
+            }
+            todosLeitores.clear();
+            leitores = new LinkedBlockingQueue<>();
+
+            try {
+                if (conn != null) {
+                    conn.close();
+                    log.info("Ligação fechada.");
+                }
+            } catch (SQLException ex) {
+                log.error("Erro ao fechar a ligação: {}", ex.getMessage());
             }
-        } catch (SQLException ex) {
-            System.err.println("[BD] Erro ao fechar a ligação: " + ex.getMessage());
+        } finally {
+            escrita.unlock();
+            if (exclusivo) emprestimos.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Cópia consistente da BD para um ficheiro novo (que não pode existir), com VACUUM INTO numa
+     * ligação à parte: lê um instantâneo do WAL e não bloqueia a ligação de escrita nem BD_LOCK.
+     * Devolve a versão da BD contida na cópia.
+     */
+    public long criarSnapshot(File destino) throws SQLException {
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + this.dbPath);
+             PreparedStatement ps = c.prepareStatement("VACUUM INTO ?")) {
+            try (Statement stmt = c.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS + ";");
+            }
+            ps.setString(1, destino.getAbsolutePath());
+            ps.execute();
+        }
+
+        // A versão gravada na cópia é a da última transação que o instantâneo inclui
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + destino.getAbsolutePath());
+             Statement stmt = c.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT versao FROM Configuracao WHERE id = 1")) {
+            return rs.next() ? rs.getLong("versao") : 0;
+        }
+    }
+
+    private LigacaoLeitura emprestarLeitura() throws SQLException {
+        boolean emprestada = false;
+        try {
+            if (!emprestimos.readLock().tryLock(BUSY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("BD a ser substituída.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrompido à espera de ligação de leitura.");
+        }
+        try {
+            BlockingQueue<Connection> fila = leitores;
+            Connection c = fila.poll(BUSY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (c == null) throw new SQLException("Sem ligações de leitura disponíveis.");
+            emprestada = true;
+            return new LigacaoLeitura(c, fila);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrompido à espera de ligação de leitura.");
+        } finally {
+            if (!emprestada) emprestimos.readLock().unlock();
+        }
+    }
+
+    private final class LigacaoLeitura implements AutoCloseable {
+        private final Connection c;
+        private final BlockingQueue<Connection> origem;
+
+        private LigacaoLeitura(Connection c, BlockingQueue<Connection> origem) {
+            this.c = c;
+            this.origem = origem;
+        }
+
+        Connection get() { return c; }
+
+        @Override
+        public void close() {
+            origem.offer(c);
+            emprestimos.readLock().unlock();
         }
     }
 
@@ -106,6 +335,8 @@ public class DatabaseManager {
                 "codigo_acesso TEXT UNIQUE NOT NULL, " +
                 "inicio TEXT NOT NULL, " +
                 "fim TEXT NOT NULL, " +
+                "inicio_ts INTEGER, " +
+                "fim_ts INTEGER, " +
                 "FOREIGN KEY(docente_id) REFERENCES Docente(id)" +
                 ");";
 
@@ -125,6 +356,7 @@ public class DatabaseManager {
                 "pergunta_id INTEGER NOT NULL, " +
                 "opcao_escolhida TEXT NOT NULL, " +
                 "data_hora TEXT NOT NULL, " +
+                "data_hora_ts INTEGER, " +
                 "UNIQUE(estudante_id, pergunta_id), " +
                 "FOREIGN KEY(estudante_id) REFERENCES Estudante(id), " +
                 "FOREIGN KEY(pergunta_id) REFERENCES Pergunta(id)" +
@@ -137,155 +369,344 @@ public class DatabaseManager {
             stmt.execute(sqlPergunta);
             stmt.execute(sqlOpcao);
             stmt.execute(sqlResposta);
+            stmt.execute("CREATE TABLE IF NOT EXISTS LogReplicacao (versao INTEGER PRIMARY KEY, dados BLOB NOT NULL)");
 
             String codigoHash = hashPassword("DOCENTE2025");
             String sqlInitConfig = "INSERT OR IGNORE INTO Configuracao (id, versao, codigo_docente_hash) VALUES (1, 0, '" + codigoHash + "');";
             stmt.execute(sqlInitConfig);
 
-            System.out.println("[BD] Tabelas verificadas e configuração inicial assegurada.");
+            log.info("Tabelas verificadas e configuração inicial assegurada.");
         }
+
+        migrarColunasTemporais();
+        migrarIdentidade();
+        criarTabelaEstatisticas();
+        carregarVersao();
     }
 
-    private int incrementarVersao() {
-        String sql = "UPDATE Configuracao SET versao = versao + 1 WHERE id = 1";
-        try (Statement stmt = conn.createStatement()) {
-            stmt.executeUpdate(sql);
-            return getVersaoBD();
-        } catch (SQLException e) {
-            System.err.println("[BD] Erro crítico: Falha ao incrementar versão da BD: " + e.getMessage());
-            return -1;
+    /**
+     * Agregado por pergunta/opção mantido na mesma transação que grava cada resposta,
+     * para que as estatísticas sejam uma leitura direta pela chave primária.
+     */
+    private void criarTabelaEstatisticas() throws SQLException {
+        escrita.lock();
+        try {
+            boolean existia;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'EstatisticaOpcao'")) {
+                existia = rs.next();
+            }
+            if (existia) return;
+
+            try (Statement stmt = conn.createStatement()) {
+                conn.setAutoCommit(false);
+                stmt.execute("CREATE TABLE EstatisticaOpcao (" +
+                        "pergunta_id INTEGER NOT NULL, " +
+                        "letra_opcao TEXT NOT NULL, " +
+                        "correta BOOLEAN NOT NULL, " +
+                        "respostas INTEGER NOT NULL DEFAULT 0, " +
+                        "PRIMARY KEY(pergunta_id, letra_opcao), " +
+                        "FOREIGN KEY(pergunta_id) REFERENCES Pergunta(id) ON DELETE CASCADE" +
+                        ") WITHOUT ROWID");
+                int n = stmt.executeUpdate("INSERT INTO EstatisticaOpcao(pergunta_id, letra_opcao, correta, respostas) " +
+                        "SELECT o.pergunta_id, o.letra_opcao, o.opcao_correta, " +
+                        "(SELECT COUNT(*) FROM Resposta r WHERE r.pergunta_id = o.pergunta_id AND r.opcao_escolhida = o.letra_opcao) " +
+                        "FROM Opcao o");
+                conn.commit();
+                log.info("Migração: tabela EstatisticaOpcao criada ({} opções agregadas).", n);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } finally {
+            escrita.unlock();
         }
     }
 
+    /**
+     * Migração online das datas em TEXT para colunas epoch (segundos) indexadas.
+     * Acrescenta as colunas se faltarem e preenche-as em pequenos lotes, para não
+     * prender a escrita durante muito tempo em BDs grandes.
+     */
+    private void migrarColunasTemporais() throws SQLException {
+        escrita.lock();
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                if (!existeColuna("Pergunta", "inicio_ts")) {
+                    stmt.execute("ALTER TABLE Pergunta ADD COLUMN inicio_ts INTEGER");
+                    stmt.execute("ALTER TABLE Pergunta ADD COLUMN fim_ts INTEGER");
+                    log.info("Migração: colunas inicio_ts/fim_ts adicionadas a Pergunta.");
+                }
+                if (!existeColuna("Resposta", "data_hora_ts")) {
+                    stmt.execute("ALTER TABLE Resposta ADD COLUMN data_hora_ts INTEGER");
+                    log.info("Migração: coluna data_hora_ts adicionada a Resposta.");
+                }
 
+                // As datas em TEXT estão em hora local; o modificador 'utc' converte-as para epoch
+                int n = preencherEmLotes(stmt, "Pergunta",
+                        "inicio_ts = CAST(strftime('%s', inicio, 'utc') AS INTEGER), fim_ts = CAST(strftime('%s', fim, 'utc') AS INTEGER)",
+                        "inicio_ts IS NULL OR fim_ts IS NULL");
+                n += preencherEmLotes(stmt, "Resposta",
+                        "data_hora_ts = CAST(strftime('%s', data_hora, 'utc') AS INTEGER)",
+                        "data_hora_ts IS NULL");
+                if (n > 0) log.info("Migração: {} linhas convertidas para epoch.", n);
+
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_pergunta_docente_inicio ON Pergunta(docente_id, inicio_ts)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_pergunta_fim ON Pergunta(fim_ts)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_resposta_estudante_data ON Resposta(estudante_id, data_hora_ts)");
+            }
+        } finally {
+            escrita.unlock();
+        }
+    }
 
-    public synchronized String registarDocente(Docente d) {
-        String sql = "INSERT INTO Docente(nome, email, password) VALUES(?,?,?)";
-        String passHash = hashPassword(d.getPassword());
-
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, d.getNome());
-            pstmt.setString(2, d.getEmail());
-            pstmt.setString(3, passHash);
-            pstmt.executeUpdate();
+    private int preencherEmLotes(Statement stmt, String tabela, String atribuicoes, String condicao) throws SQLException {
+        long maxId;
+        try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + tabela)) {
+            maxId = rs.next() ? rs.getLong(1) : 0;
+        }
 
-            incrementarVersao();
-            System.out.println("[BD] pt.isec.pd.tp.bases.Docente registado: " + d.getEmail());
+        int total = 0;
+        for (long de = 0; de < maxId; de += TAMANHO_LOTE_MIGRACAO) {
+            total += stmt.executeUpdate("UPDATE " + tabela + " SET " + atribuicoes +
+                    " WHERE id > " + de + " AND id <= " + (de + TAMANHO_LOTE_MIGRACAO) + " AND (" + condicao + ")");
+        }
+        return total;
+    }
 
-            return String.format("INSERT INTO pt.isec.pd.tp.bases.Docente(nome, email, password) VALUES('%s','%s','%s')",
-                    d.getNome(), d.getEmail(), passHash);
+    private void migrarIdentidade() throws SQLException {
+        escrita.lock();
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                if (!existeColuna("Configuracao", "id_bd")) {
+                    stmt.execute("ALTER TABLE Configuracao ADD COLUMN id_bd TEXT");
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement("UPDATE Configuracao SET id_bd = ? WHERE id = 1 AND id_bd IS NULL")) {
+                ps.setString(1, java.util.UUID.randomUUID().toString());
+                if (ps.executeUpdate() > 0) log.info("Identificador da BD criado.");
+            }
+        } finally {
+            escrita.unlock();
+        }
+    }
 
-        } catch (SQLException e) {
-            System.err.println("[BD] Erro ao registar docente: " + e.getMessage());
-            return null;
+    private boolean existeColuna(String tabela, String coluna) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + tabela + ")")) {
+            while (rs.next()) {
+                if (coluna.equalsIgnoreCase(rs.getString("name"))) return true;
+            }
         }
+        return false;
     }
 
+    private static long paraEpoch(String data) {
+        return java.time.LocalDateTime.parse(data.trim(), FORMATTER).atZone(java.time.ZoneId.systemDefault()).toEpochSecond();
+    }
+
+    // Escrita feita dentro da transação de mutar(); devolve as operações a replicar, ou null se nada mudou
+    private interface Mutacao {
+        List<Operacao> aplicar() throws SQLException;
+    }
 
-    public synchronized String editarDocente(String emailAntigo, String novoNome, String novaPass) {
-        String passHash = hashPassword(novaPass);
-        String sql = "UPDATE Docente SET nome = ?, password = ? WHERE email = ?";
+    // Escrita no principal: a versão seguinte, com o registo guardado no log na mesma transação
+    private Alteracao mutar(Mutacao m) throws SQLException {
+        long novaVersao = versao.get() + 1;
+        return mutar(novaVersao, () -> {
+            List<Operacao> operacoes = m.aplicar();
+            if (operacoes != null) gravarNoLog(new RegistoReplicacao(novaVersao, operacoes));
+            return operacoes;
+        });
+    }
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, novoNome);
-            pstmt.setString(2, passHash);
-            pstmt.setString(3, emailAntigo);
-            int rows = pstmt.executeUpdate();
+    /**
+     * Corre a escrita e a gravação da nova versão na mesma transação. O contador em memória
+     * só avança depois do commit, por isso nunca expõe uma versão que não ficou gravada.
+     * Chamado apenas com o lock escrita.
+     */
+    private Alteracao mutar(long novaVersao, Mutacao m) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            List<Operacao> operacoes = m.aplicar();
+            if (operacoes == null) {
+                conn.rollback();
+                return null;
+            }
 
-            if (rows > 0) {
-                incrementarVersao();
-                System.out.println("[BD] pt.isec.pd.tp.bases.Docente editado: " + emailAntigo);
-                return String.format("UPDATE pt.isec.pd.tp.bases.Docente SET nome='%s', password='%s' WHERE email='%s'",
-                        novoNome, passHash, emailAntigo);
+            try (PreparedStatement ps = conn.prepareStatement("UPDATE Configuracao SET versao = ? WHERE id = 1")) {
+                ps.setLong(1, novaVersao);
+                ps.executeUpdate();
             }
+            conn.commit();
+            versao.set(novaVersao);
+            return new Alteracao(operacoes, novaVersao);
+
         } catch (SQLException e) {
-            System.err.println("[BD] Erro ao editar docente: " + e.getMessage());
+            try {
+                conn.rollback();
+            } catch (SQLException ignored) {
+            }
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
         }
-        return null;
     }
 
 
-    public synchronized String registarEstudante(Estudante e) {
-        String sql = "INSERT INTO Estudante(numero_estudante, nome, email, password) VALUES(?,?,?,?)";
-        String passHash = hashPassword(e.getPassword());
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, e.getNumEstudante());
-            pstmt.setString(2, e.getNome());
-            pstmt.setString(3, e.getEmail());
-            pstmt.setString(4, passHash);
-            pstmt.executeUpdate();
+    public Alteracao registarDocente(Docente d) {
+        escrita.lock();
+        try {
+            String sql = "INSERT INTO Docente(nome, email, password) VALUES(?,?,?)";
+            String passHash = hashPassword(d.getPassword());
+
+            try {
+                Alteracao a = mutar(() -> {
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                        pstmt.setString(1, d.getNome());
+                        pstmt.setString(2, d.getEmail());
+                        pstmt.setString(3, passHash);
+                        pstmt.executeUpdate();
+                        return List.of(new Operacao(TipoOperacao.INSERIR_DOCENTE, idGerado(pstmt), d.getNome(), d.getEmail(), passHash));
+                    }
+                });
 
-            incrementarVersao();
-            System.out.println("[BD] pt.isec.pd.tp.bases.Estudante registado: " + e.getEmail());
+                log.info("Docente registado: {}", d.getEmail());
+                return a;
 
-            return String.format("INSERT INTO pt.isec.pd.tp.bases.Estudante(numero_estudante, nome, email, password) VALUES('%s','%s','%s','%s')",
-                    e.getNumEstudante(), e.getNome(), e.getEmail(), passHash);
+            } catch (SQLException e) {
+                log.error("Erro ao registar docente: {}", e.getMessage());
+                return null;
+            }
+        } finally {
+            escrita.unlock();
+        }
+    }
 
-        } catch (SQLException ex) {
-            System.err.println("[BD] Erro ao registar estudante: " + ex.getMessage());
+
+    public Alteracao editarDocente(String emailAntigo, String novoNome, String novaPass) {
+        escrita.lock();
+        try {
+            String passHash = hashPassword(novaPass);
+
+            try {
+                Alteracao a = mutar(() -> {
+                    try (PreparedStatement pstmt = conn.prepareStatement(SQL_EDITAR_DOCENTE)) {
+                        pstmt.setString(1, novoNome);
+                        pstmt.setString(2, passHash);
+                        pstmt.setString(3, emailAntigo);
+                        if (pstmt.executeUpdate() == 0) return null;
+                    }
+                    return List.of(new Operacao(TipoOperacao.EDITAR_DOCENTE, novoNome, passHash, emailAntigo));
+                });
+
+                if (a != null) log.info("Docente editado: {}", emailAntigo);
+                return a;
+            } catch (SQLException e) {
+                log.error("Erro ao editar docente: {}", e.getMessage());
+            }
             return null;
+        } finally {
+            escrita.unlock();
         }
     }
 
 
-    public synchronized String editarEstudante(String emailAntigo, String novoNum, String novoNome, String novaPass) {
-        String passHash = hashPassword(novaPass);
+    public Alteracao registarEstudante(Estudante e) {
+        escrita.lock();
+        try {
+            String sql = "INSERT INTO Estudante(numero_estudante, nome, email, password) VALUES(?,?,?,?)";
+            String passHash = hashPassword(e.getPassword());
+
+            try {
+                Alteracao a = mutar(() -> {
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                        pstmt.setString(1, e.getNumEstudante());
+                        pstmt.setString(2, e.getNome());
+                        pstmt.setString(3, e.getEmail());
+                        pstmt.setString(4, passHash);
+                        pstmt.executeUpdate();
+                        return List.of(new Operacao(TipoOperacao.INSERIR_ESTUDANTE, idGerado(pstmt),
+                                e.getNumEstudante(), e.getNome(), e.getEmail(), passHash));
+                    }
+                });
+
+                log.info("Estudante registado: {}", e.getEmail());
+                return a;
+
+            } catch (SQLException ex) {
+                log.error("Erro ao registar estudante: {}", ex.getMessage());
+                return null;
+            }
+        } finally {
+            escrita.unlock();
+        }
+    }
+
 
-        String sql = "UPDATE Estudante SET numero_estudante = ?, nome = ?, password = ? WHERE email = ?";
+    public Alteracao editarEstudante(String emailAntigo, String novoNum, String novoNome, String novaPass) {
+        escrita.lock();
+        try {
+            String passHash = hashPassword(novaPass);
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, novoNum);
-            pstmt.setString(2, novoNome);
-            pstmt.setString(3, passHash);
-            pstmt.setString(4, emailAntigo);
-            int rows = pstmt.executeUpdate();
+            try {
+                Alteracao a = mutar(() -> {
+                    try (PreparedStatement pstmt = conn.prepareStatement(SQL_EDITAR_ESTUDANTE)) {
+                        pstmt.setString(1, novoNum);
+                        pstmt.setString(2, novoNome);
+                        pstmt.setString(3, passHash);
+                        pstmt.setString(4, emailAntigo);
+                        if (pstmt.executeUpdate() == 0) return null;
+                    }
+                    return List.of(new Operacao(TipoOperacao.EDITAR_ESTUDANTE, novoNum, novoNome, passHash, emailAntigo));
+                });
 
-            if (rows > 0) {
-                incrementarVersao();
-                System.out.println("[BD] pt.isec.pd.tp.bases.Estudante editado: " + emailAntigo);
-                return String.format("UPDATE pt.isec.pd.tp.bases.Estudante SET numero_estudante='%s', nome='%s', password='%s' WHERE email='%s'",
-                        novoNum, novoNome, passHash, emailAntigo);
+                if (a != null) log.info("Estudante editado: {}", emailAntigo);
+                return a;
+            } catch (SQLException e) {
+                log.error("Erro ao editar estudante: {}", e.getMessage());
             }
-        } catch (SQLException e) {
-            System.err.println("[BD] Erro ao editar estudante: " + e.getMessage());
+            return null;
+        } finally {
+            escrita.unlock();
         }
-        return null;
     }
 
 
 
-    public synchronized boolean autenticarDocente(String email, String password) {
+    public boolean autenticarDocente(String email, String password) {
         String sql = "SELECT password FROM Docente WHERE email = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
             pstmt.setString(1, email);
             ResultSet rs = pstmt.executeQuery();
             if (rs.next()) {
                 return rs.getString("password").equals(hashPassword(password));
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Erro ao autenticar docente", e);
         }
         return false;
     }
 
-    public synchronized boolean autenticarEstudante(String email, String password) {
+    public boolean autenticarEstudante(String email, String password) {
         String sql = "SELECT password FROM Estudante WHERE email = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
             pstmt.setString(1, email);
             ResultSet rs = pstmt.executeQuery();
             if (rs.next()) {
                 return rs.getString("password").equals(hashPassword(password));
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Erro ao autenticar estudante", e);
         }
         return false;
     }
 
     public int obterIdDocente(String email) {
         String sql = "SELECT id FROM Docente WHERE email = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
             pstmt.setString(1, email);
             ResultSet rs = pstmt.executeQuery();
             if (rs.next()) return rs.getInt("id");
@@ -296,7 +717,7 @@ public class DatabaseManager {
 
     public int obterIdEstudante(String email) {
         String sql = "SELECT id FROM Estudante WHERE email = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
             pstmt.setString(1, email);
             ResultSet rs = pstmt.executeQuery();
             if (rs.next()) return rs.getInt("id");
@@ -307,123 +728,115 @@ public class DatabaseManager {
 
 
 
-    public synchronized String criarPergunta(int docenteId, String enunciado, String codAcesso, String inicio, String fim, List<Opcao> opcoes) {
-        if (opcoes == null || opcoes.size() < 2) return null;
+    public Alteracao criarPergunta(int docenteId, String enunciado, String codAcesso, String inicio, String fim, List<Opcao> opcoes) {
+        escrita.lock();
+        try {
+            if (opcoes == null || opcoes.size() < 2) return null;
 
-        String queryResultante = null;
+            long inicioTs, fimTs;
+            try {
+                inicioTs = paraEpoch(inicio);
+                fimTs = paraEpoch(fim);
+            } catch (java.time.format.DateTimeParseException e) {
+                log.warn("Datas inválidas ao criar pergunta: {}", e.getMessage());
+                return null;
+            }
 
-        try {
-            conn.setAutoCommit(false);
-
-            String sqlP = "INSERT INTO Pergunta(docente_id, enunciado, codigo_acesso, inicio, fim) VALUES(?,?,?,?,?)";
-            try (PreparedStatement pstmtP = conn.prepareStatement(sqlP, Statement.RETURN_GENERATED_KEYS)) {
-                pstmtP.setInt(1, docenteId);
-                pstmtP.setString(2, enunciado);
-                pstmtP.setString(3, codAcesso);
-                pstmtP.setString(4, inicio);
-                pstmtP.setString(5, fim);
-                pstmtP.executeUpdate();
-
-                try (ResultSet rs = pstmtP.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        int perguntaId = rs.getInt(1);
-
-                        StringBuilder sqlOpcoes = new StringBuilder();
-                        String sqlO = "INSERT INTO Opcao(pergunta_id, letra_opcao, texto_opcao, opcao_correta) VALUES(?,?,?,?)";
-                        try (PreparedStatement pstmtO = conn.prepareStatement(sqlO)) {
-                            for (Opcao o : opcoes) {
-                                pstmtO.setInt(1, perguntaId);
-                                pstmtO.setString(2, o.getLetra());
-                                pstmtO.setString(3, o.getTexto());
-                                pstmtO.setBoolean(4, o.isCorreta());
-                                pstmtO.addBatch();
-
-                                sqlOpcoes.append(String.format("INSERT INTO pt.isec.pd.tp.bases.Opcao(pergunta_id, letra_opcao, texto_opcao, opcao_correta) VALUES(%d,'%s','%s',%d);",
-                                        perguntaId, o.getLetra(), o.getTexto(), o.isCorreta() ? 1 : 0));
+            try {
+                Alteracao a = mutar(() -> {
+                    String sqlP = "INSERT INTO Pergunta(docente_id, enunciado, codigo_acesso, inicio, fim, inicio_ts, fim_ts) VALUES(?,?,?,?,?,?,?)";
+                    try (PreparedStatement pstmtP = conn.prepareStatement(sqlP, Statement.RETURN_GENERATED_KEYS)) {
+                        pstmtP.setInt(1, docenteId);
+                        pstmtP.setString(2, enunciado);
+                        pstmtP.setString(3, codAcesso);
+                        pstmtP.setString(4, inicio);
+                        pstmtP.setString(5, fim);
+                        pstmtP.setLong(6, inicioTs);
+                        pstmtP.setLong(7, fimTs);
+                        pstmtP.executeUpdate();
+
+                        try (ResultSet rs = pstmtP.getGeneratedKeys()) {
+                            if (!rs.next()) return null;
+                            int perguntaId = rs.getInt(1);
+
+                            // Agrupadas por tipo, para o backup as aplicar em lote
+                            List<Operacao> operacoes = new ArrayList<>(1 + 2 * opcoes.size());
+                            operacoes.add(new Operacao(TipoOperacao.INSERIR_PERGUNTA,
+                                    perguntaId, docenteId, enunciado, codAcesso, inicio, fim, inicioTs, fimTs));
+                            List<Operacao> estatisticas = new ArrayList<>(opcoes.size());
+
+                            try (PreparedStatement pstmtO = conn.prepareStatement(SQL_INSERIR_OPCAO);
+                                 PreparedStatement pstmtE = conn.prepareStatement(SQL_INSERIR_ESTATISTICA)) {
+                                for (Opcao o : opcoes) {
+                                    pstmtO.setInt(1, perguntaId);
+                                    pstmtO.setString(2, o.getLetra());
+                                    pstmtO.setString(3, o.getTexto());
+                                    pstmtO.setBoolean(4, o.isCorreta());
+                                    pstmtO.addBatch();
+
+                                    pstmtE.setInt(1, perguntaId);
+                                    pstmtE.setString(2, o.getLetra());
+                                    pstmtE.setBoolean(3, o.isCorreta());
+                                    pstmtE.addBatch();
+
+                                    operacoes.add(new Operacao(TipoOperacao.INSERIR_OPCAO, perguntaId, o.getLetra(), o.getTexto(), o.isCorreta()));
+                                    estatisticas.add(new Operacao(TipoOperacao.INSERIR_ESTATISTICA, perguntaId, o.getLetra(), o.isCorreta()));
+                                }
+                                pstmtO.executeBatch();
+                                pstmtE.executeBatch();
                             }
-                            pstmtO.executeBatch();
-                        }
 
-                        queryResultante = String.format("INSERT INTO pt.isec.pd.tp.bases.Pergunta(id, docente_id, enunciado, codigo_acesso, inicio, fim) VALUES(%d,%d,'%s','%s','%s','%s');%s",
-                                perguntaId, docenteId, enunciado, codAcesso, inicio, fim, sqlOpcoes.toString());
-                    } else {
-                        conn.rollback();
-                        return null;
+                            operacoes.addAll(estatisticas);
+                            return operacoes;
+                        }
                     }
-                }
-            }
-
-            incrementarVersao();
-            conn.commit();
+                });
 
-            System.out.println("[BD] pt.isec.pd.tp.bases.Pergunta criada: " + codAcesso);
-            return queryResultante;
+                if (a != null) log.info("Pergunta criada: {}", codAcesso);
+                return a;
 
-        } catch (SQLException e) {
-            System.err.println("[BD] Erro ao criar pergunta (rollback): " + e.getMessage());
-            try {
-                conn.rollback();
-            } catch (SQLException ex) {
-            }
-            return null;
-        } finally {
-            try {
-                conn.setAutoCommit(true);
             } catch (SQLException e) {
+                log.error("Erro ao criar pergunta (rollback): {}", e.getMessage());
+                return null;
             }
+        } finally {
+            escrita.unlock();
         }
     }
 
     public boolean isPerguntaExpirada(String codigoAcesso) {
-        String sql = "SELECT fim FROM Pergunta WHERE codigo_acesso = ?";
-        try (java.sql.PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, codigoAcesso);
-            java.sql.ResultSet rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                String fimStr = rs.getString("fim");
-                java.time.LocalDateTime fim = java.time.LocalDateTime.parse(fimStr.trim(), FORMATTER);
-                java.time.LocalDateTime agora = java.time.LocalDateTime.now();
-
-                return fim.isBefore(agora);
-            }
-        } catch (java.sql.SQLException e) {
-            System.err.println("[BD] Erro ao verificar expiração: " + e.getMessage());
-        } catch (Exception e) {
-            System.err.println("[BD] Erro de parsing de data: " + e.getMessage());
-        }
-        return false;
+        CachePerguntas.Entrada e = obterEntrada(codigoAcesso);
+        return e != null && e.isExpirada(System.currentTimeMillis());
     }
 
 
 
     public boolean isPerguntaAtiva(String codigoAcesso) {
-        String sql = "SELECT inicio, fim FROM Pergunta WHERE codigo_acesso = ?";
-        try (java.sql.PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, codigoAcesso);
-            java.sql.ResultSet rs = pstmt.executeQuery();
+        CachePerguntas.Entrada e = obterEntrada(codigoAcesso);
+        return e != null && e.isAtiva(System.currentTimeMillis());
+    }
 
-            if (rs.next()) {
-                String inicioStr = rs.getString("inicio");
-                String fimStr = rs.getString("fim");
+    public Pergunta obterPerguntaPorCodigo(String codigo) {
+        CachePerguntas.Entrada e = obterEntrada(codigo);
+        return e != null ? e.getPergunta() : null;
+    }
+
+    /** Versão da pergunta sem a opção correta assinalada, pronta a enviar a um estudante. */
+    public Pergunta obterPerguntaParaEstudante(String codigo) {
+        CachePerguntas.Entrada e = obterEntrada(codigo);
+        return e != null ? e.getPerguntaEstudante() : null;
+    }
 
-                java.time.LocalDateTime inicio = java.time.LocalDateTime.parse(inicioStr.trim(), FORMATTER);
-                java.time.LocalDateTime fim = java.time.LocalDateTime.parse(fimStr.trim(), FORMATTER);
-                java.time.LocalDateTime agora = java.time.LocalDateTime.now();
+    private CachePerguntas.Entrada obterEntrada(String codigo) {
+        CachePerguntas.Entrada e = cache.obter(codigo);
+        if (e != null) return e;
 
-                return !inicio.isAfter(agora) && !fim.isBefore(agora);
-            }
-        } catch (java.sql.SQLException e) {
-            System.err.println("[BD] Erro ao verificar estado: " + e.getMessage());
-        } catch (Exception e) {
-            System.err.println("[BD] Erro de parsing de data: " + e.getMessage());
-        }
-        return false;
+        return carregarPergunta(codigo, cache.getGeracao());
     }
 
-    public Pergunta obterPerguntaPorCodigo(String codigo) {
-        String sql = "SELECT id, enunciado, inicio, fim FROM Pergunta WHERE codigo_acesso = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    private CachePerguntas.Entrada carregarPergunta(String codigo, long geracao) {
+        String sql = "SELECT id, enunciado, inicio, fim, inicio_ts, fim_ts FROM Pergunta WHERE codigo_acesso = ?";
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
             pstmt.setString(1, codigo);
             ResultSet rs = pstmt.executeQuery();
 
@@ -432,21 +845,23 @@ public class DatabaseManager {
                 String enunc = rs.getString("enunciado");
                 String ini = rs.getString("inicio");
                 String fim = rs.getString("fim");
+                Long iniTs = rs.getObject("inicio_ts") != null ? rs.getLong("inicio_ts") : null;
+                Long fimTs = rs.getObject("fim_ts") != null ? rs.getLong("fim_ts") : null;
 
-                List<Opcao> opcoes = obterOpcoes(pId);
-                return new Pergunta(pId, enunc, codigo, ini, fim, opcoes);
+                List<Opcao> opcoes = obterOpcoes(l.get(), pId);
+                return cache.guardar(new Pergunta(pId, enunc, codigo, ini, fim, opcoes), iniTs, fimTs, geracao);
             }
         } catch (SQLException e) {
-            System.err.println("[BD] Erro ao obter pergunta: " + e.getMessage());
+            log.error("Erro ao obter pergunta: {}", e.getMessage());
         }
         return null;
     }
 
-    private List<Opcao> obterOpcoes(int perguntaId) throws SQLException {
+    private List<Opcao> obterOpcoes(Connection c, int perguntaId) throws SQLException {
         List<Opcao> lista = new ArrayList<>();
         String sql = "SELECT letra_opcao, texto_opcao, opcao_correta FROM Opcao WHERE pergunta_id = ? ORDER BY letra_opcao";
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = c.prepareStatement(sql)) {
             pstmt.setInt(1, perguntaId);
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
@@ -458,66 +873,255 @@ public class DatabaseManager {
 
 
 
-    public synchronized String registarResposta(int estudanteId, String codigoAcesso, String letra) {
-        String sqlId = "SELECT id FROM Pergunta WHERE codigo_acesso = ?";
-        String sqlInsert = "INSERT INTO Resposta(estudante_id, pergunta_id, opcao_escolhida, data_hora) VALUES(?,?,?,?)";
-        String dataHora = java.time.LocalDateTime.now().toString();
+    /**
+     * Grava um lote de respostas numa única transação, com um só incremento de versão.
+     * Cada resposta fica com o seu estado preenchido; a alteração devolvida leva as
+     * operações das respostas aceites, ou é null se nenhuma foi aceite.
+     */
+    public Alteracao registarRespostasEmLote(List<RespostaPendente> lote) {
+        escrita.lock();
+        try {
+            try {
+                Alteracao a = mutar(() -> gravarLote(lote));
+                if (log.isDebugEnabled()) {
+                    log.debug("Lote de respostas registado: {}/{} aceites.",
+                            lote.stream().filter(r -> r.getEstado() == RespostaPendente.Estado.ACEITE).count(), lote.size());
+                }
+                return a;
+
+            } catch (SQLException e) {
+                log.error("Erro ao registar lote de respostas (rollback): {}", e.getMessage());
+                for (RespostaPendente r : lote) r.setEstado(RespostaPendente.Estado.FALHA);
+                return null;
+            }
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    private List<Operacao> gravarLote(List<RespostaPendente> lote) throws SQLException {
+        // Inserções primeiro e incrementos depois: cada grupo segue num só lote JDBC no backup
+        List<Operacao> respostas = new ArrayList<>();
+        List<Operacao> incrementos = new ArrayList<>();
+
+        try (PreparedStatement psVerificar = conn.prepareStatement(SQL_VERIFICAR_RESPOSTA);
+             PreparedStatement psInsert = conn.prepareStatement(SQL_INSERIR_RESPOSTA);
+             PreparedStatement psEst = conn.prepareStatement(SQL_INCREMENTAR_ESTATISTICA)) {
+
+            // Repetições do mesmo par estudante/pergunta dentro do lote têm o destino da primeira,
+            // exceto depois de uma opção inválida, que não impede outra letra de ser aceite
+            Map<String, RespostaPendente.Estado> vistas = new HashMap<>();
+
+            for (RespostaPendente r : lote) {
+                String chave = r.getEstudanteId() + ":" + r.getCodigoAcesso();
+                RespostaPendente.Estado anterior = vistas.get(chave);
+                if (anterior != null) {
+                    r.setEstado(anterior == RespostaPendente.Estado.ACEITE ? RespostaPendente.Estado.DUPLICADA : anterior);
+                    continue;
+                }
+
+                long agora = System.currentTimeMillis();
+                String dataHora = java.time.LocalDateTime.now().toString();
+                long dataHoraTs = agora / 1000;
+
+                psVerificar.setLong(1, dataHoraTs);
+                psVerificar.setLong(2, dataHoraTs);
+                psVerificar.setInt(3, r.getEstudanteId());
+                psVerificar.setString(4, r.getLetra());
+                psVerificar.setString(5, r.getCodigoAcesso());
+
+                int perguntaId = -1;
+                try (ResultSet rs = psVerificar.executeQuery()) {
+                    if (!rs.next() || !rs.getBoolean("ativa")) {
+                        r.setEstado(RespostaPendente.Estado.INATIVA);
+                    } else if (rs.getBoolean("respondida")) {
+                        r.setEstado(RespostaPendente.Estado.DUPLICADA);
+                    } else if (!rs.getBoolean("tem_opcao")) {
+                        r.setEstado(RespostaPendente.Estado.OPCAO_INVALIDA);
+                    } else {
+                        perguntaId = rs.getInt("id");
+                    }
+                }
+
+                int respostaId = -1;
+                if (perguntaId >= 0) {
+                    psInsert.setInt(1, r.getEstudanteId());
+                    psInsert.setInt(2, perguntaId);
+                    psInsert.setString(3, r.getLetra());
+                    psInsert.setString(4, dataHora);
+                    psInsert.setLong(5, dataHoraTs);
+                    try (ResultSet rs = psInsert.executeQuery()) {
+                        rs.next();
+                        respostaId = rs.getInt("id");
+                    }
+                    r.setEstado(RespostaPendente.Estado.ACEITE);
+                }
+                if (r.getEstado() != RespostaPendente.Estado.OPCAO_INVALIDA) vistas.put(chave, r.getEstado());
+                if (perguntaId < 0) continue;
+
+                psEst.setInt(1, perguntaId);
+                psEst.setString(2, r.getLetra());
+                psEst.executeUpdate();
+
+                respostas.add(new Operacao(TipoOperacao.INSERIR_RESPOSTA,
+                        respostaId, r.getEstudanteId(), perguntaId, r.getLetra(), dataHora, dataHoraTs));
+                incrementos.add(new Operacao(TipoOperacao.INCREMENTAR_ESTATISTICA, perguntaId, r.getLetra()));
+            }
+        }
+
+        if (respostas.isEmpty()) return null;
+        respostas.addAll(incrementos);
+        return respostas;
+    }
+
 
+
+    /**
+     * Aplica no backup registos consecutivos do principal numa só transação, que grava também
+     * a versão do último. Operações seguidas do mesmo tipo vão num único lote JDBC, sobre
+     * instruções preparadas uma vez e reutilizadas entre chamadas.
+     */
+    public void aplicarReplicacao(List<RegistoReplicacao> registos) throws SQLException {
+        escrita.lock();
         try {
-            int perguntaId = -1;
-            try (PreparedStatement ps1 = conn.prepareStatement(sqlId)) {
-                ps1.setString(1, codigoAcesso);
-                ResultSet rs = ps1.executeQuery();
-                if (rs.next()) perguntaId = rs.getInt("id");
+            if (registos.isEmpty()) return;
+
+            long ultimaVersao = registos.get(registos.size() - 1).getVersao();
+            List<String> alteradas = new ArrayList<>();
+            try {
+                mutar(ultimaVersao, () -> {
+                    TipoOperacao tipoLote = null;
+                    PreparedStatement ps = null;
+                    try {
+                        for (RegistoReplicacao r : registos) {
+                            for (Operacao op : r.getOperacoes()) {
+                                if (op.getTipo() != tipoLote) {
+                                    if (ps != null) ps.executeBatch();
+                                    tipoLote = op.getTipo();
+                                    ps = preparadaReplica(tipoLote);
+                                }
+                                Object[] p = op.getParametros();
+                                for (int i = 0; i < p.length; i++) ps.setObject(i + 1, p[i]);
+                                ps.addBatch();
+
+                                if (op.getTipo() == TipoOperacao.EDITAR_PERGUNTA) alteradas.add((String) p[p.length - 1]);
+                                else if (op.getTipo() == TipoOperacao.ELIMINAR_PERGUNTA) alteradas.add((String) p[0]);
+                            }
+                        }
+                        if (ps != null) ps.executeBatch();
+                        // O backup guarda também o log, para poder servir lacunas se vier a ser promovido
+                        for (RegistoReplicacao r : registos) gravarNoLog(r);
+                    } catch (SQLException e) {
+                        // A instrução fica em cache: não pode levar para a próxima chamada o lote que falhou
+                        if (ps != null) ps.clearBatch();
+                        throw e;
+                    }
+                    return List.of();
+                });
+                log.debug("Replicação aplicada: {} registos até à versão {}.", registos.size(), ultimaVersao);
+            } finally {
+                for (String codigo : alteradas) cache.invalidar(codigo);
             }
-            if (perguntaId == -1) return null;
+        } finally {
+            escrita.unlock();
+        }
+    }
 
-            try (PreparedStatement ps2 = conn.prepareStatement(sqlInsert)) {
-                ps2.setInt(1, estudanteId);
-                ps2.setInt(2, perguntaId);
-                ps2.setString(3, letra);
-                ps2.setString(4, dataHora);
-                ps2.executeUpdate();
+    private void gravarNoLog(RegistoReplicacao r) throws SQLException {
+        escritorLog.iniciar(CodecDatagramas.TIPO_REPLICACAO);
+        escritorLog.registo(r);
 
-                incrementarVersao();
-                System.out.println("[BD] Resposta registada. Aluno ID: " + estudanteId);
+        try (PreparedStatement ps = conn.prepareStatement("INSERT OR REPLACE INTO LogReplicacao(versao, dados) VALUES(?,?)")) {
+            ps.setLong(1, r.getVersao());
+            ps.setBytes(2, escritorLog.copiar());
+            ps.executeUpdate();
+        }
+        // A poda vai de tempos a tempos, não em cada escrita
+        if (r.getVersao() % INTERVALO_PODA_LOG == 0) {
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM LogReplicacao WHERE versao <= ?")) {
+                ps.setLong(1, r.getVersao() - JANELA_LOG);
+                ps.executeUpdate();
+            }
+        }
+    }
 
-                return String.format("INSERT INTO Resposta(estudante_id, pergunta_id, opcao_escolhida, data_hora) VALUES(%d,%d,'%s','%s')",
-                        estudanteId, perguntaId, letra, dataHora);
+    /**
+     * Registos guardados a partir da versão desde+1, por ordem, até ate e no máximo max.
+     * Devolve null se desde+1 já não está no log (saiu da janela ou nunca foi gravado).
+     */
+    public List<RegistoReplicacao> obterRegistosReplicacao(long desde, long ate, int max) {
+        String sql = "SELECT versao, dados FROM LogReplicacao WHERE versao > ? AND versao <= ? ORDER BY versao LIMIT ?";
+        List<RegistoReplicacao> registos = new ArrayList<>();
+        CodecDatagramas.Leitor leitor = new CodecDatagramas.Leitor();
+
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement ps = l.get().prepareStatement(sql)) {
+            ps.setLong(1, desde);
+            ps.setLong(2, ate);
+            ps.setInt(3, max);
+            try (ResultSet rs = ps.executeQuery()) {
+                long esperada = desde + 1;
+                while (rs.next()) {
+                    if (rs.getLong("versao") != esperada++) break;
+                    byte[] dados = rs.getBytes("dados");
+                    registos.addAll(((MsgReplicacao) leitor.ler(CodecDatagramas.TIPO_REPLICACAO, dados, 0, dados.length)).getRegistos());
+                }
             }
-        } catch (SQLException e) {
-            System.err.println("[BD] Erro ao registar resposta (duplicada?): " + e.getMessage());
+        } catch (SQLException | IOException e) {
+            log.error("Erro ao ler o log de replicação: {}", e.getMessage());
             return null;
         }
+        return registos.isEmpty() && desde < ate ? null : registos;
     }
 
+    private PreparedStatement preparadaReplica(TipoOperacao tipo) throws SQLException {
+        PreparedStatement ps = preparadasReplica.get(tipo);
+        if (ps == null) {
+            ps = conn.prepareStatement(SQL_REPLICA.get(tipo));
+            preparadasReplica.put(tipo, ps);
+        }
+        return ps;
+    }
 
-
-    public synchronized void executarQueryReplica(String querySQL) throws SQLException {
-        try (Statement stmt = conn.createStatement()) {
-            stmt.executeUpdate(querySQL);
-            System.out.println("[BD Backup] Query de replicação executada.");
+    private static int idGerado(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            if (!rs.next()) throw new SQLException("Id gerado não devolvido.");
+            return rs.getInt(1);
         }
     }
 
-    public int getVersaoBD() {
-        String sql = "SELECT versao FROM Configuracao WHERE id = 1";
-        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-            if (rs.next()) return rs.getInt("versao");
+    public long getVersaoBD() {
+        return versao.get();
+    }
+
+    public String getIdBD() {
+        return idBD;
+    }
+
+    /** CRC32 do registo da versão dada em LogReplicacao, ou -1 se não estiver lá. */
+    public long crcRegisto(long versaoRegisto) {
+        String sql = "SELECT dados FROM LogReplicacao WHERE versao = ?";
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement ps = l.get().prepareStatement(sql)) {
+            ps.setLong(1, versaoRegisto);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return -1;
+                java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+                crc.update(rs.getBytes("dados"));
+                return crc.getValue();
+            }
         } catch (SQLException e) {
-            System.err.println("[BD] Erro ao obter versao: " + e.getMessage());
+            log.error("Erro ao ler o log de replicação: {}", e.getMessage());
+            return -1;
         }
-        return -1;
     }
 
     public int obterDocenteIDDaPergunta(String codigoAcesso) {
         String sql = "SELECT docente_id FROM Pergunta WHERE codigo_acesso = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
             pstmt.setString(1, codigoAcesso);
             ResultSet rs = pstmt.executeQuery();
             if (rs.next()) return rs.getInt("docente_id");
         } catch (SQLException e) {
-            System.err.println("[BD] Erro ao obter ID do docente da pergunta: " + e.getMessage());
+            log.error("Erro ao obter ID do docente da pergunta: {}", e.getMessage());
         }
         return -1;
     }
@@ -532,7 +1136,7 @@ public class DatabaseManager {
         int perguntaId = -1;
 
 
-        try (PreparedStatement ps = conn.prepareStatement(sqlId)) {
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement ps = l.get().prepareStatement(sqlId)) {
             ps.setString(1, codigoAcesso);
 
 
@@ -540,27 +1144,27 @@ public class DatabaseManager {
                 if (rs.next()) perguntaId = rs.getInt("id");
             }
         } catch (SQLException e) {
-            System.err.println("[BD] Erro ao obter ID da pergunta: " + e.getMessage());
+            log.error("Erro ao obter ID da pergunta: {}", e.getMessage());
             return lista;
         }
 
         if (perguntaId == -1) {
-            System.out.println("[DEBUG DB] pt.isec.pd.tp.bases.Pergunta com código " + codigoAcesso + " não encontrada.");
+            log.debug("Pergunta com código {} não encontrada.", codigoAcesso);
             return lista;
         }
 
 
-        System.out.println("[DEBUG DB] Iniciando consulta de respostas..."); // LOG 1
+        log.debug("Iniciando consulta de respostas...");
 
         String sql = "SELECT e.numero_estudante, e.nome, e.email, r.opcao_escolhida " +
                 "FROM Resposta r JOIN Estudante e ON r.estudante_id = e.id WHERE r.pergunta_id = ?";
 
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
             pstmt.setInt(1, perguntaId);
 
             try (ResultSet rs = pstmt.executeQuery()) {
-                System.out.println("[DEBUG DB] Consulta SQL executada. Lendo resultados..."); // LOG 2
+                log.debug("Consulta SQL executada. Lendo resultados...");
 
                 while (rs.next()) {
                     lista.add(new RespostaEstudante(
@@ -571,19 +1175,65 @@ public class DatabaseManager {
                     ));
                 }
 
-                System.out.println("[DEBUG DB] Fim da leitura. Total de respostas lidas: " + lista.size()); // LOG 3
+                log.debug("Fim da leitura. Total de respostas lidas: {}", lista.size());
 
             }
         } catch (SQLException e) {
-            System.err.println("[BD] Erro fatal ao obter respostas: " + e.getMessage());
+            log.error("Erro fatal ao obter respostas: {}", e.getMessage());
         }
 
-        System.out.println("[DEBUG DB] Retornando lista de respostas."); // LOG 4
+        log.debug("Retornando lista de respostas.");
         return lista;
     }
 
 
 
+    @FunctionalInterface
+    public interface ConsumidorBloco<T> {
+        void aceitar(List<T> bloco) throws IOException;
+    }
+
+    /**
+     * Percorre o ResultSet das respostas de uma pergunta e entrega-as em blocos de
+     * tamanhoBloco, sem materializar a lista completa. Devolve false se a pergunta
+     * não existir ou a leitura falhar; os erros de envio do consumidor propagam-se.
+     */
+    public boolean percorrerRespostasDaPergunta(String codigoAcesso, int tamanhoBloco, ConsumidorBloco<RespostaEstudante> consumidor) throws IOException {
+        Pergunta p = obterPerguntaPorCodigo(codigoAcesso);
+        if (p == null) return false;
+
+        String sql = "SELECT e.numero_estudante, e.nome, e.email, r.opcao_escolhida " +
+                "FROM Resposta r JOIN Estudante e ON r.estudante_id = e.id WHERE r.pergunta_id = ?";
+
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
+            pstmt.setInt(1, p.getId());
+            pstmt.setFetchSize(tamanhoBloco);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                List<RespostaEstudante> bloco = new ArrayList<>(tamanhoBloco);
+                while (rs.next()) {
+                    bloco.add(new RespostaEstudante(
+                            rs.getString("numero_estudante"),
+                            rs.getString("nome"),
+                            rs.getString("email"),
+                            rs.getString("opcao_escolhida")
+                    ));
+                    if (bloco.size() == tamanhoBloco) {
+                        consumidor.aceitar(bloco);
+                        bloco = new ArrayList<>(tamanhoBloco);
+                    }
+                }
+                if (!bloco.isEmpty()) consumidor.aceitar(bloco);
+            }
+            return true;
+        } catch (SQLException e) {
+            log.error("Erro ao percorrer respostas: {}", e.getMessage());
+            return false;
+        }
+    }
+
+
+
     /**
      * Verifica se uma pergunta pode ser alterada.
      * Regras:
@@ -595,7 +1245,7 @@ public class DatabaseManager {
         String sql = "SELECT p.id, (SELECT COUNT(*) FROM Resposta r WHERE r.pergunta_id = p.id) as total_respostas " +
                 "FROM Pergunta p WHERE p.codigo_acesso = ? AND p.docente_id = ?";
 
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement ps = l.get().prepareStatement(sql)) {
             ps.setString(1, codigo);
             ps.setInt(2, docenteId);
             ResultSet rs = ps.executeQuery();
@@ -606,70 +1256,126 @@ public class DatabaseManager {
                 return totalRespostas == 0;
             }
         } catch (SQLException e) {
-            System.err.println("[BD] Erro na verificação de permissões: " + e.getMessage());
+            log.error("Erro na verificação de permissões: {}", e.getMessage());
         }
 
         return false;
     }
 
-    public synchronized String eliminarPergunta(String codigo) {
-        String sql = "DELETE FROM Pergunta WHERE codigo_acesso = ?";
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, codigo);
-            int rows = ps.executeUpdate();
-
-            if (rows > 0) {
-                incrementarVersao();
-                System.out.println("[BD] pt.isec.pd.tp.bases.Pergunta eliminada: " + codigo);
+    public Alteracao eliminarPergunta(String codigo) {
+        escrita.lock();
+        try {
+            try {
+                Alteracao a = mutar(() -> {
+                    try (PreparedStatement ps = conn.prepareStatement(SQL_ELIMINAR_PERGUNTA)) {
+                        ps.setString(1, codigo);
+                        if (ps.executeUpdate() == 0) return null;
+                    }
+                    return List.of(new Operacao(TipoOperacao.ELIMINAR_PERGUNTA, codigo));
+                });
 
-                return "DELETE FROM pt.isec.pd.tp.bases.Pergunta WHERE codigo_acesso = '" + codigo + "'";
+                // Invalidada depois do commit, para nenhuma leitura anterior voltar a guardar a versão antiga
+                if (a != null) {
+                    cache.invalidar(codigo);
+                    log.info("Pergunta eliminada: {}", codigo);
+                }
+                return a;
+            } catch (SQLException e) {
+                log.error("Erro ao eliminar pergunta: {}", e.getMessage());
             }
-        } catch (SQLException e) {
-            System.err.println("[BD] Erro ao eliminar pergunta: " + e.getMessage());
+            return null;
+        } finally {
+            escrita.unlock();
         }
-        return null;
     }
 
-    public synchronized String editarPergunta(String codigo, String enunciado, String inicio, String fim) {
-        String sql = "UPDATE Pergunta SET enunciado=?, inicio=?, fim=? WHERE codigo_acesso=?";
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, enunciado);
-            ps.setString(2, inicio);
-            ps.setString(3, fim);
-            ps.setString(4, codigo);
-            int rows = ps.executeUpdate();
+    public Alteracao editarPergunta(String codigo, String enunciado, String inicio, String fim) {
+        escrita.lock();
+        try {
+            long inicioTs, fimTs;
+            try {
+                inicioTs = paraEpoch(inicio);
+                fimTs = paraEpoch(fim);
+            } catch (java.time.format.DateTimeParseException e) {
+                log.warn("Datas inválidas ao editar pergunta: {}", e.getMessage());
+                return null;
+            }
 
-            if (rows > 0) {
-                incrementarVersao();
-                System.out.println("[BD] pt.isec.pd.tp.bases.Pergunta editada: " + codigo);
+            try {
+                Alteracao a = mutar(() -> {
+                    try (PreparedStatement ps = conn.prepareStatement(SQL_EDITAR_PERGUNTA)) {
+                        ps.setString(1, enunciado);
+                        ps.setString(2, inicio);
+                        ps.setString(3, fim);
+                        ps.setLong(4, inicioTs);
+                        ps.setLong(5, fimTs);
+                        ps.setString(6, codigo);
+                        if (ps.executeUpdate() == 0) return null;
+                    }
+                    return List.of(new Operacao(TipoOperacao.EDITAR_PERGUNTA, enunciado, inicio, fim, inicioTs, fimTs, codigo));
+                });
 
-                return String.format("UPDATE pt.isec.pd.tp.bases.Pergunta SET enunciado='%s', inicio='%s', fim='%s' WHERE codigo_acesso='%s'",
-                        enunciado, inicio, fim, codigo);
+                if (a != null) {
+                    cache.invalidar(codigo);
+                    log.info("Pergunta editada: {}", codigo);
+                }
+                return a;
+            } catch (SQLException e) {
+                log.error("Erro ao editar pergunta: {}", e.getMessage());
             }
-        } catch (SQLException e) {
-            System.err.println("[BD] Erro ao editar pergunta: " + e.getMessage());
+            return null;
+        } finally {
+            escrita.unlock();
         }
-        return null;
     }
 
 
 
 
     public List<HistoricoItem> obterHistoricoEstudante(int estudanteId) {
+        return obterHistorico(estudanteId, null, 0).getItens();
+    }
+
+    /**
+     * Uma página do histórico, da resposta mais recente para a mais antiga. A ordem
+     * (data_hora_ts, id) segue idx_resposta_estudante_data, por isso cada página é lida
+     * a partir do cursor sem percorrer as anteriores.
+     */
+    public Pagina<HistoricoItem> obterHistoricoPaginado(int estudanteId, CursorPagina cursor, int tamanhoPagina) {
+        return obterHistorico(estudanteId, cursor, Math.max(1, tamanhoPagina));
+    }
+
+    private Pagina<HistoricoItem> obterHistorico(int estudanteId, CursorPagina cursor, int limite) {
         List<HistoricoItem> lista = new ArrayList<>();
+        CursorPagina seguinte = null;
 
-        String sql = "SELECT p.enunciado, p.codigo_acesso, r.data_hora, r.opcao_escolhida, " +
+        String sql = "SELECT r.id, r.data_hora_ts, p.enunciado, p.codigo_acesso, r.data_hora, r.opcao_escolhida, " +
                 "(SELECT o.opcao_correta FROM Opcao o WHERE o.pergunta_id = p.id AND o.letra_opcao = r.opcao_escolhida) as acertou " +
                 "FROM Resposta r " +
                 "JOIN Pergunta p ON r.pergunta_id = p.id " +
-                "WHERE r.estudante_id = ? AND datetime(p.fim) < datetime('now', 'localtime')";
+                "WHERE r.estudante_id = ? AND p.fim_ts < ?" +
+                (cursor != null ? " AND (r.data_hora_ts, r.id) < (?, ?)" : "") +
+                " ORDER BY r.data_hora_ts DESC, r.id DESC" +
+                (limite > 0 ? " LIMIT ?" : "");
+
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
+            int i = 1;
+            pstmt.setInt(i++, estudanteId);
+            pstmt.setLong(i++, java.time.Instant.now().getEpochSecond());
+            if (cursor != null) {
+                pstmt.setLong(i++, cursor.getInstante());
+                pstmt.setInt(i++, cursor.getId());
+            }
+            // Uma linha a mais indica se existe página seguinte
+            if (limite > 0) pstmt.setInt(i, limite + 1);
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, estudanteId);
+            boolean haMais = false;
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
+                if (limite > 0 && lista.size() == limite) {
+                    haMais = true;
+                    break;
+                }
                 lista.add(new HistoricoItem(
                         rs.getString("enunciado"),
                         rs.getString("codigo_acesso"),
@@ -677,139 +1383,110 @@ public class DatabaseManager {
                         rs.getString("opcao_escolhida"),
                         rs.getBoolean("acertou")
                 ));
+                seguinte = new CursorPagina(rs.getLong("data_hora_ts"), rs.getInt("id"));
             }
+            if (!haMais) seguinte = null;
         } catch (SQLException e) {
-            System.err.println("[BD] Erro histórico: " + e.getMessage());
+            log.error("Erro histórico: {}", e.getMessage());
         }
-        return lista;
+        return new Pagina<>(lista, seguinte);
     }
 
 
-    public String obterEstatisticas(String codigoAcesso) {
-        int pId = -1;
-
-        try (PreparedStatement ps = conn.prepareStatement("SELECT id FROM Pergunta WHERE codigo_acesso = ?")) {
-            ps.setString(1, codigoAcesso);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) pId = rs.getInt(1);
-            else return "pt.isec.pd.tp.bases.Pergunta não encontrada.";
-        } catch (Exception e) {
-            return "Erro BD.";
-        }
+    /**
+     * Lê o agregado de EstatisticaOpcao pela chave primária (pergunta_id, letra_opcao).
+     * Devolve null se a pergunta não existir ou em caso de erro.
+     */
+    public Estatisticas obterEstatisticas(String codigoAcesso) {
+        Pergunta p = obterPerguntaPorCodigo(codigoAcesso);
+        if (p == null) return null;
 
+        String sql = "SELECT letra_opcao, correta, respostas FROM EstatisticaOpcao WHERE pergunta_id = ? ORDER BY letra_opcao";
 
-        String sqlTotal = "SELECT COUNT(*) FROM Resposta WHERE pergunta_id = ?";
-        String sqlCertas = "SELECT COUNT(*) FROM Resposta r " +
-                "JOIN Opcao o ON r.pergunta_id = o.pergunta_id AND r.opcao_escolhida = o.letra_opcao " +
-                "WHERE r.pergunta_id = ? AND o.opcao_correta = 1";
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement ps = l.get().prepareStatement(sql)) {
+            ps.setInt(1, p.getId());
+            ResultSet rs = ps.executeQuery();
 
-        try {
             int total = 0;
             int certas = 0;
-
-            try (PreparedStatement ps1 = conn.prepareStatement(sqlTotal)) {
-                ps1.setInt(1, pId);
-                ResultSet rs1 = ps1.executeQuery();
-                if (rs1.next()) total = rs1.getInt(1);
-            }
-
-            if (total == 0) return "Sem respostas submetidas ainda.";
-
-            try (PreparedStatement ps2 = conn.prepareStatement(sqlCertas)) {
-                ps2.setInt(1, pId);
-                ResultSet rs2 = ps2.executeQuery();
-                if (rs2.next()) certas = rs2.getInt(1);
+            LinkedHashMap<String, Integer> porOpcao = new LinkedHashMap<>();
+            while (rs.next()) {
+                int n = rs.getInt("respostas");
+                porOpcao.put(rs.getString("letra_opcao"), n);
+                total += n;
+                if (rs.getBoolean("correta")) certas += n;
             }
-
-            double percentagem = ((double) certas / total) * 100;
-            return String.format("Total Respostas: %d | Certas: %d | Taxa de Sucesso: %.1f%%", total, certas, percentagem);
+            return new Estatisticas(codigoAcesso, total, certas, porOpcao);
 
         } catch (SQLException e) {
-            return "Erro ao calcular estatísticas: " + e.getMessage();
+            log.error("Erro ao obter estatísticas: {}", e.getMessage());
+            return null;
         }
     }
 
 
     public List<Pergunta> listarPerguntasComFiltro(int docenteId, String filtro) {
-        List<Pergunta> lista = new ArrayList<>();
-        String sql = "SELECT id, enunciado, codigo_acesso, inicio, fim FROM Pergunta WHERE docente_id = ? ORDER BY inicio DESC";
+        return listarPerguntas(docenteId, filtro, null, 0).getItens();
+    }
 
-        java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-        java.time.LocalDateTime agora = java.time.LocalDateTime.now();
+    /** Página de perguntas do docente, ordenada por (inicio_ts, id) descendente sobre idx_pergunta_docente_inicio. */
+    public Pagina<Pergunta> listarPerguntasPaginadas(int docenteId, String filtro, CursorPagina cursor, int tamanhoPagina) {
+        return listarPerguntas(docenteId, filtro, cursor, Math.max(1, tamanhoPagina));
+    }
 
+    private Pagina<Pergunta> listarPerguntas(int docenteId, String filtro, CursorPagina cursor, int limite) {
+        List<Pergunta> lista = new ArrayList<>();
+        CursorPagina seguinte = null;
 
         if (filtro == null) filtro = "TODAS";
         filtro = filtro.trim().toUpperCase();
 
-        System.out.println("\n=== DEBUG FILTRO ===");
-        System.out.println("Filtro recebido: '" + filtro + "'");
-        System.out.println("Data Atual: " + agora);
+        // Filtros resolvidos no SQL sobre idx_pergunta_docente_inicio (docente_id, inicio_ts).
+        // Nas EXPIRADAS, fim_ts < agora implica inicio_ts < agora, o que limita o intervalo do índice.
+        String condicao;
+        switch (filtro) {
+            case "ATIVAS" -> condicao = " AND inicio_ts <= ? AND fim_ts >= ?";
+            case "FUTURAS" -> condicao = " AND inicio_ts > ?";
+            case "EXPIRADAS" -> condicao = " AND inicio_ts < ? AND fim_ts < ?";
+            default -> condicao = "";
+        }
+        // O id é o rowid e já faz parte do índice, por isso (inicio_ts, id) não precisa de ordenação extra
+        String sql = "SELECT id, inicio_ts, enunciado, codigo_acesso, inicio, fim FROM Pergunta " +
+                "WHERE docente_id = ?" + condicao +
+                (cursor != null ? " AND (inicio_ts, id) < (?, ?)" : "") +
+                " ORDER BY inicio_ts DESC, id DESC" +
+                (limite > 0 ? " LIMIT ?" : "");
+
+        long agora = java.time.Instant.now().getEpochSecond();
+
+        try (LigacaoLeitura l = emprestarLeitura(); PreparedStatement pstmt = l.get().prepareStatement(sql)) {
+            int i = 1;
+            pstmt.setInt(i++, docenteId);
+            long marcadores = condicao.chars().filter(c -> c == '?').count();
+            for (int m = 0; m < marcadores; m++) pstmt.setLong(i++, agora);
+            if (cursor != null) {
+                pstmt.setLong(i++, cursor.getInstante());
+                pstmt.setInt(i++, cursor.getId());
+            }
+            if (limite > 0) pstmt.setInt(i, limite + 1);
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, docenteId);
+            boolean haMais = false;
             ResultSet rs = pstmt.executeQuery();
-
             while (rs.next()) {
-                String cod = rs.getString("codigo_acesso");
-                String inicioStr = rs.getString("inicio");
-                String fimStr = rs.getString("fim");
-
-                boolean adicionar = false;
-                String motivo = "Rejeitado";
-
-                try {
-                    java.time.LocalDateTime inicio = java.time.LocalDateTime.parse(inicioStr.trim(), formatter);
-                    java.time.LocalDateTime fim = java.time.LocalDateTime.parse(fimStr.trim(), formatter);
-
-                    switch (filtro) {
-                        case "ATIVAS":
-
-                            if (!inicio.isAfter(agora) && !fim.isBefore(agora)) {
-                                adicionar = true;
-                                motivo = "Aceite (Está a decorrer)";
-                            } else {
-                                motivo = "Rejeitado (Não está no intervalo)";
-                            }
-                            break;
-
-                        case "FUTURAS":
-                            if (inicio.isAfter(agora)) {
-                                adicionar = true;
-                                motivo = "Aceite (Começa no futuro)";
-                            } else {
-                                motivo = "Rejeitado (Já começou)";
-                            }
-                            break;
-
-                        case "EXPIRADAS":
-                            if (fim.isBefore(agora)) {
-                                adicionar = true;
-                                motivo = "Aceite (Já acabou)";
-                            } else {
-                                motivo = "Rejeitado (Ainda não acabou)";
-                            }
-                            break;
-
-                        default:
-                            adicionar = true;
-                            motivo = "Aceite (Filtro TODOS ou Inválido: " + filtro + ")";
-                            break;
-                    }
-
-                    System.out.println(" -> pt.isec.pd.tp.bases.Pergunta [" + cod + "] (" + inicioStr + " - " + fimStr + "): " + motivo);
-
-                } catch (Exception e) {
-                    System.out.println(" -> pt.isec.pd.tp.bases.Pergunta [" + cod + "]: ERRO DATA - " + e.getMessage());
-                }
-
-                if (adicionar) {
-                    lista.add(new Pergunta(rs.getInt("id"), rs.getString("enunciado"), cod, inicioStr, fimStr, new ArrayList<>()));
+                if (limite > 0 && lista.size() == limite) {
+                    haMais = true;
+                    break;
                 }
+                lista.add(new Pergunta(rs.getInt("id"), rs.getString("enunciado"), rs.getString("codigo_acesso"),
+                        rs.getString("inicio"), rs.getString("fim"), new ArrayList<>()));
+                seguinte = new CursorPagina(rs.getLong("inicio_ts"), rs.getInt("id"));
             }
+            if (!haMais) seguinte = null;
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Erro ao listar perguntas", e);
         }
-        System.out.println("====================\n");
-        return lista;
+
+        log.debug("Listagem de perguntas do docente {} ({}): {}", docenteId, filtro, lista.size());
+        return new Pagina<>(lista, seguinte);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package pt.isec.pd.tp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parametros de afinacao lidos das propriedades de sistema (-Dchave=valor),
+ * para que cada instalacao possa ajustar o servidor sem recompilar.
+ */
+public final class Definicoes {
+    private static final Logger log = LoggerFactory.getLogger("Definicoes");
+
+    private Definicoes() {}
+
+    public static String texto(String chave, String omissao) {
+        String valor = System.getProperty(chave);
+        return (valor == null || valor.isBlank()) ? omissao : valor.trim();
+    }
+
+    public static int inteiro(String chave, int omissao) {
+        String valor = System.getProperty(chave);
+        if (valor == null) return omissao;
+        try {
+            return Integer.parseInt(valor.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Valor inválido para {}: '{}'. A usar {}", chave, valor, omissao);
+            return omissao;
+        }
+    }
+
+    public static long longo(String chave, long omissao) {
+        String valor = System.getProperty(chave);
+        if (valor == null) return omissao;
+        try {
+            return Long.parseLong(valor.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Valor inválido para {}: '{}'. A usar {}", chave, valor, omissao);
+            return omissao;
+        }
+    }
+
+    public static double decimal(String chave, double omissao) {
+        String valor = System.getProperty(chave);
+        if (valor == null) return omissao;
+        try {
+            double d = Double.parseDouble(valor.trim());
+            if (Double.isFinite(d)) return d;
+        } catch (NumberFormatException ignored) {}
+        log.warn("Valor inválido para {}: '{}'. A usar {}", chave, valor, omissao);
+        return omissao;
+    }
+
+    public static boolean booleano(String chave, boolean omissao) {
+        String valor = System.getProperty(chave);
+        if (valor == null || valor.isBlank()) return omissao;
+        return Boolean.parseBoolean(valor.trim());
+    }
+}
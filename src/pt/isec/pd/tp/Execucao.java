@@ -0,0 +1,49 @@
+package pt.isec.pd.tp;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Modelo de execução das tarefas de curta duração (pedidos dos clientes no servidor, ações
+ * da interface no cliente), escolhido com -Dpd.execucao: "virtual" corre cada tarefa numa
+ * thread virtual própria; "pool" (omissão) usa um conjunto limitado de threads de plataforma.
+ */
+public final class Execucao {
+
+    public static final String VIRTUAL = "virtual";
+    public static final String POOL = "pool";
+
+    public static final String MODO = VIRTUAL.equalsIgnoreCase(Definicoes.texto("pd.execucao", POOL)) ? VIRTUAL : POOL;
+
+    private static final int ACOES_CLIENTE = Math.max(1, Definicoes.inteiro("pd.cliente.acoes", 4));
+
+    private Execucao() {}
+
+    public static boolean isVirtual() {
+        return MODO == VIRTUAL;
+    }
+
+    /** Executor com threads chamadas nome-N; no modo pool tem no máximo threads threads. */
+    public static ExecutorService criar(String nome, int threads) {
+        if (isVirtual()) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(nome + "-", 1).factory());
+        }
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, nome + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Criado só no primeiro uso: o servidor nunca precisa dele
+    private static final class Acoes {
+        static final ExecutorService EXECUTOR = criar("acao", ACOES_CLIENTE);
+    }
+
+    /** Corre uma ação do cliente fora da thread da interface. */
+    public static void emSegundoPlano(Runnable acao) {
+        Acoes.EXECUTOR.execute(acao);
+    }
+}
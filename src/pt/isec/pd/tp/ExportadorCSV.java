@@ -14,59 +14,74 @@ public class ExportadorCSV {
 
     public static void exportar(String nomeFicheiro, Pergunta p, List<RespostaEstudante> respostas) {
 
-        try (PrintWriter pw = new PrintWriter(new FileWriter(nomeFicheiro, StandardCharsets.UTF_8))) {
+        try (PrintWriter pw = iniciar(nomeFicheiro, p)) {
 
-            pw.write('\ufeff');
+            if (respostas != null) {
+                escreverRespostas(pw, respostas);
+            }
+
+            System.out.println("[Exportador] Ficheiro gerado com sucesso: " + nomeFicheiro);
+
+        } catch (IOException e) {
+            System.err.println("[Exportador] Erro ao escrever ficheiro: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cria o ficheiro e escreve o cabeçalho, as opções e o título da tabela de respostas.
+     * As respostas são depois acrescentadas com {@link #escreverRespostas}, à medida que
+     * chegam do servidor, e o writer devolvido deve ser fechado por quem o pediu.
+     */
+    public static PrintWriter iniciar(String nomeFicheiro, Pergunta p) throws IOException {
+        PrintWriter pw = new PrintWriter(new FileWriter(nomeFicheiro, StandardCharsets.UTF_8));
+
+        pw.write('\ufeff');
 
 
-            String letraCorreta = "N/A";
-            if (p.getOpcoes() != null) {
-                for (Opcao o : p.getOpcoes()) {
-                    if (o.isCorreta()) {
-                        letraCorreta = o.getLetra();
-                        break;
-                    }
+        String letraCorreta = "N/A";
+        if (p.getOpcoes() != null) {
+            for (Opcao o : p.getOpcoes()) {
+                if (o.isCorreta()) {
+                    letraCorreta = o.getLetra();
+                    break;
                 }
             }
+        }
 
 
-            String dia = p.getInicio().contains(" ") ? p.getInicio().split(" ")[0] : p.getInicio();
+        String dia = p.getInicio().contains(" ") ? p.getInicio().split(" ")[0] : p.getInicio();
 
 
-            pw.println("\"dia\";\"hora inicial\";\"hora final\";\"enunciado da pergunta\";\"opção certa\"");
-            pw.printf("\"%s\";\"%s\";\"%s\";\"%s\";\"%s\"%n",
-                    dia,
-                    p.getInicio(),
-                    p.getFim(),
-                    p.getEnunciado(),
-                    letraCorreta
-            );
+        pw.println("\"dia\";\"hora inicial\";\"hora final\";\"enunciado da pergunta\";\"opção certa\"");
+        pw.printf("\"%s\";\"%s\";\"%s\";\"%s\";\"%s\"%n",
+                dia,
+                p.getInicio(),
+                p.getFim(),
+                p.getEnunciado(),
+                letraCorreta
+        );
 
-            pw.println();
+        pw.println();
 
 
-            pw.println("\"opção\";\"texto da opção\"");
-            if (p.getOpcoes() != null) {
-                for (Opcao o : p.getOpcoes()) {
-                    pw.printf("\"%s\";\"%s\"%n", o.getLetra(), o.getTexto());
-                }
+        pw.println("\"opção\";\"texto da opção\"");
+        if (p.getOpcoes() != null) {
+            for (Opcao o : p.getOpcoes()) {
+                pw.printf("\"%s\";\"%s\"%n", o.getLetra(), o.getTexto());
             }
+        }
 
-            pw.println();
+        pw.println();
 
 
-            pw.println("\"número de estudante\";\"nome\";\"e-mail\";\"resposta\"");
-            if (respostas != null) {
-                for (RespostaEstudante r : respostas) {
-                    pw.printf("\"%s\";\"%s\";\"%s\";\"%s\"%n",
-                            r.getNumEstudante(), r.getNome(), r.getEmail(), r.getOpcaoEscolhida());
-                }
-            }
-
-            System.out.println("[Exportador] Ficheiro gerado com sucesso: " + nomeFicheiro);
+        pw.println("\"número de estudante\";\"nome\";\"e-mail\";\"resposta\"");
+        return pw;
+    }
 
-        } catch (IOException e) {
-            System.err.println("[Exportador] Erro ao escrever ficheiro: " + e.getMessage());
+    public static void escreverRespostas(PrintWriter pw, List<RespostaEstudante> respostas) {
+        for (RespostaEstudante r : respostas) {
+            pw.printf("\"%s\";\"%s\";\"%s\";\"%s\"%n",
+                    r.getNumEstudante(), r.getNome(), r.getEmail(), r.getOpcaoEscolhida());
         }
     }
-}
\ No newline at end of file
+}
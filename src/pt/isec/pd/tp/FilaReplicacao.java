@@ -0,0 +1,146 @@
+package pt.isec.pd.tp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isec.pd.tp.estruturas.RegistoReplicacao;
+import pt.isec.pd.tp.mensagens.MsgHeartbeat;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Fila de saída da replicação no principal. Cada escrita publicada é enviada ao grupo
+ * multicast assim que a thread a retira da fila; as que se acumularem entretanto seguem
+ * juntas na mesma mensagem, por ordem de versão. As mensagens vão no formato de
+ * {@link CodecDatagramas}, partidas em vários datagramas quando excedem um troço.
+ * O heartbeat multicast sai pelo mesmo socket e com a versão do último registo enviado,
+ * para nunca anunciar aos backups uma versão cujos dados ainda não partiram.
+ */
+public class FilaReplicacao implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger("Replicacao");
+
+    public static final String GRUPO = "230.30.30.30";
+    public static final int PORTO = 3030;
+
+    // Tamanho máximo de um datagrama UDP (65535 - cabeçalhos IP/UDP)
+    public static final int MAX_DATAGRAMA = 65507;
+
+    private static final int MAX_REGISTOS = Math.max(1, Definicoes.inteiro("pd.replicacao.lote", 32));
+    // Uma mensagem deixa de receber registos ao passar este tamanho (pode ser partida em vários troços)
+    private static final int MAX_BYTES = Math.max(1, Definicoes.inteiro("pd.replicacao.max_bytes", 8192));
+    // Conteúdo por datagrama: por omissão cabe numa trama Ethernet, para não depender da fragmentação IP
+    private static final int TAMANHO_TROCO = Math.max(64, Math.min(MAX_DATAGRAMA - CodecDatagramas.CABECALHO,
+            Definicoes.inteiro("pd.replicacao.troco", 1400)));
+
+    private final InetAddress ipLocal;
+    private final BlockingQueue<RegistoReplicacao> fila = new LinkedBlockingQueue<>();
+    private final Object envio = new Object();
+
+    // Usados só dentro de synchronized (envio)
+    private final CodecDatagramas.Escritor escritor = new CodecDatagramas.Escritor(MAX_BYTES * 2);
+    private final byte[] datagrama = new byte[CodecDatagramas.CABECALHO + TAMANHO_TROCO];
+    private DatagramPacket pacote;
+    private int idMensagem;
+
+    private volatile boolean running = true;
+    private Thread thread;
+    private MulticastSocket socket;
+    private InetAddress grupo;
+    private long ultimaVersaoEnviada;
+
+    public FilaReplicacao(InetAddress ipLocal) {
+        this.ipLocal = ipLocal;
+    }
+
+    /** Chamado ao assumir o papel de principal, com a versão atual da BD. */
+    public void ativar(long versaoAtual) {
+        synchronized (envio) {
+            ultimaVersaoEnviada = versaoAtual;
+        }
+    }
+
+    public void publicar(RegistoReplicacao registo) {
+        fila.add(registo);
+    }
+
+    public void enviarHeartbeat(int portoClienteTCP, int portoBDT_TCP) {
+        synchronized (envio) {
+            try {
+                escritor.iniciar(CodecDatagramas.TIPO_HEARTBEAT);
+                escritor.heartbeat(new MsgHeartbeat(ultimaVersaoEnviada, portoClienteTCP, portoBDT_TCP));
+                enviarMensagem();
+            } catch (IOException e) {
+                log.error("Falha no envio do heartbeat multicast: {}", e.getMessage());
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        this.thread = Thread.currentThread();
+        List<RegistoReplicacao> lote = new ArrayList<>();
+
+        try {
+            while (running) {
+                lote.add(fila.take());
+                fila.drainTo(lote);
+                enviarLote(lote);
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (envio) {
+                if (socket != null) socket.close();
+            }
+        }
+    }
+
+    private void enviarLote(List<RegistoReplicacao> lote) {
+        synchronized (envio) {
+            int i = 0;
+            while (i < lote.size()) {
+                int inicio = i;
+                escritor.iniciar(CodecDatagramas.TIPO_REPLICACAO);
+                do {
+                    escritor.registo(lote.get(i++));
+                } while (i < lote.size() && i - inicio < MAX_REGISTOS && escritor.tamanho() < MAX_BYTES);
+
+                try {
+                    enviarMensagem();
+                } catch (IOException e) {
+                    log.error("Falha no envio de replicação: {}", e.getMessage());
+                }
+                ultimaVersaoEnviada = lote.get(i - 1).getVersao();
+                log.debug("Replicação enviada: {} registos até à versão {} ({} bytes)", i - inicio, ultimaVersaoEnviada, escritor.tamanho());
+            }
+        }
+    }
+
+    // Envia o conteúdo do escritor, em tantos datagramas quantos os troços necessários
+    private void enviarMensagem() throws IOException {
+        if (socket == null) {
+            socket = new MulticastSocket();
+            socket.setNetworkInterface(NetworkInterface.getByInetAddress(ipLocal));
+            grupo = InetAddress.getByName(GRUPO);
+            pacote = new DatagramPacket(datagrama, datagrama.length, grupo, PORTO);
+        }
+
+        int id = ++idMensagem;
+        int total = escritor.numFragmentos(TAMANHO_TROCO);
+        if (total > 0xFFFF) throw new IOException("Mensagem demasiado grande (" + escritor.tamanho() + " bytes)");
+        for (int f = 0; f < total; f++) {
+            pacote.setData(datagrama, 0, escritor.fragmento(id, f, TAMANHO_TROCO, datagrama));
+            socket.send(pacote);
+        }
+    }
+}
@@ -1,17 +1,29 @@
 package pt.isec.pd.tp;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import pt.isec.pd.tp.mensagens.MsgHeartbeat;
 import pt.isec.pd.tp.mensagens.MsgRespostaDiretoria;
 import pt.isec.pd.tp.servidor.Servidor;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.IOException;
 import java.net.*;
-
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Envia os heartbeats à diretoria (e, no principal, ao grupo multicast) a intervalos fixos,
+ * por um executor agendado. As respostas da diretoria são tratadas à parte, na thread que
+ * corre run(), para que uma resposta atrasada ou perdida não atrase o heartbeat seguinte.
+ */
 public class HeartbeatSender implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger("Heartbeat");
+
+    // A diretoria estima a falha a partir dos intervalos observados: um intervalo curto permite deteção rápida
+    private static final long INTERVALO_MS = Math.max(10, Definicoes.longo("pd.heartbeat.intervalo_ms", 1000));
 
     private final Servidor servidor;
     private final DatabaseManager db;
@@ -19,80 +31,88 @@ public class HeartbeatSender implements Runnable {
     private final int portoDiretorio;
     private final int portoClienteTCP;
     private final int portoBDT_TCP;
-    private final InetAddress ipLocal;
+    private final FilaReplicacao filaReplicacao;
+
+    // Um heartbeat (três varints) cabe sempre num só datagrama pequeno; usados só pela thread do executor
+    private final CodecDatagramas.Escritor escritor = new CodecDatagramas.Escritor(64);
+    private final byte[] datagrama = new byte[CodecDatagramas.CABECALHO + 64];
+    private int idMensagem;
 
     private volatile boolean running = true;
-    private volatile String pendingQuery = null;
-    private volatile int pendingVersion = -1;
     private volatile boolean isPrincipal = false;
+    private volatile DatagramSocket socketDir;
+    private ScheduledExecutorService agendador;
 
-    public HeartbeatSender(Servidor s, DatabaseManager db, String ipDir, int pDir, int pCliente, int pDB, InetAddress ipLocal) {
+    public HeartbeatSender(Servidor s, DatabaseManager db, String ipDir, int pDir, int pCliente, int pDB, FilaReplicacao filaReplicacao) {
         this.servidor = s;
         this.db = db;
         this.ipDiretorio = ipDir;
         this.portoDiretorio = pDir;
         this.portoClienteTCP = pCliente;
         this.portoBDT_TCP = pDB;
-        this.ipLocal = ipLocal;
+        this.filaReplicacao = filaReplicacao;
     }
 
-    public void stop() { running = false; }
-    public void updateRole(boolean isPrincipal) { this.isPrincipal = isPrincipal; }
-
-    public void dispararHeartbeatEscrita(String querySQL, int novaVersao) {
-        this.pendingQuery = querySQL;
-        this.pendingVersion = novaVersao;
+    public void stop() {
+        running = false;
+        if (agendador != null) agendador.shutdownNow();
+        if (socketDir != null) socketDir.close();
     }
 
+    public void updateRole(boolean isPrincipal) { this.isPrincipal = isPrincipal; }
+
     @Override
     public void run() {
-        try (DatagramSocket socketDir = new DatagramSocket()) {
-            socketDir.setSoTimeout(3000);
-
+        try (DatagramSocket socket = new DatagramSocket()) {
+            this.socketDir = socket;
+            InetAddress ipDir = InetAddress.getByName(ipDiretorio);
+
+            agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "heartbeat");
+                t.setDaemon(true);
+                return t;
+            });
+            agendador.scheduleAtFixedRate(() -> enviarHeartbeat(socket, ipDir), INTERVALO_MS, INTERVALO_MS, TimeUnit.MILLISECONDS);
+
+            byte[] buffer = new byte[4096];
+            DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
             while (running) {
-                Thread.sleep(5000);
-
-                String queryToSend = null;
-                int version = db.getVersaoBD();
-
-                if (pendingQuery != null) {
-                    queryToSend = pendingQuery;
-                    version = pendingVersion;
-                    pendingQuery = null;
-                    pendingVersion = -1;
-                }
-
-                MsgHeartbeat heartbeat = new MsgHeartbeat(version, portoClienteTCP, portoBDT_TCP, queryToSend);
-                byte[] data = serializar(heartbeat);
-
-
-                socketDir.send(new DatagramPacket(data, data.length, InetAddress.getByName(ipDiretorio), portoDiretorio));
-
-
-                byte[] buffer = new byte[4096];
-                DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
-
-                try {
-                    socketDir.receive(responsePacket);
-                    processarRespostaDiretoria(responsePacket, socketDir);
-                } catch (SocketTimeoutException e) {
-
-                }
+                responsePacket.setLength(buffer.length);
+                socket.receive(responsePacket);
+                processarRespostaDiretoria(responsePacket);
+            }
+        } catch (IOException e) {
+            if (running) log.error("Erro de I/O: {}", e.getMessage());
+        } finally {
+            if (agendador != null) agendador.shutdownNow();
+        }
+    }
 
+    // Corre no scheduleAtFixedRate: uma exceção que escapasse cancelava os heartbeats seguintes sem aviso
+    private void enviarHeartbeat(DatagramSocket socket, InetAddress ipDir) {
+        try {
+            escritor.iniciar(CodecDatagramas.TIPO_HEARTBEAT);
+            escritor.heartbeat(new MsgHeartbeat(db.getVersaoBD(), portoClienteTCP, portoBDT_TCP));
+            int len = escritor.fragmento(++idMensagem, 0, datagrama.length - CodecDatagramas.CABECALHO, datagrama);
+            socket.send(new DatagramPacket(datagrama, len, ipDir, portoDiretorio));
+        } catch (IOException e) {
+            if (running) log.error("Falha no envio do heartbeat à diretoria: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("Erro inesperado ao enviar o heartbeat à diretoria.", e);
+        }
 
-                if (this.isPrincipal) {
-                    enviarMulticast(data);
-                }
+        // As escritas seguem de imediato pela fila de replicação; aqui vai só o heartbeat periódico
+        if (this.isPrincipal) {
+            try {
+                filaReplicacao.enviarHeartbeat(portoClienteTCP, portoBDT_TCP);
+            } catch (RuntimeException e) {
+                log.error("Erro inesperado ao enviar o heartbeat de replicação.", e);
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } catch (IOException e) {
-            System.err.println("[pt.isec.pd.tp.HeartbeatSender] Erro de I/O: " + e.getMessage());
         }
     }
 
-    private void processarRespostaDiretoria(DatagramPacket packet, DatagramSocket socketDir) {
-        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(packet.getData()))) {
+    private void processarRespostaDiretoria(DatagramPacket packet) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(packet.getData(), 0, packet.getLength()))) {
             MsgRespostaDiretoria resposta = (MsgRespostaDiretoria) ois.readObject();
 
 
@@ -105,27 +125,7 @@ public class HeartbeatSender implements Runnable {
                 servidor.ativarServicosPrincipal();
             }
         } catch (Exception e) {
-            System.err.println("[pt.isec.pd.tp.HeartbeatSender] Erro ao processar resposta da Diretoria: " + e.getMessage());
+            log.error("Erro ao processar resposta da Diretoria: {}", e.getMessage());
         }
     }
-
-    private void enviarMulticast(byte[] data) {
-        try (MulticastSocket socketMulti = new MulticastSocket()) {
-            InetAddress group = InetAddress.getByName("230.30.30.30");
-
-            NetworkInterface nif = NetworkInterface.getByInetAddress(ipLocal);
-            socketMulti.setNetworkInterface(nif);
-
-            DatagramPacket packet = new DatagramPacket(data, data.length, group, 3030);
-            socketMulti.send(packet);
-        } catch (IOException e) {
-            System.err.println("[pt.isec.pd.tp.HeartbeatSender] Falha no envio Multicast: " + e.getMessage());
-        }
-    }
-
-    private byte[] serializar(Object obj) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        new ObjectOutputStream(baos).writeObject(obj);
-        return baos.toByteArray();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package pt.isec.pd.tp;
+
+import pt.isec.pd.tp.estruturas.RegistoReplicacao;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Janela de registos recentes que o principal usa para reparar lacunas dos backups.
+ * Os últimos ficam em memória; os mais antigos, até ao limite da janela, são lidos da
+ * tabela LogReplicacao, gravada na mesma transação de cada escrita.
+ */
+public class LogReplicacao {
+
+    private static final int EM_MEMORIA = Math.max(1, Definicoes.inteiro("pd.replicacao.janela_memoria", 1024));
+
+    private final DatabaseManager db;
+    private final ArrayDeque<RegistoReplicacao> recentes = new ArrayDeque<>();
+
+    public LogReplicacao(DatabaseManager db) {
+        this.db = db;
+    }
+
+    // Chamado por ordem de versão (publicação sob o lock da BD)
+    public synchronized void adicionar(RegistoReplicacao r) {
+        RegistoReplicacao ultimo = recentes.peekLast();
+        if (ultimo != null && r.getVersao() != ultimo.getVersao() + 1) recentes.clear();
+
+        recentes.addLast(r);
+        if (recentes.size() > EM_MEMORIA) recentes.removeFirst();
+    }
+
+    /**
+     * Indica se uma BD na versão desde pode continuar a partir deste log: tem de ter o mesmo
+     * identificador, não estar à frente e ter o mesmo registo (CRC) na versão desde.
+     */
+    public boolean continua(String idBD, long desde, long crcDesde) {
+        if (idBD == null || !idBD.equals(db.getIdBD())) return false;
+        if (desde > db.getVersaoBD()) return false;
+        return desde == 0 || (crcDesde >= 0 && crcDesde == db.crcRegisto(desde));
+    }
+
+    /**
+     * Registos a partir da versão desde+1, até ate e no máximo max. Devolve null se desde+1
+     * já saiu da janela: nesse caso o backup tem de receber uma cópia integral da BD.
+     */
+    public List<RegistoReplicacao> obter(long desde, long ate, int max) {
+        synchronized (this) {
+            RegistoReplicacao primeiro = recentes.peekFirst();
+            if (primeiro != null && primeiro.getVersao() <= desde + 1) {
+                List<RegistoReplicacao> lista = new ArrayList<>();
+                for (RegistoReplicacao r : recentes) {
+                    if (r.getVersao() <= desde) continue;
+                    if (r.getVersao() > ate || lista.size() >= max) break;
+                    lista.add(r);
+                }
+                return lista;
+            }
+        }
+        return db.obterRegistosReplicacao(desde, ate, max);
+    }
+}
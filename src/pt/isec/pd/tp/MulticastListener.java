@@ -1,18 +1,19 @@
 package pt.isec.pd.tp;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isec.pd.tp.mensagens.Mensagem;
 import pt.isec.pd.tp.mensagens.MsgHeartbeat;
+import pt.isec.pd.tp.mensagens.MsgReplicacao;
 import pt.isec.pd.tp.servidor.Servidor;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.net.*;
-import java.sql.SQLException;
 
 public class MulticastListener implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger("Multicast");
+
 
-    private final Servidor servidor;
-    private final DatabaseManager db;
     private final String ipMulticast;
     private final InetAddress ipLocal;
 
@@ -21,30 +22,42 @@ public class MulticastListener implements Runnable {
     private InetAddress group;
     private NetworkInterface nif;
 
+    private final CodecDatagramas.Leitor leitor = new CodecDatagramas.Leitor();
+    private final RemontagemFragmentos remontagem = new RemontagemFragmentos();
+
+    // Esta thread só recebe e descodifica; a escrita na BD é feita pela do aplicador
+    private final AplicadorReplicacao aplicador;
 
     public MulticastListener(Servidor s, DatabaseManager db, String ipMulti, InetAddress ipLocal) {
-        this.servidor = s;
-        this.db = db;
         this.ipMulticast = ipMulti;
         this.ipLocal = ipLocal;
+        this.aplicador = new AplicadorReplicacao(s, db);
+    }
+
+    public void definirPrincipal(InetAddress ip, int portoBD) {
+        aplicador.definirPrincipal(ip, portoBD);
     }
 
     @Override
     public void run() {
+        new Thread(aplicador, "aplicador-replicacao").start();
         try {
-            this.socket = new MulticastSocket(3030);
-            this.group = InetAddress.getByName("230.30.30.30");
+            this.socket = new MulticastSocket(FilaReplicacao.PORTO);
+            // Rajadas de escritas chegam seguidas; um buffer maior absorve-as enquanto a fila não é lida
+            socket.setReceiveBufferSize(1 << 20);
+            this.group = InetAddress.getByName(FilaReplicacao.GRUPO);
             this.nif = NetworkInterface.getByInetAddress(ipLocal);
 
 
-            socket.joinGroup(new InetSocketAddress(group, 3030), nif);
+            socket.joinGroup(new InetSocketAddress(group, FilaReplicacao.PORTO), nif);
 
-            byte[] buffer = new byte[4096];
+            byte[] buffer = new byte[FilaReplicacao.MAX_DATAGRAMA];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
 
-            System.out.println("[pt.isec.pd.tp.MulticastListener] A escutar por Heartbeats em 230.30.30.30:3030");
+            log.info("A escutar por Heartbeats em {}:{}", FilaReplicacao.GRUPO, FilaReplicacao.PORTO);
 
             while (running) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                packet.setLength(buffer.length);
                 socket.receive(packet);
 
 
@@ -52,39 +65,24 @@ public class MulticastListener implements Runnable {
                     continue;
                 }
 
-                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(packet.getData()))) {
-                    MsgHeartbeat heartbeat = (MsgHeartbeat) ois.readObject();
-
-                    int localVersion = db.getVersaoBD();
-                    int remoteVersion = heartbeat.getVersaoBD();
+                try {
+                    Mensagem msg = descodificar(packet);
+                    if (msg == null) continue;
 
-
-                    if (heartbeat.temQuery()) {
-                        if (remoteVersion == localVersion + 1) {
-                            db.executarQueryReplica(heartbeat.getQuerySQL());
-                        } else {
-
-                            System.err.println("[pt.isec.pd.tp.MulticastListener] ERRO CRÍTICO: Perda de sincronização com o Principal (Versão Local: " + localVersion + ", Versão Remota: " + remoteVersion + " - Query). A TERMINAR.");
-                            System.exit(1);
-                        }
-                    } else {
-
-                        if (remoteVersion != localVersion) {
-                            System.err.println("[pt.isec.pd.tp.MulticastListener] ERRO CRÍTICO: Perda de sincronização com o Principal (Versão Local: " + localVersion + ", Versão Remota: " + remoteVersion + " - Periódico). A TERMINAR.");
-                            System.exit(1);
-                        }
+                    if (msg instanceof MsgReplicacao) {
+                        aplicador.receberRegistos(((MsgReplicacao) msg).getRegistos());
+                    } else if (msg instanceof MsgHeartbeat) {
+                        MsgHeartbeat hb = (MsgHeartbeat) msg;
+                        definirPrincipal(packet.getAddress(), hb.getPortoBDT_TCP());
+                        aplicador.receberHeartbeat(hb.getVersaoBD());
                     }
 
-                } catch (ClassNotFoundException | IOException e) {
-                    System.err.println("[pt.isec.pd.tp.MulticastListener] Erro ao processar Heartbeat: " + e.getMessage());
-                } catch (SQLException e) {
-                    System.err.println("[pt.isec.pd.tp.MulticastListener] ERRO CRÍTICO: Falha ao executar Query de Replicação. A TERMINAR.");
-                    e.printStackTrace();
-                    System.exit(1);
+                } catch (IOException e) {
+                    log.error("Erro ao processar Heartbeat: {}", e.getMessage());
                 }
             }
         } catch (IOException e) {
-            System.err.println("[pt.isec.pd.tp.MulticastListener] Erro fatal no Socket Multicast: " + e.getMessage());
+            log.error("Erro fatal no Socket Multicast: {}", e.getMessage());
         } finally {
             if (socket != null && !socket.isClosed()) {
                 socket.close();
@@ -92,8 +90,36 @@ public class MulticastListener implements Runnable {
         }
     }
 
+    // Devolve null enquanto faltarem fragmentos da mensagem, ou se o datagrama não for deste formato
+    private Mensagem descodificar(DatagramPacket packet) throws IOException {
+        byte[] d = packet.getData();
+        int off = packet.getOffset();
+        int len = packet.getLength();
+
+        if (!CodecDatagramas.isBinario(d, off, len)) {
+            log.warn("Datagrama ignorado (formato desconhecido) de {}", packet.getAddress());
+            return null;
+        }
+        if (CodecDatagramas.versao(d, off) != CodecDatagramas.VERSAO) {
+            log.warn("Datagrama ignorado (versão de formato {}) de {}", CodecDatagramas.versao(d, off), packet.getAddress());
+            return null;
+        }
+
+        int tipo = CodecDatagramas.tipo(d, off);
+        if (CodecDatagramas.totalFragmentos(d, off) == 1) {
+            return leitor.ler(tipo, d, off + CodecDatagramas.CABECALHO, len - CodecDatagramas.CABECALHO);
+        }
+        if (!remontagem.juntar(packet.getAddress(), d, off, len)) return null;
+        return leitor.ler(tipo, remontagem.getDados(), 0, remontagem.getTamanho());
+    }
+
+    public AplicadorReplicacao getAplicador() {
+        return aplicador;
+    }
+
     public void stop() {
         this.running = false;
+        aplicador.stop();
         if (socket != null && !socket.isClosed()) {
             socket.close();
         }
@@ -0,0 +1,274 @@
+package pt.isec.pd.tp;
+
+import pt.isec.pd.tp.estruturas.RegistoReplicacao;
+import pt.isec.pd.tp.mensagens.MsgReplicacao;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pedidos aceites no porto TCP de BD do principal. O primeiro byte da ligação indica o pedido.
+ *
+ * PEDIDO_COPIA (seguido do id do snapshot a retomar, ou 0, do primeiro bloco em falta e de um
+ * boolean a pedir compressão) recebe o id, a versão e o tamanho do snapshot, o tamanho dos blocos
+ * e o primeiro bloco enviado; seguem-se os blocos até ao fim, cada um com índice, formato
+ * (BLOCO_BRUTO ou BLOCO_DEFLATE), tamanho original, tamanho enviado e CRC32 do original.
+ * Se o snapshot a retomar já não existe o envio recomeça do bloco 0 de um snapshot novo.
+ * Tanto o principal como os backups respondem a PEDIDO_COPIA.
+ *
+ * PEDIDO_REGISTOS (seguido do identificador da BD, da versão local desde, do CRC do registo dessa
+ * versão e da versão ate) recebe um estado e, se OK, um int com o tamanho e os registos no formato
+ * de {@link CodecDatagramas}. O principal responde FORA_DA_JANELA quando a BD do backup não continua
+ * a sua (outra linhagem, à frente, registo diferente na versão desde) ou quando desde+1 já saiu do log.
+ */
+public final class ProtocoloBD {
+
+    public static final int PEDIDO_COPIA = 1;
+    public static final int PEDIDO_REGISTOS = 2;
+
+    public static final int BLOCO_BRUTO = 0;
+    public static final int BLOCO_DEFLATE = 1;
+
+    public static final int REGISTOS_OK = 0;
+    public static final int FORA_DA_JANELA = 1;
+
+    // Uma lacuna maior é reparada em vários pedidos
+    public static final int MAX_REGISTOS_RESPOSTA = 2000;
+
+    public static final int TIMEOUT_MS = 10_000;
+    private static final boolean COMPRIMIR_COPIA = Definicoes.booleano("pd.snapshot.comprimir", true);
+
+    private ProtocoloBD() {}
+
+    /**
+     * Aplica na BD local os registos do principal até ate (Long.MAX_VALUE: até ao fim do log).
+     * Devolve false se o principal não os pode dar e é preciso uma cópia integral.
+     */
+    public static boolean atualizar(DatabaseManager db, InetAddress ip, int porto, long ate) throws IOException, SQLException {
+        while (db.getVersaoBD() < ate) {
+            long desde = db.getVersaoBD();
+            List<RegistoReplicacao> registos = pedirRegistos(ip, porto, db.getIdBD(), desde, db.crcRegisto(desde), ate);
+            if (registos == null) return false;
+            if (registos.isEmpty()) break;
+            db.aplicarReplicacao(registos);
+        }
+        return true;
+    }
+
+    /** Pede ao principal os registos a partir de desde+1 (até ate); devolve null se não os pode dar. */
+    public static List<RegistoReplicacao> pedirRegistos(InetAddress ip, int porto, String idBD, long desde, long crcDesde, long ate) throws IOException {
+        try (Socket s = new Socket(ip, porto)) {
+            s.setSoTimeout(TIMEOUT_MS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            out.writeByte(PEDIDO_REGISTOS);
+            out.writeUTF(idBD == null ? "" : idBD);
+            out.writeLong(desde);
+            out.writeLong(crcDesde);
+            out.writeLong(ate);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            if (in.readUnsignedByte() != REGISTOS_OK) return null;
+
+            byte[] dados = new byte[in.readInt()];
+            in.readFully(dados);
+            return ((MsgReplicacao) new CodecDatagramas.Leitor().ler(CodecDatagramas.TIPO_REPLICACAO, dados, 0, dados.length)).getRegistos();
+        }
+    }
+
+    /** Responde a um PEDIDO_REGISTOS cujo primeiro byte já foi lido. */
+    public static void responderRegistos(DataInputStream in, OutputStream os, LogReplicacao log) throws IOException {
+        String idBD = in.readUTF();
+        long desde = in.readLong();
+        long crcDesde = in.readLong();
+        long ate = in.readLong();
+        List<RegistoReplicacao> registos = log.continua(idBD, desde, crcDesde) ? log.obter(desde, ate, MAX_REGISTOS_RESPOSTA) : null;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        if (registos == null) {
+            out.writeByte(FORA_DA_JANELA);
+        } else {
+            CodecDatagramas.Escritor escritor = new CodecDatagramas.Escritor(8192);
+            escritor.iniciar(CodecDatagramas.TIPO_REPLICACAO);
+            for (RegistoReplicacao r : registos) escritor.registo(r);
+
+            out.writeByte(REGISTOS_OK);
+            out.writeInt(escritor.tamanho());
+            escritor.escreverPara(out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Recebe a cópia integral da BD para destino. Se lá estiver uma transferência interrompida
+     * (com o estado em destino.estado) pede só os blocos em falta desse snapshot; cada bloco é
+     * verificado pelo CRC antes de ser escrito. Devolve a versão da cópia, já completa.
+     */
+    public static long receberCopia(InetAddress ip, int porto, File destino) throws IOException {
+        File estado = new File(destino.getPath() + ".estado");
+        long idRetomar = 0;
+        int tamanhoBlocoLocal = 0;
+        if (estado.exists() && destino.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(estado))) {
+                idRetomar = in.readLong();
+                tamanhoBlocoLocal = in.readInt();
+            } catch (IOException e) {
+                idRetomar = 0;
+            }
+        }
+        int blocosFeitos = tamanhoBlocoLocal > 0 ? (int) (destino.length() / tamanhoBlocoLocal) : 0;
+
+        try (Socket s = new Socket(ip, porto);
+             FileChannel fc = FileChannel.open(destino.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            s.setSoTimeout(TIMEOUT_MS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            out.writeByte(PEDIDO_COPIA);
+            out.writeLong(idRetomar);
+            out.writeInt(blocosFeitos);
+            out.writeBoolean(COMPRIMIR_COPIA);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+            long id = in.readLong();
+            long versao = in.readLong();
+            long tamanho = in.readLong();
+            int tamanhoBloco = in.readInt();
+            int primeiro = in.readInt();
+            int total = (int) ((tamanho + tamanhoBloco - 1) / tamanhoBloco);
+
+            if (primeiro != 0 && (id != idRetomar || tamanhoBloco != tamanhoBlocoLocal || primeiro > blocosFeitos)) {
+                estado.delete();
+                throw new IOException("Retoma da cópia da BD incoerente; a próxima tentativa recomeça do início.");
+            }
+            if (primeiro == 0) {
+                try (DataOutputStream e = new DataOutputStream(new FileOutputStream(estado))) {
+                    e.writeLong(id);
+                    e.writeInt(tamanhoBloco);
+                }
+            }
+            fc.truncate((long) primeiro * tamanhoBloco);
+
+            byte[] recebido = new byte[tamanhoBloco];
+            byte[] bloco = new byte[tamanhoBloco];
+            Inflater inflater = new Inflater();
+            CRC32 crc = new CRC32();
+            try {
+                for (int i = primeiro; i < total; i++) {
+                    if (in.readInt() != i) throw new IOException("Bloco fora de ordem na cópia da BD.");
+                    int formato = in.readUnsignedByte();
+                    int original = in.readInt();
+                    int enviado = in.readInt();
+                    int crcEsperado = in.readInt();
+                    if (original > tamanhoBloco || enviado > tamanhoBloco) throw new IOException("Bloco inválido na cópia da BD.");
+                    in.readFully(recebido, 0, enviado);
+
+                    byte[] dados = recebido;
+                    if (formato == BLOCO_DEFLATE) {
+                        inflater.reset();
+                        inflater.setInput(recebido, 0, enviado);
+                        try {
+                            if (inflater.inflate(bloco, 0, original) != original) throw new IOException("Bloco " + i + " incompleto.");
+                        } catch (DataFormatException e) {
+                            throw new IOException("Bloco " + i + " corrompido: " + e.getMessage());
+                        }
+                        dados = bloco;
+                    } else if (formato != BLOCO_BRUTO || enviado != original) {
+                        throw new IOException("Bloco inválido na cópia da BD.");
+                    }
+
+                    crc.reset();
+                    crc.update(dados, 0, original);
+                    if ((int) crc.getValue() != crcEsperado) throw new IOException("CRC errado no bloco " + i + ".");
+
+                    ByteBuffer buf = ByteBuffer.wrap(dados, 0, original);
+                    long pos = (long) i * tamanhoBloco;
+                    while (buf.hasRemaining()) pos += fc.write(buf, pos);
+                }
+            } finally {
+                inflater.end();
+            }
+
+            if (fc.size() != tamanho) throw new IOException("Cópia da BD com tamanho errado (" + fc.size() + " de " + tamanho + " bytes).");
+            fc.force(true);
+            estado.delete();
+            return versao;
+        } catch (EOFException e) {
+            throw new EOFException("Ligação terminada a meio da cópia da BD.");
+        }
+    }
+
+    /** Responde a um PEDIDO_COPIA cujo primeiro byte já foi lido. */
+    public static void responderCopia(DataInputStream in, Socket s, SnapshotBD snapshots) throws IOException {
+        long idRetomar = in.readLong();
+        int blocoPedido = in.readInt();
+        boolean comprimir = in.readBoolean();
+
+        SnapshotBD.Snapshot snap = snapshots.obter(idRetomar);
+        try {
+            int total = snap.getNumBlocos();
+            int primeiro = snap.getId() == idRetomar ? Math.max(0, Math.min(blocoPedido, total)) : 0;
+
+            try (FileChannel fc = FileChannel.open(snap.getFicheiro().toPath(), StandardOpenOption.READ)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+                out.writeLong(snap.getId());
+                out.writeLong(snap.getVersao());
+                out.writeLong(snap.getTamanho());
+                out.writeInt(SnapshotBD.TAMANHO_BLOCO);
+                out.writeInt(primeiro);
+
+                // Sem compressão os blocos vão do ficheiro para o socket com transferTo
+                WritableByteChannel canal = s.getChannel() != null ? s.getChannel() : Channels.newChannel(s.getOutputStream());
+                ByteBuffer buf = ByteBuffer.allocate(SnapshotBD.TAMANHO_BLOCO);
+                byte[] comprimido = new byte[SnapshotBD.TAMANHO_BLOCO];
+                Deflater deflater = comprimir ? new Deflater(Deflater.BEST_SPEED) : null;
+                try {
+                    for (int i = primeiro; i < total; i++) {
+                        long pos = (long) i * SnapshotBD.TAMANHO_BLOCO;
+                        int original = (int) Math.min(SnapshotBD.TAMANHO_BLOCO, snap.getTamanho() - pos);
+
+                        int enviado = 0;
+                        if (deflater != null) {
+                            SnapshotBD.lerBloco(fc, i, buf);
+                            deflater.reset();
+                            deflater.setInput(buf.array(), 0, original);
+                            deflater.finish();
+                            enviado = deflater.deflate(comprimido);
+                            // Um bloco que não encolhe segue em bruto
+                            if (!deflater.finished() || enviado >= original) enviado = 0;
+                        }
+
+                        out.writeInt(i);
+                        out.writeByte(enviado > 0 ? BLOCO_DEFLATE : BLOCO_BRUTO);
+                        out.writeInt(original);
+                        out.writeInt(enviado > 0 ? enviado : original);
+                        out.writeInt(snap.getCrc(i));
+                        if (enviado > 0) {
+                            out.write(comprimido, 0, enviado);
+                        } else {
+                            out.flush();
+                            long feito = 0;
+                            while (feito < original) feito += fc.transferTo(pos + feito, original - feito, canal);
+                        }
+                    }
+                    out.flush();
+                } finally {
+                    if (deflater != null) deflater.end();
+                }
+            }
+        } finally {
+            snapshots.libertar(snap);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package pt.isec.pd.tp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saída assíncrona para o slf4j-simple. O SimpleLogger escreve em System.err a cada linha;
+ * ao substituir System.err por este stream, a thread que regista só copia a linha para um
+ * buffer circular limitado e a escrita na consola passa para uma thread própria.
+ * Com a fila cheia as linhas novas são descartadas (e contadas) em vez de bloquear quem regista.
+ * Os níveis por subsistema (BD, Handler, Diretoria, ...) ficam em simplelogger.properties.
+ */
+public final class RegistoAssincrono extends OutputStream {
+
+    private static final int CAPACIDADE = Math.max(64, Definicoes.inteiro("pd.log.capacidade", 8192));
+
+    private static RegistoAssincrono instalado;
+
+    private final BlockingQueue<byte[]> fila = new ArrayBlockingQueue<>(CAPACIDADE);
+    private final AtomicLong descartadas = new AtomicLong();
+    private final OutputStream destino;
+    private final ByteArrayOutputStream linha = new ByteArrayOutputStream(256);
+
+    private RegistoAssincrono(OutputStream destino) {
+        this.destino = destino;
+    }
+
+    public static synchronized void instalar() {
+        if (instalado != null) return;
+
+        instalado = new RegistoAssincrono(new FileOutputStream(FileDescriptor.err));
+        System.setErr(new PrintStream(instalado, true, StandardCharsets.UTF_8));
+
+        Thread t = new Thread(instalado::escoar, "registo");
+        t.setDaemon(true);
+        t.start();
+
+        // Escreve o que ainda estiver na fila (ex.: antes de um System.exit)
+        Runtime.getRuntime().addShutdownHook(new Thread(instalado::esvaziar, "registo-fim"));
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        linha.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        linha.write(b, off, len);
+    }
+
+    // O PrintStream com autoflush chama flush() no fim de cada println: uma entrada por linha
+    @Override
+    public synchronized void flush() {
+        if (linha.size() == 0) return;
+        if (!fila.offer(linha.toByteArray())) descartadas.incrementAndGet();
+        linha.reset();
+    }
+
+    private void escoar() {
+        List<byte[]> lote = new ArrayList<>(256);
+        try {
+            while (true) {
+                lote.add(fila.take());
+                fila.drainTo(lote, 255);
+                escrever(lote);
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void esvaziar() {
+        flush();
+        List<byte[]> resto = new ArrayList<>();
+        fila.drainTo(resto);
+        escrever(resto);
+    }
+
+    private void escrever(List<byte[]> lote) {
+        synchronized (destino) {
+            try {
+                for (byte[] l : lote) destino.write(l);
+                long n = descartadas.getAndSet(0);
+                if (n > 0) {
+                    destino.write(("[Registo] " + n + " linhas descartadas (fila cheia)" + System.lineSeparator())
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                destino.flush();
+            } catch (IOException ignored) {
+                // Sem consola não há onde reportar
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package pt.isec.pd.tp;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Junta os fragmentos das mensagens que o emissor partiu em vários datagramas.
+ * Só guarda as poucas mensagens em curso mais recentes: se um fragmento se perder a
+ * mensagem fica incompleta até ser descartada, e a falha aparece como salto de versão.
+ * Usada apenas pela thread que recebe os datagramas.
+ */
+public class RemontagemFragmentos {
+
+    private static final int MAX_EM_CURSO = 8;
+
+    private static final class Parcial {
+        final byte[][] partes;
+        int recebidos;
+        int bytes;
+
+        Parcial(int total) {
+            this.partes = new byte[total][];
+        }
+    }
+
+    private final Map<String, Parcial> emCurso = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Parcial> eldest) {
+            return size() > MAX_EM_CURSO;
+        }
+    };
+
+    private byte[] completa = new byte[16 * 1024];
+    private int tamanho;
+
+    /**
+     * Guarda o fragmento (datagrama inteiro, com cabeçalho). Devolve true quando a mensagem
+     * fica completa; o conteúdo, sem cabeçalhos, fica em getDados()/getTamanho() até à chamada seguinte.
+     */
+    public boolean juntar(InetAddress origem, byte[] d, int off, int len) {
+        int total = CodecDatagramas.totalFragmentos(d, off);
+        int indice = CodecDatagramas.indiceFragmento(d, off);
+        if (total == 0 || indice >= total) return false;
+
+        String chave = origem.getHostAddress() + "/" + CodecDatagramas.idMensagem(d, off);
+        Parcial p = emCurso.get(chave);
+        if (p == null) {
+            p = new Parcial(total);
+            emCurso.put(chave, p);
+        }
+        if (p.partes.length != total || p.partes[indice] != null) return false;
+
+        int troco = len - CodecDatagramas.CABECALHO;
+        p.partes[indice] = Arrays.copyOfRange(d, off + CodecDatagramas.CABECALHO, off + len);
+        p.recebidos++;
+        p.bytes += troco;
+        if (p.recebidos < total) return false;
+
+        emCurso.remove(chave);
+        if (completa.length < p.bytes) completa = new byte[Math.max(p.bytes, completa.length * 2)];
+        tamanho = 0;
+        for (byte[] parte : p.partes) {
+            System.arraycopy(parte, 0, completa, tamanho, parte.length);
+            tamanho += parte.length;
+        }
+        return true;
+    }
+
+    public byte[] getDados() { return completa; }
+    public int getTamanho() { return tamanho; }
+}
@@ -0,0 +1,36 @@
+package pt.isec.pd.tp;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Resposta de um estudante a aguardar o próximo lote do {@link ColetorRespostas}.
+ * O estado é preenchido pelo DatabaseManager dentro da transação do lote.
+ */
+public class RespostaPendente {
+
+    public enum Estado { ACEITE, INATIVA, OPCAO_INVALIDA, DUPLICADA, FALHA }
+
+    private final int estudanteId;
+    private final String codigoAcesso;
+    private final String letra;
+    private final CompletableFuture<Estado> resultado = new CompletableFuture<>();
+
+    private Estado estado = Estado.FALHA;
+
+    public RespostaPendente(int estudanteId, String codigoAcesso, String letra) {
+        this.estudanteId = estudanteId;
+        this.codigoAcesso = codigoAcesso;
+        this.letra = letra;
+    }
+
+    public int getEstudanteId() { return estudanteId; }
+    public String getCodigoAcesso() { return codigoAcesso; }
+    public String getLetra() { return letra; }
+
+    public Estado getEstado() { return estado; }
+    public void setEstado(Estado estado) { this.estado = estado; }
+
+    public CompletableFuture<Estado> getResultado() { return resultado; }
+
+    void concluir() { resultado.complete(estado); }
+}
@@ -0,0 +1,144 @@
+package pt.isec.pd.tp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot da BD enviado, por blocos, a quem pede cópia integral (pelo principal ou por um backup).
+ * O último fica em disco para que um backup cuja ligação caiu retome a transferência do mesmo
+ * ficheiro; um pedido novo reutiliza-o enquanto for recente (o resto vem depois pelo log).
+ * Cada snapshot tem um id aleatório: com a mesma versão, as cópias de servidores diferentes
+ * têm o mesmo conteúdo mas não as mesmas páginas, e só se retomam blocos do mesmo ficheiro.
+ * Quem recebe um snapshot de obter() devolve-o com libertar(): o ficheiro de um snapshot
+ * substituído só é apagado quando já nenhum envio o usa.
+ */
+public class SnapshotBD {
+    private static final Logger log = LoggerFactory.getLogger("Snapshot");
+
+    public static final int TAMANHO_BLOCO = Math.max(4096, Definicoes.inteiro("pd.snapshot.bloco", 256 * 1024));
+    private static final long IDADE_MAXIMA_MS = Definicoes.longo("pd.snapshot.idade_max_ms", 60_000);
+
+    public static final class Snapshot {
+        private final long id;
+        private final File ficheiro;
+        private final long versao;
+        private final long tamanho;
+        private final int[] crcs;
+        private final long criado = System.currentTimeMillis();
+        // Envios em curso e se já foi substituído; protegidos pelo monitor do SnapshotBD
+        private int emUso;
+        private boolean descartado;
+
+        private Snapshot(long id, File ficheiro, long versao, long tamanho, int[] crcs) {
+            this.id = id;
+            this.ficheiro = ficheiro;
+            this.versao = versao;
+            this.tamanho = tamanho;
+            this.crcs = crcs;
+        }
+
+        public long getId() { return id; }
+        public File getFicheiro() { return ficheiro; }
+        public long getVersao() { return versao; }
+        public long getTamanho() { return tamanho; }
+        public int getNumBlocos() { return crcs.length; }
+        /** CRC32 do bloco sem compressão. */
+        public int getCrc(int bloco) { return crcs[bloco]; }
+    }
+
+    private final DatabaseManager db;
+    private final String prefixo;
+    private Snapshot atual;
+
+    public SnapshotBD(DatabaseManager db, String dbPath) {
+        this.db = db;
+        this.prefixo = dbPath + ".snapshot-";
+    }
+
+    /**
+     * Devolve o snapshot a enviar: o guardado, se é o que o backup quer retomar, se a BD não
+     * mudou desde então ou se ainda é recente; senão tira um novo e descarta o anterior.
+     */
+    public synchronized Snapshot obter(long idRetomar) throws IOException {
+        if (atual != null && (atual.id == idRetomar || atual.versao == db.getVersaoBD()
+                || System.currentTimeMillis() - atual.criado < IDADE_MAXIMA_MS)) {
+            atual.emUso++;
+            return atual;
+        }
+
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+
+        // O id no nome impede que o novo ficheiro substitua um anterior que ainda esteja a ser enviado
+        File ficheiro = new File(prefixo + db.getVersaoBD() + "-" + Long.toHexString(id));
+        ficheiro.delete(); // VACUUM INTO exige que o destino não exista
+        long versao;
+        try {
+            versao = db.criarSnapshot(ficheiro);
+        } catch (SQLException e) {
+            ficheiro.delete();
+            throw new IOException("Falha ao criar snapshot da BD: " + e.getMessage(), e);
+        }
+
+        Snapshot novo = new Snapshot(id, ficheiro, versao, ficheiro.length(), calcularCrcs(ficheiro));
+        if (atual != null) descartar(atual);
+        atual = novo;
+        novo.emUso++;
+        log.info("Snapshot da BD criado (versão {}, {} bytes, {} blocos).", versao, novo.tamanho, novo.crcs.length);
+        return atual;
+    }
+
+    /** Fim de um envio do snapshot devolvido por obter(). */
+    public synchronized void libertar(Snapshot snap) {
+        snap.emUso--;
+        if (snap.descartado && snap.emUso == 0) snap.ficheiro.delete();
+    }
+
+    public synchronized void limpar() {
+        if (atual != null) descartar(atual);
+        atual = null;
+    }
+
+    private void descartar(Snapshot snap) {
+        snap.descartado = true;
+        if (snap.emUso == 0) snap.ficheiro.delete();
+    }
+
+    private static int[] calcularCrcs(File ficheiro) throws IOException {
+        try (FileChannel fc = FileChannel.open(ficheiro.toPath(), StandardOpenOption.READ)) {
+            int n = (int) ((fc.size() + TAMANHO_BLOCO - 1) / TAMANHO_BLOCO);
+            int[] crcs = new int[n];
+            ByteBuffer buf = ByteBuffer.allocate(TAMANHO_BLOCO);
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < n; i++) {
+                lerBloco(fc, i, buf);
+                crc.reset();
+                crc.update(buf);
+                crcs[i] = (int) crc.getValue();
+            }
+            return crcs;
+        }
+    }
+
+    /** Lê o bloco indice para buf, que fica pronto a ler (limit = tamanho do bloco). */
+    static void lerBloco(FileChannel fc, int indice, ByteBuffer buf) throws IOException {
+        long pos = (long) indice * TAMANHO_BLOCO;
+        buf.clear();
+        buf.limit((int) Math.min(TAMANHO_BLOCO, fc.size() - pos));
+        while (buf.hasRemaining()) {
+            if (fc.read(buf, pos + buf.position()) < 0) throw new IOException("Snapshot truncado.");
+        }
+        buf.flip();
+    }
+}
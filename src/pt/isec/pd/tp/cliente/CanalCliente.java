@@ -0,0 +1,22 @@
+package pt.isec.pd.tp.cliente;
+
+import java.io.IOException;
+
+/** Ligação de um cliente vista pelo ClientHandler: envio de mensagens e fecho. */
+public interface CanalCliente {
+
+    /** Envia a mensagem; se o cliente tiver demasiado por ler, espera que ele leia. */
+    void enviar(Object msg) throws IOException;
+
+    /** Como enviar, mas nunca espera: devolve false (e fecha a ligação) se o cliente não está a ler. */
+    boolean tentarEnviar(Object msg);
+
+    /**
+     * Notificação ao cliente (sem o prefixo {@link ClientHandler#NOTIFICACAO}); nunca espera:
+     * fica na fila de notificações da ligação, que é limitada.
+     */
+    void notificar(String mensagem);
+
+    /** Fecha a ligação depois de entregue o que já está em fila. */
+    void fecharAposEnvio();
+}
@@ -1,151 +1,147 @@
 package pt.isec.pd.tp.cliente;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isec.pd.tp.Alteracao;
 import pt.isec.pd.tp.DatabaseManager;
 import pt.isec.pd.tp.estruturas.*;
 import pt.isec.pd.tp.mensagens.*;
 import pt.isec.pd.tp.servidor.ServerAPI;
 
-import java.io.*;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionStage;
 
-public class ClientHandler implements Runnable {
+public class ClientHandler {
+    private static final Logger log = LoggerFactory.getLogger("Handler");
+
+
+    public static final String NOTIFICACAO = "NOTIFICACAO:";
 
     private static final int ESTADO_INICIAL = 0;
     private static final int ESTADO_DOCENTE = 1;
     private static final int ESTADO_ESTUDANTE = 2;
 
     private int userId;
-    private int estadoLogin = ESTADO_INICIAL;
+    private volatile int estadoLogin = ESTADO_INICIAL;
     private String userEmail;
 
-    private final Socket clientSocket;
+    private final CanalCliente canal;
     private final DatabaseManager dbManager;
     private final ServerAPI serverAPI;
-    private final ObjectOutputStream out;
-    private final ObjectInputStream in;
 
-    private static final int AUTH_TIMEOUT_MS = 30000;
+    private static final int MAX_TAMANHO_BLOCO = 1000;
+    private static final int MAX_TAMANHO_PAGINA = 500;
 
-    public ClientHandler(Socket socket, DatabaseManager dbManager, ServerAPI api) throws IOException {
-        this.clientSocket = socket;
+    public ClientHandler(CanalCliente canal, DatabaseManager dbManager, ServerAPI api) {
+        this.canal = canal;
         this.dbManager = dbManager;
         this.serverAPI = api;
-
-        System.out.println("[Handler] A inicializar streams para " + socket.getInetAddress());
-        this.out = new ObjectOutputStream(clientSocket.getOutputStream());
-        this.out.flush();
-        this.in = new ObjectInputStream(clientSocket.getInputStream());
     }
 
-    @Override
-    public void run() {
-        try {
-
-            clientSocket.setSoTimeout(AUTH_TIMEOUT_MS);
-
+    /**
+     * Trata uma mensagem do cliente. As mensagens de uma ligação chegam uma de cada vez, exceto
+     * as que {@link #podeCorrerEmParalelo} aceita, que podem correr ao mesmo tempo umas com as
+     * outras; quando a resposta depende de trabalho assíncrono devolve-a como CompletionStage
+     * (enviada por quem chamou quando terminar), senão responde logo e devolve null.
+     */
+    public CompletionStage<?> processar(Object msg) throws IOException {
+        if (estadoLogin == ESTADO_INICIAL) {
+            if (msg instanceof MsgRegisto) processarRegisto((MsgRegisto) msg);
+            else if (msg instanceof MsgLogin) processarLogin((MsgLogin) msg);
+            else responder(msg, "ERRO: Login/Registo necessário.");
+
+            if (estadoLogin != ESTADO_INICIAL) log.info("Cliente {} autenticado.", userEmail);
+            return null;
+        }
 
-            while (estadoLogin == ESTADO_INICIAL) {
-                try {
-                    Object msg = in.readObject();
-                    if (msg instanceof MsgRegisto) processarRegisto((MsgRegisto) msg);
-                    else if (msg instanceof MsgLogin) processarLogin((MsgLogin) msg);
-                    else enviarObjeto("ERRO: Login/Registo necessário.");
-                } catch (SocketTimeoutException e) {
-                    enviarObjeto("TIMEOUT: Login expirou.");
-                    return;
-                }
-            }
 
-            clientSocket.setSoTimeout(0);
-            System.out.println("[Handler] pt.isec.pd.tp.cliente.Cliente " + userEmail + " autenticado.");
+        if (msg instanceof MsgLogout) {
+            responder(msg, "SUCESSO: Logout efetuado.");
+            canal.fecharAposEnvio();
+            return null;
+        }
 
 
-            while (true) {
-                try {
-                    Object msg = in.readObject();
+        try {
+            if (estadoLogin == ESTADO_DOCENTE) {
+                if (msg instanceof MsgCriarPergunta) {
+                    processarCriarPergunta((MsgCriarPergunta) msg);
+                } else if (msg instanceof MsgObterPerguntas) {
+                    processarObterPerguntas((MsgObterPerguntas) msg);
+                } else if (msg instanceof MsgObterRespostas) {
+                    processarObterRespostas((MsgObterRespostas) msg);
+                } else if (msg instanceof MsgEliminarPergunta) {
+                    processarEliminarPergunta((MsgEliminarPergunta) msg);
+                } else if (msg instanceof MsgEditarPergunta) {
+                    processarEditarPergunta((MsgEditarPergunta) msg);
+                } else if (msg instanceof MsgObterEstatisticas) {
+                    processarObterEstatisticas((MsgObterEstatisticas) msg);
+                } else if (msg instanceof MsgObterPergunta) {
+                    processarObterPergunta((MsgObterPergunta) msg);
+                } else if (msg instanceof MsgEditarPerfil) {
+                    processarEditarPerfil((MsgEditarPerfil) msg);
+                }
 
+            } else if (estadoLogin == ESTADO_ESTUDANTE) {
+                if (msg instanceof MsgObterPergunta) {
+                    processarObterPergunta((MsgObterPergunta) msg);
+                } else if (msg instanceof MsgResponderPergunta) {
+                    return processarResponderPergunta((MsgResponderPergunta) msg).thenApply(resposta -> etiquetar(msg, resposta));
+                } else if (msg instanceof MsgObterHistorico) {
+                    processarObterHistorico((MsgObterHistorico) msg);
+                } else if (msg instanceof MsgEditarPerfil) { // NOVO
+                    processarEditarPerfil((MsgEditarPerfil) msg);
+                }
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
 
-                    if (msg instanceof MsgLogout) {
-                        enviarObjeto("SUCESSO: Logout efetuado.");
-                        return;
-                    }
+            log.error("Erro ao processar mensagem: {}", e.getMessage());
 
+            responder(msg, "ERRO INTERNO: Falha na lógica do servidor: " + e.getMessage());
+        }
+        return null;
+    }
 
-                    try {
-                        if (estadoLogin == ESTADO_DOCENTE) {
-                            if (msg instanceof MsgCriarPergunta) {
-                                processarCriarPergunta((MsgCriarPergunta) msg);
-                            } else if (msg instanceof MsgObterPerguntas) {
-                                String filtro = ((MsgObterPerguntas) msg).getFiltro();
-                                List<Pergunta> lista = dbManager.listarPerguntasComFiltro(userId, filtro);
-                                enviarObjeto(lista);
-                            } else if (msg instanceof MsgObterRespostas) {
-                                processarObterRespostas((MsgObterRespostas) msg);
-                            } else if (msg instanceof MsgEliminarPergunta) {
-                                processarEliminarPergunta((MsgEliminarPergunta) msg);
-                            } else if (msg instanceof MsgEditarPergunta) {
-                                processarEditarPergunta((MsgEditarPergunta) msg);
-                            } else if (msg instanceof MsgObterEstatisticas) {
-                                processarObterEstatisticas((MsgObterEstatisticas) msg);
-                            } else if (msg instanceof MsgObterPergunta) {
-                                processarObterPergunta((MsgObterPergunta) msg);
-                            } else if (msg instanceof MsgEditarPerfil) {
-                                processarEditarPerfil((MsgEditarPerfil) msg);
-                            }
-
-                        } else if (estadoLogin == ESTADO_ESTUDANTE) {
-                            if (msg instanceof MsgObterPergunta) {
-                                processarObterPergunta((MsgObterPergunta) msg);
-                            } else if (msg instanceof MsgResponderPergunta) {
-                                processarResponderPergunta((MsgResponderPergunta) msg);
-                            } else if (msg instanceof MsgObterHistorico) {
-                                List<HistoricoItem> historico = dbManager.obterHistoricoEstudante(userId);
-                                enviarObjeto(historico);
-                            } else if (msg instanceof MsgEditarPerfil) { // NOVO
-                                processarEditarPerfil((MsgEditarPerfil) msg);
-                            }
-                        }
-                    } catch (Exception e) {
+    /**
+     * Consultas de um cliente autenticado com id (a resposta não tem de sair pela ordem dos
+     * pedidos): não alteram o estado da sessão nem a BD, por isso podem correr em paralelo
+     * entre si, mas não com os restantes pedidos da mesma ligação.
+     */
+    public boolean podeCorrerEmParalelo(Object msg) {
+        if (!isAutenticado() || !(msg instanceof Mensagem) || ((Mensagem) msg).getId() == 0) return false;
+        return msg instanceof MsgObterPergunta || msg instanceof MsgObterPerguntas || msg instanceof MsgObterHistorico
+                || msg instanceof MsgObterEstatisticas || msg instanceof MsgObterRespostas;
+    }
 
-                        System.err.println("[Handler] Erro ao processar mensagem: " + e.getMessage());
+    /** Chamado uma vez, quando a ligação fecha (pelo cliente, por erro ou após o logout). */
+    public void ligacaoFechada() {
+        log.info("Cliente saiu: {}", userEmail);
+    }
 
-                        enviarObjeto("ERRO INTERNO: Falha na lógica do servidor: " + e.getMessage());
-                    }
 
-                } catch (EOFException | SocketException e) {
-                    System.out.println("[Handler] pt.isec.pd.tp.cliente.Cliente saiu: " + userEmail);
-                    break;
-                }
-            }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (clientSocket != null) clientSocket.close();
-            } catch (IOException e) {}
-        }
+    // Um pedido com id recebe a resposta etiquetada, para o cliente a poder receber fora de ordem
+    private void responder(Object pedido, Object resposta) throws IOException {
+        canal.enviar(etiquetar(pedido, resposta));
     }
 
+    private static Object etiquetar(Object pedido, Object resposta) {
+        long id = pedido instanceof Mensagem ? ((Mensagem) pedido).getId() : 0;
+        return id != 0 ? new MsgResposta(id, (Serializable) resposta) : resposta;
+    }
 
-
-    private synchronized void enviarObjeto(Object obj) throws IOException {
-        out.writeObject(obj);
-        out.flush();
+    // Só põe na fila da ligação, sem esperar pelo cliente: quem notifica pode estar a segurar o BD_LOCK
+    public void enviarNotificacao(String mensagem) {
+        canal.notificar(mensagem);
     }
 
-    public boolean enviarNotificacao(String mensagem) {
-        try {
-            enviarObjeto("NOTIFICACAO:" + mensagem);
-            return true;
-        } catch (IOException e) {
-            return false;
-        }
+    public boolean isAutenticado() {
+        return estadoLogin != ESTADO_INICIAL;
     }
 
     public String getUserEmail() {
@@ -159,98 +155,104 @@ public class ClientHandler implements Runnable {
             estadoLogin = ESTADO_DOCENTE;
             userEmail = msg.getEmail();
             userId = dbManager.obterIdDocente(msg.getEmail());
-            enviarObjeto("SUCESSO: Login pt.isec.pd.tp.bases.Docente");
-            clientSocket.setSoTimeout(0);
+            responder(msg, "SUCESSO: Login pt.isec.pd.tp.bases.Docente");
         } else if (dbManager.autenticarEstudante(msg.getEmail(), msg.getPassword())) {
             estadoLogin = ESTADO_ESTUDANTE;
             userEmail = msg.getEmail();
             userId = dbManager.obterIdEstudante(msg.getEmail());
-            enviarObjeto("SUCESSO: Login pt.isec.pd.tp.bases.Estudante");
-            clientSocket.setSoTimeout(0);
+            responder(msg, "SUCESSO: Login pt.isec.pd.tp.bases.Estudante");
         } else {
-            enviarObjeto("ERRO: Credenciais inválidas.");
+            responder(msg, "ERRO: Credenciais inválidas.");
         }
     }
 
     private void processarRegisto(MsgRegisto msg) throws IOException {
         String resposta = "ERRO: Falha desconhecida no registo.";
 
-        synchronized (serverAPI.getBDLock()) {
+        serverAPI.getBDLock().lock();
+        try {
             try {
                 if (msg.isDocente()) {
                     if (!dbManager.validarCodigoDocente(msg.getCodigoDocente())) {
                         resposta = "ERRO: Código de docente inválido.";
                     } else {
-                        String querySql = dbManager.registarDocente(msg.getDocente());
-                        if (querySql != null) {
+                        Alteracao alteracao = dbManager.registarDocente(msg.getDocente());
+                        if (alteracao != null) {
                             resposta = "SUCESSO: pt.isec.pd.tp.bases.Docente registado!";
-                            serverAPI.publicarAlteracao(querySql, dbManager.getVersaoBD());
+                            serverAPI.publicarAlteracao(alteracao);
                         } else {
                             resposta = "ERRO: pt.isec.pd.tp.bases.Docente ja registado ou email duplicado.";
                         }
                     }
                 } else if (msg.isEstudante()) {
-                    String querySql = dbManager.registarEstudante(msg.getEstudante());
-                    if (querySql != null) {
+                    Alteracao alteracao = dbManager.registarEstudante(msg.getEstudante());
+                    if (alteracao != null) {
                         resposta = "SUCESSO: pt.isec.pd.tp.bases.Estudante registado!";
-                        serverAPI.publicarAlteracao(querySql, dbManager.getVersaoBD());
+                        serverAPI.publicarAlteracao(alteracao);
                     } else {
                         resposta = "ERRO: Dados inválidos ou duplicados (email/número).";
                     }
                 }
             } catch (Exception e) {
 
-                System.err.println("[Handler] Erro de BD/Lógica no registo: " + e.getMessage());
-                e.printStackTrace();
+                log.error("Erro de BD/Lógica no registo", e);
                 resposta = "ERRO: Falha de servidor ao processar registo. Tente de novo.";
             }
+        } finally {
+            serverAPI.getBDLock().unlock();
         }
 
-        enviarObjeto(resposta);
+        responder(msg, resposta);
     }
 
 
     private void processarEditarPerfil(MsgEditarPerfil msg) throws IOException {
         String resposta = "ERRO: Não foi possível editar o perfil.";
-        String querySql = null;
+        Alteracao alteracao = null;
 
-        synchronized (serverAPI.getBDLock()) {
+        serverAPI.getBDLock().lock();
+        try {
             if (msg.isDocente() && estadoLogin == ESTADO_DOCENTE) {
                 Docente d = msg.getNovoDocente();
 
-                querySql = dbManager.editarDocente(userEmail, d.getNome(), d.getPassword());
+                alteracao = dbManager.editarDocente(userEmail, d.getNome(), d.getPassword());
             } else if (msg.isEstudante() && estadoLogin == ESTADO_ESTUDANTE) {
                 Estudante e = msg.getNovoEstudante();
 
-                querySql = dbManager.editarEstudante(userEmail, e.getNumEstudante(), e.getNome(), e.getPassword());
+                alteracao = dbManager.editarEstudante(userEmail, e.getNumEstudante(), e.getNome(), e.getPassword());
             }
 
-            if (querySql != null) {
+            if (alteracao != null) {
                 resposta = "SUCESSO: Perfil atualizado.";
-                serverAPI.publicarAlteracao(querySql, dbManager.getVersaoBD());
+                serverAPI.publicarAlteracao(alteracao);
             } else {
                 resposta = "ERRO: Falha na base de dados ou dados duplicados.";
             }
+        } finally {
+            serverAPI.getBDLock().unlock();
         }
-        enviarObjeto(resposta);
+        responder(msg, resposta);
     }
 
 
     private void processarCriarPergunta(MsgCriarPergunta msg) throws IOException {
         String resposta = "ERRO: Falha na BD.";
 
-        synchronized (serverAPI.getBDLock()) {
+        serverAPI.getBDLock().lock();
+        try {
             String codAcesso = UUID.randomUUID().toString().substring(0, 6).toUpperCase();
 
-            String querySql = dbManager.criarPergunta(userId, msg.getEnunciado(), codAcesso, msg.getInicio(), msg.getFim(), msg.getOpcoes());
+            Alteracao alteracao = dbManager.criarPergunta(userId, msg.getEnunciado(), codAcesso, msg.getInicio(), msg.getFim(), msg.getOpcoes());
 
-            if (querySql != null) {
+            if (alteracao != null) {
                 resposta = "SUCESSO: Criada. Código: " + codAcesso;
-                serverAPI.publicarAlteracao(querySql, dbManager.getVersaoBD());
+                serverAPI.publicarAlteracao(alteracao);
                 serverAPI.notificarTodosClientes("Nova pergunta disponivel: " + codAcesso);
             }
+        } finally {
+            serverAPI.getBDLock().unlock();
         }
-        enviarObjeto(resposta);
+        responder(msg, resposta);
     }
 
 
@@ -260,13 +262,13 @@ public class ClientHandler implements Runnable {
 
         if (p == null) {
 
-            enviarObjeto("ERRO: pt.isec.pd.tp.bases.Pergunta com código " + msg.getCodigoAcesso() + " não encontrada.");
+            responder(msg, "ERRO: pt.isec.pd.tp.bases.Pergunta com código " + msg.getCodigoAcesso() + " não encontrada.");
             return;
         }
 
 
         if (estadoLogin == ESTADO_DOCENTE) {
-            enviarObjeto(p);
+            responder(msg, p);
             return;
         }
 
@@ -274,41 +276,46 @@ public class ClientHandler implements Runnable {
         if (estadoLogin == ESTADO_ESTUDANTE) {
             if (dbManager.isPerguntaAtiva(p.getCodigoAcesso())) {
 
-                List<Opcao> opcoesFiltradas = p.getOpcoes().stream()
-                        .map(o -> new Opcao(o.getLetra(), o.getTexto(), false))
-                        .collect(Collectors.toList());
-
-
-                p.setOpcoes(opcoesFiltradas);
-
-                enviarObjeto(p);
+                responder(msg, dbManager.obterPerguntaParaEstudante(p.getCodigoAcesso()));
             } else {
-                enviarObjeto("ERRO: pt.isec.pd.tp.bases.Pergunta fora do período de disponibilidade.");
+                responder(msg, "ERRO: pt.isec.pd.tp.bases.Pergunta fora do período de disponibilidade.");
             }
         }
     }
 
-    private void processarResponderPergunta(MsgResponderPergunta msg) throws IOException {
-        String resposta = "ERRO: Falha (já respondeste ou pergunta invalida?).";
+    // O coletor junta a resposta ao próximo lote; o trabalhador não fica à espera dele
+    private CompletionStage<String> processarResponderPergunta(MsgResponderPergunta msg) {
+        return serverAPI.submeterResposta(userId, msg.getCodigoAcesso(), msg.getLetraOpcao()).handle((estado, erro) -> {
+            if (erro != null) return "ERRO: Falha (já respondeste ou pergunta invalida?).";
+
+            return switch (estado) {
+                case ACEITE -> "SUCESSO: Resposta guardada.";
+                case INATIVA -> "ERRO: pt.isec.pd.tp.bases.Pergunta não está ativa.";
+                case OPCAO_INVALIDA -> "ERRO: Opção inexistente nesta pergunta.";
+                case DUPLICADA -> "ERRO: Já respondeste a esta pergunta.";
+                default -> "ERRO: Falha (já respondeste ou pergunta invalida?).";
+            };
+        });
+    }
 
 
+    private void processarObterPerguntas(MsgObterPerguntas msg) throws IOException {
+        if (!msg.isPaginado()) {
+            responder(msg, dbManager.listarPerguntasComFiltro(userId, msg.getFiltro()));
+            return;
+        }
+        int tamanho = Math.min(msg.getTamanhoPagina(), MAX_TAMANHO_PAGINA);
+        responder(msg, dbManager.listarPerguntasPaginadas(userId, msg.getFiltro(), msg.getCursor(), tamanho));
+    }
 
-        synchronized (serverAPI.getBDLock()) {
 
-            if (!dbManager.isPerguntaAtiva(msg.getCodigoAcesso())) {
-                resposta = "ERRO: pt.isec.pd.tp.bases.Pergunta não está ativa.";
-            } else {
-                String querySql = dbManager.registarResposta(userId, msg.getCodigoAcesso(), msg.getLetraOpcao());
-
-                if (querySql != null) {
-                    resposta = "SUCESSO: Resposta guardada.";
-                    serverAPI.publicarAlteracao(querySql, dbManager.getVersaoBD());
-                } else {
-                    resposta = "ERRO: Já respondeste a esta pergunta.";
-                }
-            }
+    private void processarObterHistorico(MsgObterHistorico msg) throws IOException {
+        if (!msg.isPaginado()) {
+            responder(msg, dbManager.obterHistoricoEstudante(userId));
+            return;
         }
-        enviarObjeto(resposta);
+        int tamanho = Math.min(msg.getTamanhoPagina(), MAX_TAMANHO_PAGINA);
+        responder(msg, dbManager.obterHistoricoPaginado(userId, msg.getCursor(), tamanho));
     }
 
 
@@ -317,21 +324,32 @@ public class ClientHandler implements Runnable {
         Pergunta p = dbManager.obterPerguntaPorCodigo(codigo);
 
         if (p == null) {
-            enviarObjeto("ERRO: pt.isec.pd.tp.bases.Pergunta com código " + codigo + " não encontrada.");
+            responder(msg, "ERRO: pt.isec.pd.tp.bases.Pergunta com código " + codigo + " não encontrada.");
             return;
         }
 
         int donoID = dbManager.obterDocenteIDDaPergunta(codigo);
 
         if (donoID == -1 || donoID != userId) {
-            enviarObjeto("ERRO: Acesso negado. A pergunta não lhe pertence.");
+            responder(msg, "ERRO: Acesso negado. A pergunta não lhe pertence.");
             return;
         }
 
 
         if (!dbManager.isPerguntaExpirada(codigo)) {
 
-            enviarObjeto("ERRO: A exportação/consulta só é permitida para perguntas expiradas.");
+            responder(msg, "ERRO: A exportação/consulta só é permitida para perguntas expiradas.");
+            return;
+        }
+
+
+        if (msg.isEmBlocos()) {
+            int tamanho = Math.min(msg.getTamanhoBloco(), MAX_TAMANHO_BLOCO);
+            boolean ok = dbManager.percorrerRespostasDaPergunta(codigo, tamanho,
+                    bloco -> responder(msg, new MsgBlocoRespostas(bloco, false)));
+
+            responder(msg, ok ? new MsgBlocoRespostas(List.of(), true)
+                           : new MsgBlocoRespostas("ERRO: Falha na base de dados ao obter respostas."));
             return;
         }
 
@@ -339,50 +357,56 @@ public class ClientHandler implements Runnable {
         List<RespostaEstudante> resps = dbManager.obterRespostasDaPergunta(codigo);
 
         if (resps == null) {
-            enviarObjeto("ERRO: Falha na base de dados ao obter respostas.");
+            responder(msg, "ERRO: Falha na base de dados ao obter respostas.");
             return;
         }
 
 
-        enviarObjeto(resps);
+        responder(msg, resps);
     }
 
     private void processarEliminarPergunta(MsgEliminarPergunta msg) throws IOException {
         String resposta = "ERRO: Não foi possível eliminar (verifique se tem respostas ou permissões).";
 
-        synchronized (serverAPI.getBDLock()) {
+        serverAPI.getBDLock().lock();
+        try {
             if (dbManager.podeAlterarPergunta(msg.getCodigoAcesso(), userId)) {
-                String querySql = dbManager.eliminarPergunta(msg.getCodigoAcesso());
+                Alteracao alteracao = dbManager.eliminarPergunta(msg.getCodigoAcesso());
 
-                if (querySql != null) {
+                if (alteracao != null) {
                     resposta = "SUCESSO: pt.isec.pd.tp.bases.Pergunta eliminada.";
-                    serverAPI.publicarAlteracao(querySql, dbManager.getVersaoBD());
+                    serverAPI.publicarAlteracao(alteracao);
                     serverAPI.notificarTodosClientes("pt.isec.pd.tp.bases.Pergunta removida: " + msg.getCodigoAcesso());
                 }
             }
+        } finally {
+            serverAPI.getBDLock().unlock();
         }
-        enviarObjeto(resposta);
+        responder(msg, resposta);
     }
 
     private void processarEditarPergunta(MsgEditarPergunta msg) throws IOException {
         String resposta = "ERRO: Não foi possível editar (verifique se tem respostas ou permissões).";
 
-        synchronized (serverAPI.getBDLock()) {
+        serverAPI.getBDLock().lock();
+        try {
             if (dbManager.podeAlterarPergunta(msg.getCodigoAcesso(), userId)) {
-                String querySql = dbManager.editarPergunta(
+                Alteracao alteracao = dbManager.editarPergunta(
                         msg.getCodigoAcesso(),
                         msg.getNovoEnunciado(),
                         msg.getNovoInicio(),
                         msg.getNovoFim()
                 );
 
-                if (querySql != null) {
+                if (alteracao != null) {
                     resposta = "SUCESSO: pt.isec.pd.tp.bases.Pergunta editada.";
-                    serverAPI.publicarAlteracao(querySql, dbManager.getVersaoBD());
+                    serverAPI.publicarAlteracao(alteracao);
                 }
             }
+        } finally {
+            serverAPI.getBDLock().unlock();
         }
-        enviarObjeto(resposta);
+        responder(msg, resposta);
     }
 
 
@@ -391,17 +415,21 @@ public class ClientHandler implements Runnable {
         int donoId = dbManager.obterDocenteIDDaPergunta(codigo);
 
         if (donoId == -1 || donoId != userId) {
-            enviarObjeto("ERRO: Acesso negado. pt.isec.pd.tp.bases.Pergunta não encontrada ou não lhe pertence.");
+            responder(msg, "ERRO: Acesso negado. pt.isec.pd.tp.bases.Pergunta não encontrada ou não lhe pertence.");
             return;
         }
 
         if (!dbManager.isPerguntaExpirada(codigo)) {
-            enviarObjeto("ERRO: Estatísticas apenas disponíveis para perguntas expiradas.");
+            responder(msg, "ERRO: Estatísticas apenas disponíveis para perguntas expiradas.");
             return;
         }
 
 
-        String stats = dbManager.obterEstatisticas(codigo);
-        enviarObjeto(stats);
+        Estatisticas stats = dbManager.obterEstatisticas(codigo);
+        if (stats == null) {
+            responder(msg, "ERRO: Falha na base de dados ao obter estatísticas.");
+            return;
+        }
+        responder(msg, stats);
     }
 }
\ No newline at end of file
@@ -1,15 +1,16 @@
 package pt.isec.pd.tp.cliente;
 
+import pt.isec.pd.tp.Definicoes;
 import pt.isec.pd.tp.ExportadorCSV;
 import pt.isec.pd.tp.estruturas.HistoricoItem;
 import pt.isec.pd.tp.estruturas.Pergunta;
-import pt.isec.pd.tp.estruturas.RespostaEstudante;
 import pt.isec.pd.tp.mensagens.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
 import java.net.*;
 import java.util.List;
 
@@ -23,7 +24,9 @@ public class Cliente {
     private static String ultimoEmail = null;
     private static String ultimaPassword = null;
     private static ServerInfo ultimoServidor = null;
-    private static final int TEMPO_RETRY_MS = 20000;
+    // Com a deteção de falhas da diretoria em ~1-2 s, esperar mais só atrasa a mudança de principal
+    private static final int TEMPO_RETRY_MS = Math.max(100, Definicoes.inteiro("pd.cliente.retry_ms", 1000));
+    private static final int TAMANHO_BLOCO_RESPOSTAS = 200;
 
     public static void main(String[] args) {
         if (args.length != 2) {
@@ -151,7 +154,7 @@ public class Cliente {
             ServerInfo novoServidor = descobrirServidor(ipDir, portoDir);
 
             if (novoServidor == null) {
-                vista.mostrarErro("Sem Servidores disponíveis para recuperação. A tentar em 20s.");
+                vista.mostrarErro("Sem Servidores disponíveis para recuperação. A tentar em " + TEMPO_RETRY_MS + " ms.");
                 Thread.sleep(TEMPO_RETRY_MS);
                 return;
             }
@@ -166,7 +169,7 @@ public class Cliente {
 
             } else {
 
-                vista.mostrarMensagem("Mesmo servidor offline. Tentando novamente em " + (TEMPO_RETRY_MS / 1000) + "s.");
+                vista.mostrarMensagem("Mesmo servidor offline. Tentando novamente em " + TEMPO_RETRY_MS + " ms.");
                 Thread.sleep(TEMPO_RETRY_MS);
             }
         } catch (Exception e) {
@@ -224,12 +227,11 @@ public class Cliente {
             else if (op == 5) {
                 String codigo = vista.lerTexto("Código da pergunta: ");
                 coms.enviar(new MsgObterEstatisticas(codigo));
-                vista.mostrarMensagem((String) coms.receber());
+                vista.mostrarMensagem(String.valueOf(coms.receber()));
             }
             else if (op == 6) {
                 String codigo = vista.lerTexto("Código da pergunta a exportar: ");
                 Pergunta pCompleta = null;
-                List<RespostaEstudante> respostas = null;
 
 
                 coms.enviar(new MsgObterPergunta(codigo));
@@ -243,24 +245,17 @@ public class Cliente {
                 }
 
 
-                coms.enviar(new MsgObterRespostas(codigo));
-                Object respR = coms.receber();
-
-                if (respR instanceof List) {
-                    respostas = (List<RespostaEstudante>) respR;
-                } else {
-
-                    vista.mostrarErro("Falha ao obter respostas: " + respR);
-                    return;
+                String nomeFicheiro = "resultados_" + codigo + ".csv";
+                String erro;
+                try (PrintWriter pw = ExportadorCSV.iniciar(nomeFicheiro, pCompleta)) {
+                    erro = coms.receberBlocos(new MsgObterRespostas(codigo, TAMANHO_BLOCO_RESPOSTAS),
+                            bloco -> ExportadorCSV.escreverRespostas(pw, bloco));
                 }
 
-
-                if (pCompleta != null && respostas != null) {
-                    String nomeFicheiro = "resultados_" + codigo + ".csv";
-                    ExportadorCSV.exportar(nomeFicheiro, pCompleta, respostas);
+                if (erro == null) {
                     vista.mostrarMensagem("Ficheiro CSV gerado: " + nomeFicheiro);
                 } else {
-                    vista.mostrarErro("Dados de exportação incompletos.");
+                    vista.mostrarErro("Falha ao obter respostas: " + erro);
                 }
             }
             else if (op == 7) {
@@ -1,18 +1,34 @@
 package pt.isec.pd.tp.cliente;
 
+import pt.isec.pd.tp.estruturas.RespostaEstudante;
+import pt.isec.pd.tp.mensagens.CodecBinario;
+import pt.isec.pd.tp.mensagens.CodecTramas;
+import pt.isec.pd.tp.mensagens.Mensagem;
+import pt.isec.pd.tp.mensagens.MsgBlocoRespostas;
+import pt.isec.pd.tp.mensagens.MsgObterRespostas;
+import pt.isec.pd.tp.mensagens.PedidosEmCurso;
+import pt.isec.pd.tp.mensagens.TramaObjetos;
+
 import java.io.*;
 import java.net.Socket;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
 
 public class ClienteComunicacao {
     private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private OutputStream out;
+    private DataInputStream in;
+    private CodecTramas codec;
     private volatile boolean conectado = false;
 
     private final ClienteVista vista;
-    private final BlockingQueue<Object> filaRespostas = new LinkedBlockingQueue<>();
+    private final PedidosEmCurso pedidos = new PedidosEmCurso();
+    // Respostas dos pedidos feitos com enviar(), pela ordem em que receber() as devolve
+    private final BlockingQueue<CompletableFuture<Object>> filaRespostas = new LinkedBlockingQueue<>();
 
     public ClienteComunicacao(ClienteVista vista) {
         this.vista = vista;
@@ -21,12 +37,20 @@ public class ClienteComunicacao {
     public boolean conectar(String ip, int porto) {
         try {
             socket = new Socket(ip, porto);
+            codec = TramaObjetos.SERIALIZACAO;
+            if (CodecBinario.PREFERIDO) {
+                try {
+                    codec = CodecBinario.negociar(socket);
+                } catch (IOException e) {
+                    // Servidor sem o formato binário: fecha a ligação ao receber a saudação
+                    socket.close();
+                    socket = new Socket(ip, porto);
+                }
+            }
 
 
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
-
-            in = new ObjectInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
 
             conectado = true;
             new Thread(this::listenerLoop).start();
@@ -40,26 +64,81 @@ public class ClienteComunicacao {
     private void listenerLoop() {
         try {
             while (conectado) {
-                Object obj = in.readObject();
+                Object obj = codec.ler(in);
 
                 if (obj instanceof String && ((String) obj).startsWith("NOTIFICACAO:")) {
                     vista.mostrarNotificacao(((String) obj).substring(12));
-                } else {
-                    filaRespostas.put(obj);
+                } else if (!pedidos.entregar(obj)) {
+                    vista.mostrarMensagem(String.valueOf(obj));
                 }
             }
         } catch (Exception e) {
             conectado = false;
+            pedidos.falhar(new IOException("Ligação ao servidor perdida.", e));
         }
     }
 
-    public void enviar(Object obj) throws IOException {
-        out.writeObject(obj);
-        out.flush();
+    /** Envia o pedido e devolve logo a resposta por vir; podem estar vários pedidos em curso. */
+    public CompletableFuture<Object> pedir(Mensagem pedido) {
+        return pedir(pedido, null);
     }
 
+    private synchronized CompletableFuture<Object> pedir(Mensagem pedido, Consumer<MsgBlocoRespostas> blocos) {
+        CompletableFuture<Object> resposta = pedidos.registar(pedido, blocos);
+        try {
+            codec.escrever(out, pedido);
+        } catch (IOException e) {
+            pedidos.cancelar(pedido, e);
+        }
+        return resposta;
+    }
+
+    public void enviar(Mensagem obj) throws IOException {
+        CompletableFuture<Object> resposta = pedir(obj);
+        if (resposta.isCompletedExceptionally()) {
+            Throwable causa = resposta.exceptionNow();
+            throw causa instanceof IOException ? (IOException) causa : new IOException(causa);
+        }
+        filaRespostas.add(resposta);
+    }
+
+    /** Resposta ao pedido mais antigo feito com enviar() e ainda não recebida. */
     public Object receber() throws InterruptedException {
-        return filaRespostas.take();
+        try {
+            return esperar(filaRespostas.take());
+        } catch (IOException e) {
+            return "ERRO: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Faz um pedido MsgObterRespostas em modo de blocos e entrega cada bloco ao consumidor até ao
+     * terminador. Devolve null em caso de sucesso ou a mensagem de erro do servidor.
+     */
+    public String receberBlocos(MsgObterRespostas pedido, Consumer<List<RespostaEstudante>> consumidor) throws InterruptedException {
+        Object obj;
+        try {
+            obj = esperar(pedir(pedido, bloco -> {
+                if (!bloco.getRespostas().isEmpty()) consumidor.accept(bloco.getRespostas());
+            }));
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+        if (!(obj instanceof MsgBlocoRespostas)) return String.valueOf(obj);
+
+        MsgBlocoRespostas bloco = (MsgBlocoRespostas) obj;
+        if (bloco.temErro()) return bloco.getErro();
+        if (!bloco.getRespostas().isEmpty()) consumidor.accept(bloco.getRespostas());
+        return null;
+    }
+
+    private static Object esperar(CompletableFuture<Object> resposta) throws IOException, InterruptedException {
+        try {
+            return resposta.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
     }
 
     public void fechar() {
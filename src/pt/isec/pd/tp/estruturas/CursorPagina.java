@@ -0,0 +1,22 @@
+package pt.isec.pd.tp.estruturas;
+
+import java.io.Serializable;
+
+/**
+ * Posição da última linha entregue numa listagem paginada: o instante (epoch em segundos)
+ * da coluna de ordenação e o id, que desempata linhas com o mesmo instante.
+ */
+public class CursorPagina implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long instante;
+    private final int id;
+
+    public CursorPagina(long instante, int id) {
+        this.instante = instante;
+        this.id = id;
+    }
+
+    public long getInstante() { return instante; }
+    public int getId() { return id; }
+}
@@ -0,0 +1,42 @@
+package pt.isec.pd.tp.estruturas;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Estatisticas implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String codigoAcesso;
+    private final int total;
+    private final int certas;
+    private final LinkedHashMap<String, Integer> respostasPorOpcao;
+
+    public Estatisticas(String codigoAcesso, int total, int certas, LinkedHashMap<String, Integer> respostasPorOpcao) {
+        this.codigoAcesso = codigoAcesso;
+        this.total = total;
+        this.certas = certas;
+        this.respostasPorOpcao = respostasPorOpcao;
+    }
+
+    public String getCodigoAcesso() { return codigoAcesso; }
+    public int getTotal() { return total; }
+    public int getCertas() { return certas; }
+    public Map<String, Integer> getRespostasPorOpcao() { return respostasPorOpcao; }
+
+    public double getTaxaSucesso() {
+        return total == 0 ? 0 : ((double) certas / total) * 100;
+    }
+
+    @Override
+    public String toString() {
+        if (total == 0) return "Sem respostas submetidas ainda.";
+
+        StringBuilder sb = new StringBuilder(String.format("Total Respostas: %d | Certas: %d | Taxa de Sucesso: %.1f%%",
+                total, certas, getTaxaSucesso()));
+        for (Map.Entry<String, Integer> e : respostasPorOpcao.entrySet()) {
+            sb.append(String.format("%n  %s) %d (%.1f%%)", e.getKey(), e.getValue(), ((double) e.getValue() / total) * 100));
+        }
+        return sb.toString();
+    }
+}
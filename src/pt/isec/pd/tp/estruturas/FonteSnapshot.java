@@ -0,0 +1,26 @@
+package pt.isec.pd.tp.estruturas;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+
+/** Backup que pode servir a cópia integral da BD a um servidor que se junta ao sistema. */
+public class FonteSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final InetAddress ip;
+    private final int portoBDT_TCP;
+    private final long versaoBD;
+
+    public FonteSnapshot(InetAddress ip, int portoBDT_TCP, long versaoBD) {
+        this.ip = ip;
+        this.portoBDT_TCP = portoBDT_TCP;
+        this.versaoBD = versaoBD;
+    }
+
+    public InetAddress getIp() { return ip; }
+    public int getPortoBDT_TCP() { return portoBDT_TCP; }
+    public long getVersaoBD() { return versaoBD; }
+
+    @Override
+    public String toString() { return ip.getHostAddress() + ":" + portoBDT_TCP + " (versão " + versaoBD + ")"; }
+}
@@ -19,6 +19,12 @@ public class HistoricoItem implements Serializable {
         this.acertou = acertou;
     }
 
+    public String getEnunciado() { return enunciado; }
+    public String getCodigo() { return codigo; }
+    public String getDataResposta() { return dataResposta; }
+    public String getOpcaoEscolhida() { return opcaoEscolhida; }
+    public boolean isAcertou() { return acertou; }
+
     @Override
     public String toString() {
         String estado = acertou ? "[CERTO]" : "[ERRADO]";
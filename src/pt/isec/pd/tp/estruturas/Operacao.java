@@ -0,0 +1,26 @@
+package pt.isec.pd.tp.estruturas;
+
+import java.util.Arrays;
+
+/**
+ * Uma instrução replicada: o tipo e os valores dos seus parâmetros, pela ordem dos '?'.
+ * Os parâmetros são só Integer, Long, String ou Boolean.
+ */
+public class Operacao {
+
+    private final TipoOperacao tipo;
+    private final Object[] parametros;
+
+    public Operacao(TipoOperacao tipo, Object... parametros) {
+        this.tipo = tipo;
+        this.parametros = parametros;
+    }
+
+    public TipoOperacao getTipo() { return tipo; }
+    public Object[] getParametros() { return parametros; }
+
+    @Override
+    public String toString() {
+        return tipo + Arrays.toString(parametros);
+    }
+}
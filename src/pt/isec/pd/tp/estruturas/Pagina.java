@@ -0,0 +1,24 @@
+package pt.isec.pd.tp.estruturas;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Pagina<T extends Serializable> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<T> itens;
+    private final CursorPagina seguinte;
+
+    public Pagina(List<T> itens, CursorPagina seguinte) {
+        this.itens = new ArrayList<>(itens);
+        this.seguinte = seguinte;
+    }
+
+    public List<T> getItens() { return itens; }
+
+    /** Cursor a enviar no pedido da página seguinte, ou null se esta for a última. */
+    public CursorPagina getSeguinte() { return seguinte; }
+
+    public boolean temMais() { return seguinte != null; }
+}
@@ -33,6 +33,7 @@ public class Pergunta implements Serializable {
     }
 
 
+    public int getId() { return id; }
     public String getEnunciado() { return enunciado; }
     public List<Opcao> getOpcoes() { return opcoes; }
     public String getCodigoAcesso() { return codigoAcesso; }
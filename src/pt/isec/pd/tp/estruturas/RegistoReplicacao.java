@@ -0,0 +1,19 @@
+package pt.isec.pd.tp.estruturas;
+
+import java.util.List;
+
+/** Uma escrita do principal, identificada pela versão da BD que produziu. */
+public class RegistoReplicacao {
+
+    private final long versao;
+    private final List<Operacao> operacoes;
+
+    public RegistoReplicacao(long versao, List<Operacao> operacoes) {
+        this.versao = versao;
+        this.operacoes = operacoes;
+    }
+
+    public long getVersao() { return versao; }
+    public List<Operacao> getOperacoes() { return operacoes; }
+
+}
@@ -0,0 +1,41 @@
+package pt.isec.pd.tp.estruturas;
+
+/**
+ * Escritas que o principal replica. A instrução SQL de cada tipo é fixa e fica no
+ * DatabaseManager de quem aplica; pela rede só passam o código e os parâmetros.
+ * Os códigos fazem parte do formato dos datagramas: não se reutilizam nem se alteram.
+ */
+public enum TipoOperacao {
+    INSERIR_DOCENTE(1, "Docente"),
+    EDITAR_DOCENTE(2, "Docente"),
+    INSERIR_ESTUDANTE(3, "Estudante"),
+    EDITAR_ESTUDANTE(4, "Estudante"),
+    INSERIR_PERGUNTA(5, "Pergunta"),
+    EDITAR_PERGUNTA(6, "Pergunta"),
+    ELIMINAR_PERGUNTA(7, "Pergunta"),
+    INSERIR_OPCAO(8, "Opcao"),
+    INSERIR_ESTATISTICA(9, "EstatisticaOpcao"),
+    INSERIR_RESPOSTA(10, "Resposta"),
+    INCREMENTAR_ESTATISTICA(11, "EstatisticaOpcao");
+
+    private static final TipoOperacao[] POR_CODIGO = new TipoOperacao[16];
+    static {
+        for (TipoOperacao t : values()) POR_CODIGO[t.codigo] = t;
+    }
+
+    private final int codigo;
+    private final String tabela;
+
+    TipoOperacao(int codigo, String tabela) {
+        this.codigo = codigo;
+        this.tabela = tabela;
+    }
+
+    public int getCodigo() { return codigo; }
+    public String getTabela() { return tabela; }
+
+    /** Devolve null para códigos desconhecidos. */
+    public static TipoOperacao deCodigo(int codigo) {
+        return codigo >= 0 && codigo < POR_CODIGO.length ? POR_CODIGO[codigo] : null;
+    }
+}
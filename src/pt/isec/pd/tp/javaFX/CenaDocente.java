@@ -9,17 +9,22 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import pt.isec.pd.tp.Execucao;
 import pt.isec.pd.tp.ExportadorCSV;
 import pt.isec.pd.tp.estruturas.Docente;
 import pt.isec.pd.tp.estruturas.Opcao;
 import pt.isec.pd.tp.estruturas.Pergunta;
-import pt.isec.pd.tp.estruturas.RespostaEstudante;
 import pt.isec.pd.tp.mensagens.*;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 public class CenaDocente {
+    private static final int TAMANHO_BLOCO_RESPOSTAS = 200;
+    private static final int TAMANHO_PAGINA = 50;
+
     private final ClienteMain app;
     private final RedeCliente rede;
 
@@ -70,7 +75,7 @@ public class CenaDocente {
             String filtro = escolherFiltro();
             if (filtro != null) {
 
-                enviarPedidoLista(filtro, lista -> mostrarJanelaResultados(lista, filtro));
+                mostrarJanelaResultados(filtro);
             }
         });
 
@@ -141,7 +146,7 @@ public class CenaDocente {
                 }
             }
 
-            new Thread(() -> {
+            Execucao.emSegundoPlano(() -> {
                 try {
 
                     Object respObj = rede.enviarEReceber(new MsgCriarPergunta(-1, txtEnunc.getText(), txtInicio.getText(), txtFim.getText(), ops));
@@ -151,7 +156,7 @@ public class CenaDocente {
                         if (resp.contains("SUCESSO")) dialog.close();
                     });
                 } catch (Exception ex) { ex.printStackTrace(); }
-            }).start();
+            });
         });
 
         layout.getChildren().addAll(new Label("Enunciado"), txtEnunc, new Label("Início"), txtInicio, new Label("Fim"), txtFim, new Separator(), new Label("Opções:"), opcoesBox, btnAddOp, new Separator(), btnEnviar);
@@ -175,24 +180,13 @@ public class CenaDocente {
         return dialog.showAndWait().orElse(null);
     }
 
-    private void enviarPedidoLista(String filtro, CallbackLista callback) {
-        new Thread(() -> {
-            try {
-
-                Object resp = rede.enviarEReceber(new MsgObterPerguntas(filtro));
-
-                if (resp instanceof List) {
-                    List<Pergunta> lista = (List<Pergunta>) resp;
-                    Platform.runLater(() -> callback.executar(lista));
-                } else {
-                    String erro = (String) resp;
-                    Platform.runLater(() -> mostrarAlerta("Erro", "Resposta inválida: " + erro));
-                }
-            } catch (Exception ex) { ex.printStackTrace(); }
-        }).start();
+    private ListaPaginada<Pergunta> listaDePerguntas(ListView<String> listView, String filtro, Function<Pergunta, String> formatar) {
+        return new ListaPaginada<>(listView,
+                cursor -> rede.pedir(new MsgObterPerguntas(filtro, TAMANHO_PAGINA, cursor)),
+                formatar, "Nenhuma pergunta encontrada.");
     }
 
-    private void mostrarJanelaResultados(List<Pergunta> lista, String filtro) {
+    private void mostrarJanelaResultados(String filtro) {
         Stage stage = new Stage();
         stage.setTitle("Resultados: " + filtro);
 
@@ -200,13 +194,8 @@ public class CenaDocente {
         layout.setPadding(new Insets(15));
 
         ListView<String> listView = new ListView<>();
-        if (lista.isEmpty()) listView.getItems().add("Nenhuma pergunta encontrada.");
-        else {
-            for (Pergunta p : lista) {
-                listView.getItems().add(String.format("[%s] %s\n    %s -> %s",
-                        p.getCodigoAcesso(), p.getEnunciado(), p.getInicio(), p.getFim()));
-            }
-        }
+        listaDePerguntas(listView, filtro, p -> String.format("[%s] %s\n    %s -> %s",
+                p.getCodigoAcesso(), p.getEnunciado(), p.getInicio(), p.getFim())).recarregar();
 
         layout.getChildren().addAll(new Label("Filtro: " + filtro), listView);
         stage.setScene(new Scene(layout, 500, 400));
@@ -215,23 +204,13 @@ public class CenaDocente {
 
 
     private void abrirSeletorDeEstatisticas() {
-        enviarPedidoLista("EXPIRADAS", lista -> {
-            if (lista.isEmpty()) {
-                mostrarAlerta("Info", "Não há perguntas expiradas.");
-            } else {
-                mostrarJanelaEscolhaStats(lista);
-            }
-        });
-    }
-
-    private void mostrarJanelaEscolhaStats(List<Pergunta> lista) {
         Stage stage = new Stage();
         stage.setTitle("Estatísticas");
         VBox layout = new VBox(10);
         layout.setPadding(new Insets(15));
 
         ListView<String> listView = new ListView<>();
-        for (Pergunta p : lista) listView.getItems().add("[" + p.getCodigoAcesso() + "] " + p.getEnunciado());
+        listaDePerguntas(listView, "EXPIRADAS", p -> "[" + p.getCodigoAcesso() + "] " + p.getEnunciado()).recarregar();
 
         Button btnVer = new Button("Ver Relatório");
         btnVer.setOnAction(e -> {
@@ -249,14 +228,11 @@ public class CenaDocente {
     }
 
     private void pedirEstatisticasFinais(String codigo) {
-        new Thread(() -> {
-            try {
-                // USA O MÉTODO SEGURO
-                Object resp = rede.enviarEReceber(new MsgObterEstatisticas(codigo));
-                String stats = (String) resp;
-                Platform.runLater(() -> mostrarAlerta("Relatório: " + codigo, stats));
-            } catch (Exception ex) { ex.printStackTrace(); }
-        }).start();
+        rede.pedir(new MsgObterEstatisticas(codigo)).whenComplete((resp, ex) -> {
+            if (ex != null) { ex.printStackTrace(); return; }
+            String stats = String.valueOf(resp);
+            Platform.runLater(() -> mostrarAlerta("Relatório: " + codigo, stats));
+        });
     }
 
 
@@ -275,7 +251,7 @@ public class CenaDocente {
         Button btnSalvar = new Button("Salvar Alterações");
 
         btnSalvar.setOnAction(e -> {
-            new Thread(() -> {
+            Execucao.emSegundoPlano(() -> {
                 try {
                     Object respObj = rede.enviarEReceber(new MsgEditarPergunta(codigo, txtEnunc.getText(), txtInicio.getText(), txtFim.getText()));
                     String resp = (String) respObj;
@@ -284,7 +260,7 @@ public class CenaDocente {
                         if (resp.contains("SUCESSO")) dialog.close();
                     });
                 } catch (Exception ex) { ex.printStackTrace(); }
-            }).start();
+            });
         });
 
         layout.getChildren().addAll(new Label("Novos Dados para " + codigo), txtEnunc, txtInicio, txtFim, btnSalvar);
@@ -293,39 +269,39 @@ public class CenaDocente {
     }
 
     private void acaoEliminar(String codigo) {
-        new Thread(() -> {
+        Execucao.emSegundoPlano(() -> {
             try {
                 Object respObj = rede.enviarEReceber(new MsgEliminarPergunta(codigo));
                 String resp = (String) respObj;
                 Platform.runLater(() -> mostrarAlerta("Eliminar", resp));
             } catch (Exception ex) { ex.printStackTrace(); }
-        }).start();
+        });
     }
 
     private void acaoExportarCSV(String codigo) {
-        new Thread(() -> {
+        Execucao.emSegundoPlano(() -> {
             try {
 
                 Object respP = rede.enviarEReceber(new MsgObterPergunta(codigo));
 
                 if (respP instanceof Pergunta) {
                     Pergunta p = (Pergunta) respP;
+                    String nomeFicheiro = "resultados_" + codigo + ".csv";
 
 
-                    Object respR = rede.enviarEReceber(new MsgObterRespostas(codigo));
-                    List<RespostaEstudante> resps = (List<RespostaEstudante>) respR;
-
+                    try (PrintWriter pw = ExportadorCSV.iniciar(nomeFicheiro, p)) {
+                        rede.receberRespostasEmBlocos(codigo, TAMANHO_BLOCO_RESPOSTAS, bloco -> ExportadorCSV.escreverRespostas(pw, bloco));
+                    } catch (Exception ex) {
+                        Platform.runLater(() -> mostrarAlerta("Erro", "Falha ao obter respostas: " + ex.getMessage()));
+                        return;
+                    }
 
-                    Platform.runLater(() -> {
-                        String nomeFicheiro = "resultados_" + codigo + ".csv";
-                        ExportadorCSV.exportar(nomeFicheiro, p, resps);
-                        mostrarAlerta("Exportar CSV", "Ficheiro criado com sucesso:\n" + nomeFicheiro);
-                    });
+                    Platform.runLater(() -> mostrarAlerta("Exportar CSV", "Ficheiro criado com sucesso:\n" + nomeFicheiro));
                 } else {
                     Platform.runLater(() -> mostrarAlerta("Erro", "Pergunta não encontrada ou acesso negado."));
                 }
             } catch (Exception ex) { ex.printStackTrace(); }
-        }).start();
+        });
     }
 
 
@@ -346,10 +322,6 @@ public class CenaDocente {
         alert.showAndWait();
     }
 
-    interface CallbackLista {
-        void executar(List<Pergunta> lista);
-    }
-
     private void abrirJanelaEditarPerfil() {
         Stage dialog = new Stage();
         dialog.initModality(Modality.APPLICATION_MODAL);
@@ -384,7 +356,7 @@ public class CenaDocente {
             Docente d = new Docente(novoNome, "dummy@email.com", novaPass);
 
 
-            new Thread(() -> {
+            Execucao.emSegundoPlano(() -> {
                 try {
                     Object respObj = rede.enviarEReceber(new MsgEditarPerfil(d));
                     String resp = (String) respObj;
@@ -402,7 +374,7 @@ public class CenaDocente {
                     ex.printStackTrace();
                     Platform.runLater(() -> lblStatus.setText("Erro de comunicação: " + ex.getMessage()));
                 }
-            }).start();
+            });
         });
 
         layout.getChildren().addAll(
@@ -12,15 +12,17 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import javafx.stage.Modality;
+import pt.isec.pd.tp.Execucao;
 import pt.isec.pd.tp.estruturas.Estudante;
 import pt.isec.pd.tp.estruturas.HistoricoItem;
 import pt.isec.pd.tp.estruturas.Opcao;
 import pt.isec.pd.tp.estruturas.Pergunta;
 import pt.isec.pd.tp.mensagens.*;
 
-import java.util.List;
 
 public class CenaEstudante {
+    private static final int TAMANHO_PAGINA = 50;
+
     private final ClienteMain app;
     private final RedeCliente rede;
     private BorderPane layoutPrincipal;
@@ -63,7 +65,7 @@ public class CenaEstudante {
 
         btnSair.setOnAction(e -> {
 
-            new Thread(() -> { try { rede.enviar(new MsgLogout()); } catch(Exception ex){} }).start();
+            Execucao.emSegundoPlano(() -> { try { rede.enviar(new MsgLogout()); } catch(Exception ex){} });
             app.mostrarLogin();
         });
 
@@ -124,7 +126,7 @@ public class CenaEstudante {
                 return;
             }
 
-            new Thread(() -> {
+            Execucao.emSegundoPlano(() -> {
                 try {
 
                     Object resp = rede.enviarEReceber(new MsgObterPergunta(codigo));
@@ -154,7 +156,7 @@ public class CenaEstudante {
                 } catch (Exception ex) {
                     ex.printStackTrace();
                 }
-            }).start();
+            });
         });
 
 
@@ -166,7 +168,7 @@ public class CenaEstudante {
             String letraEscolhida = (String) group.getSelectedToggle().getUserData();
             String codigo = txtCodigo.getText().trim();
 
-            new Thread(() -> {
+            Execucao.emSegundoPlano(() -> {
                 try {
                     Object respObj = rede.enviarEReceber(new MsgResponderPergunta(-1, codigo, letraEscolhida));
                     String resposta = (String) respObj;
@@ -179,7 +181,7 @@ public class CenaEstudante {
                         }
                     });
                 } catch (Exception ex) { ex.printStackTrace(); }
-            }).start();
+            });
         });
 
         searchBox.getChildren().addAll(lblCod, txtCodigo, btnBuscar);
@@ -200,38 +202,16 @@ public class CenaEstudante {
 
         ListView<String> listaView = new ListView<>();
         listaView.setStyle("-fx-font-size: 14px;");
-        listaView.setPlaceholder(new Label("A carregar dados..."));
 
         Button btnAtualizar = new Button("Atualizar Lista");
 
+        ListaPaginada<HistoricoItem> historico = new ListaPaginada<>(listaView,
+                cursor -> rede.pedir(new MsgObterHistorico(TAMANHO_PAGINA, cursor)),
+                HistoricoItem::toString, "Sem histórico de perguntas expiradas.");
 
-        Runnable carregarDados = () -> {
-            new Thread(() -> {
-                try {
-                    Object resp = rede.enviarEReceber(new MsgObterHistorico());
-
-                    Platform.runLater(() -> {
-                        if (resp instanceof List) {
-                            List<HistoricoItem> lista = (List<HistoricoItem>) resp;
-                            listaView.getItems().clear();
-                            if (lista.isEmpty()) {
-                                listaView.setPlaceholder(new Label("Sem histórico de perguntas expiradas."));
-                            } else {
-                                for (HistoricoItem item : lista) {
-
-                                    listaView.getItems().add(item.toString());
-                                }
-                            }
-                        }
-                    });
-                } catch (Exception ex) { ex.printStackTrace(); }
-            }).start();
-        };
-
-        btnAtualizar.setOnAction(e -> carregarDados.run());
-
+        btnAtualizar.setOnAction(e -> historico.recarregar());
 
-        carregarDados.run();
+        historico.recarregar();
 
         container.getChildren().addAll(lblTitle, btnAtualizar, listaView);
         layoutPrincipal.setCenter(container);
@@ -289,7 +269,7 @@ public class CenaEstudante {
             Estudante est = new Estudante(novoNum, novoNome, "dummy@email.com", novaPass);
 
 
-            new Thread(() -> {
+            Execucao.emSegundoPlano(() -> {
                 try {
                     Object respObj = rede.enviarEReceber(new MsgEditarPerfil(est));
                     String resp = (String) respObj;
@@ -307,7 +287,7 @@ public class CenaEstudante {
                     ex.printStackTrace();
                     Platform.runLater(() -> lblStatus.setText("Erro de comunicação: " + ex.getMessage()));
                 }
-            }).start();
+            });
         });
 
         layout.getChildren().addAll(
@@ -7,8 +7,10 @@ import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import pt.isec.pd.tp.Execucao;
 import pt.isec.pd.tp.estruturas.Docente;
 import pt.isec.pd.tp.estruturas.Estudante;
+import pt.isec.pd.tp.mensagens.Mensagem;
 import pt.isec.pd.tp.mensagens.MsgLogin;
 import pt.isec.pd.tp.mensagens.MsgRegisto;
 
@@ -53,7 +55,7 @@ public class CenaLogin {
 
         btnConectar.setOnAction(e -> {
             lblStatus.setText("A procurar...");
-            new Thread(() -> {
+            Execucao.emSegundoPlano(() -> {
                 try {
                     rede.descobrirServidor("127.0.0.1", 9000);
                     rede.conectarTCP();
@@ -64,7 +66,7 @@ public class CenaLogin {
                 } catch (Exception ex) {
                     Platform.runLater(() -> lblStatus.setText("Erro: " + ex.getMessage()));
                 }
-            }).start();
+            });
         });
 
 
@@ -103,12 +105,9 @@ public class CenaLogin {
     }
 
     private void fazerLogin(String email, String pass) {
-        new Thread(() -> {
+        Execucao.emSegundoPlano(() -> {
             try {
                 System.out.println("[DEBUG GUI] A enviar login para " + email + "...");
-                rede.enviar(new MsgLogin(email, pass));
-
-
                 Object resposta = rede.enviarEReceber(new MsgLogin(email, pass));
                 String texto = (String) resposta;
 
@@ -140,7 +139,7 @@ public class CenaLogin {
                     lblStatus.setTextFill(Color.RED);
                 });
             }
-        }).start();
+        });
     }
 
     private void fazerRegisto(String tipo, String nome, String email, String pass, String extra) {
@@ -150,10 +149,10 @@ public class CenaLogin {
             return;
         }
 
-        new Thread(() -> {
+        Execucao.emSegundoPlano(() -> {
             try {
 
-                Object msg;
+                Mensagem msg;
                 if (tipo == null || tipo.equals("Estudante")) {
                     msg = new MsgRegisto(new Estudante(extra, nome, email, pass));
                 } else {
@@ -162,10 +161,7 @@ public class CenaLogin {
 
 
                 System.out.println("[GUI] A enviar registo de " + tipo + "...");
-                rede.enviar(msg);
-
-
-                Object resposta = rede.receber();
+                Object resposta = rede.enviarEReceber(msg);
                 String textoResp = (String) resposta;
 
 
@@ -177,7 +173,7 @@ public class CenaLogin {
                 ex.printStackTrace();
                 Platform.runLater(() -> mostrarAlerta("Erro Crítico", "Falha no registo:\n" + ex.getMessage() + "\n\n(Verifica se clicaste em 'Conectar' primeiro!)"));
             }
-        }).start();
+        });
     }
 
 
@@ -0,0 +1,92 @@
+package pt.isec.pd.tp.javaFX;
+
+import javafx.application.Platform;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import pt.isec.pd.tp.estruturas.CursorPagina;
+import pt.isec.pd.tp.estruturas.Pagina;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Liga uma ListView a uma listagem paginada no servidor: a página seguinte só é pedida
+ * quando a última linha carregada fica visível. Todo o estado é usado na thread do JavaFX;
+ * os pedidos são assíncronos, por isso várias listas podem carregar ao mesmo tempo.
+ */
+class ListaPaginada<T extends Serializable> {
+
+    interface Pedido {
+        CompletableFuture<Object> pedir(CursorPagina cursor);
+    }
+
+    private final ListView<String> vista;
+    private final Pedido pedido;
+    private final Function<T, String> formatar;
+    private final String textoVazio;
+
+    private CursorPagina cursor;
+    private boolean fim;
+    private boolean aCarregar;
+    // Descarta respostas de pedidos feitos antes de um recarregar()
+    private int geracao;
+
+    ListaPaginada(ListView<String> vista, Pedido pedido, Function<T, String> formatar, String textoVazio) {
+        this.vista = vista;
+        this.pedido = pedido;
+        this.formatar = formatar;
+        this.textoVazio = textoVazio;
+
+        vista.setCellFactory(lv -> new ListCell<>() {
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item);
+                if (!empty && getIndex() == vista.getItems().size() - 1) carregarSeguinte();
+            }
+        });
+    }
+
+    void recarregar() {
+        geracao++;
+        cursor = null;
+        fim = false;
+        aCarregar = false;
+        vista.getItems().clear();
+        vista.setPlaceholder(new Label("A carregar dados..."));
+        carregarSeguinte();
+    }
+
+    private void carregarSeguinte() {
+        if (fim || aCarregar) return;
+        aCarregar = true;
+
+        int g = geracao;
+        CursorPagina c = cursor;
+        pedido.pedir(c).whenComplete((resp, erro) -> {
+            Object r = erro != null ? "ERRO: " + erro.getMessage() : resp;
+            Platform.runLater(() -> aplicar(g, r));
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void aplicar(int g, Object resp) {
+        if (g != geracao) return;
+        aCarregar = false;
+
+        if (!(resp instanceof Pagina)) {
+            fim = true;
+            if (vista.getItems().isEmpty()) vista.setPlaceholder(new Label(String.valueOf(resp)));
+            return;
+        }
+
+        Pagina<T> pagina = (Pagina<T>) resp;
+        for (T item : pagina.getItens()) vista.getItems().add(formatar.apply(item));
+        cursor = pagina.getSeguinte();
+        fim = !pagina.temMais();
+
+        if (vista.getItems().isEmpty()) vista.setPlaceholder(new Label(textoVazio));
+    }
+}
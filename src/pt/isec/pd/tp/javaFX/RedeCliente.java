@@ -2,21 +2,38 @@ package pt.isec.pd.tp.javaFX;
 
 import javafx.application.Platform;
 import javafx.scene.control.Alert;
+import pt.isec.pd.tp.estruturas.RespostaEstudante;
+import pt.isec.pd.tp.mensagens.CodecBinario;
+import pt.isec.pd.tp.mensagens.CodecTramas;
+import pt.isec.pd.tp.mensagens.Mensagem;
+import pt.isec.pd.tp.mensagens.MsgBlocoRespostas;
+import pt.isec.pd.tp.mensagens.MsgObterRespostas;
 import pt.isec.pd.tp.mensagens.MsgPedidoServidor;
 import pt.isec.pd.tp.mensagens.MsgRespostaDiretoria;
+import pt.isec.pd.tp.mensagens.PedidosEmCurso;
+import pt.isec.pd.tp.mensagens.TramaObjetos;
 
 import java.io.*;
 import java.net.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class RedeCliente {
     private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private OutputStream out;
+    private DataInputStream in;
+    private CodecTramas codec;
+    private PedidosEmCurso pedidos;
     private String serverIP;
     private int serverPort;
 
 
-    private final Object lock = new Object();
+    // Só para a escrita dos pedidos (as respostas lê-as a thread rede-leitor).
+    // ReentrantLock e não synchronized: as ações correm em threads virtuais com -Dpd.execucao=virtual
+    private final ReentrantLock lock = new ReentrantLock();
 
     public RedeCliente() {}
 
@@ -49,25 +66,85 @@ public class RedeCliente {
     public void conectarTCP() throws IOException {
         if (serverIP == null) throw new IOException("Corre descobrirServidor() primeiro.");
         this.socket = new Socket(serverIP, serverPort);
-        this.out = new ObjectOutputStream(socket.getOutputStream());
-        this.out.flush();
-        this.in = new ObjectInputStream(socket.getInputStream());
+        this.codec = TramaObjetos.SERIALIZACAO;
+        if (CodecBinario.PREFERIDO) {
+            try {
+                this.codec = CodecBinario.negociar(socket);
+            } catch (IOException e) {
+                // Servidor sem o formato binário: fecha a ligação ao receber a saudação
+                socket.close();
+                this.socket = new Socket(serverIP, serverPort);
+            }
+        }
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.pedidos = new PedidosEmCurso();
+
+        Thread leitor = new Thread(() -> lerRespostas(codec, in, pedidos), "rede-leitor");
+        leitor.setDaemon(true);
+        leitor.start();
         System.out.println("[Rede] TCP conectado.");
     }
 
+    /**
+     * Envia o pedido e devolve logo a resposta por vir; podem estar vários pedidos em curso
+     * e as respostas chegam pela ordem em que o servidor os termina. Os futuros completam na
+     * thread que lê a ligação: o que mexer na interface deve passar por Platform.runLater.
+     */
+    public CompletableFuture<Object> pedir(Mensagem pedido) {
+        return pedir(pedido, null);
+    }
+
+    private CompletableFuture<Object> pedir(Mensagem pedido, Consumer<MsgBlocoRespostas> blocos) {
+        lock.lock();
+        try {
+            if (out == null) return CompletableFuture.failedFuture(new IOException("Não conectado."));
 
-    public Object enviarEReceber(Object pedido) throws Exception {
-        synchronized (lock) {
-            if (out == null || in == null) throw new IOException("Não conectado.");
+            CompletableFuture<Object> resposta = pedidos.registar(pedido, blocos);
+            try {
+                codec.escrever(out, pedido);
+            } catch (IOException e) {
+                pedidos.cancelar(pedido, e);
+            }
+            return resposta;
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    public Object enviarEReceber(Mensagem pedido) throws Exception {
+        return esperar(pedir(pedido));
+    }
 
-            out.writeObject(pedido);
-            out.flush();
+    /**
+     * Pede as respostas de uma pergunta em blocos de tamanhoBloco e entrega cada bloco
+     * ao consumidor assim que chega, sem juntar a lista completa em memória.
+     */
+    public void receberRespostasEmBlocos(String codigo, int tamanhoBloco, Consumer<List<RespostaEstudante>> consumidor) throws Exception {
+        Object resposta = esperar(pedir(new MsgObterRespostas(codigo, tamanhoBloco), bloco -> {
+            if (!bloco.getRespostas().isEmpty()) consumidor.accept(bloco.getRespostas());
+        }));
+
+        if (!(resposta instanceof MsgBlocoRespostas)) {
+            throw new Exception(String.valueOf(resposta));
+        }
+        MsgBlocoRespostas ultimo = (MsgBlocoRespostas) resposta;
+        if (ultimo.temErro()) throw new Exception(ultimo.getErro());
+        if (!ultimo.getRespostas().isEmpty()) consumidor.accept(ultimo.getRespostas());
+    }
 
+    private static Object esperar(CompletableFuture<Object> resposta) throws Exception {
+        try {
+            return resposta.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
 
+    private static void lerRespostas(CodecTramas codec, DataInputStream in, PedidosEmCurso pedidos) {
+        try {
             while (true) {
-                Object resposta = in.readObject();
-
+                Object resposta = codec.ler(in);
 
                 if (resposta instanceof String && ((String) resposta).startsWith("NOTIFICACAO:")) {
                     String msgNotif = ((String) resposta).substring(12);
@@ -83,27 +160,19 @@ public class RedeCliente {
                     continue;
                 }
 
-
-                return resposta;
+                if (!pedidos.entregar(resposta)) System.out.println("[Rede] Resposta sem pedido: " + resposta);
             }
+        } catch (IOException e) {
+            pedidos.falhar(new IOException("Ligação ao servidor perdida.", e));
         }
     }
 
-
-    public void enviar(Object msg) throws IOException {
-        synchronized (lock) {
-            out.writeObject(msg);
-            out.flush();
-        }
-    }
-
-    public Object receber() throws IOException, ClassNotFoundException {
-        synchronized (lock) {
-            return in.readObject();
-        }
+    /** Envia sem esperar pela resposta (ex.: logout). */
+    public void enviar(Mensagem msg) {
+        pedir(msg);
     }
 
     public void fechar() {
         try { if (socket != null) socket.close(); } catch (Exception e) {}
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,600 @@
+package pt.isec.pd.tp.mensagens;
+
+import pt.isec.pd.tp.Definicoes;
+import pt.isec.pd.tp.estruturas.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Formato binário das tramas entre cliente e servidor, sem descritores de classe nem reflexão:
+ * cada mensagem e cada estrutura tem o seu codificador explícito.
+ *
+ * Negociação: o cliente abre a ligação com uma saudação (magia "PDC", versão máxima que
+ * conhece e se aceita compressão) e o servidor responde com a versão e as opções acordadas.
+ * Um cliente antigo começa logo por um objeto serializado (0xACED) e o servidor mantém com ele
+ * a serialização Java; um servidor antigo fecha a ligação à saudação e o cliente volta a ligar-se
+ * em serialização.
+ *
+ * Corpo: 1 byte de opções (bit 0: resto comprimido com deflate, precedido do tamanho original)
+ * e o valor, que começa pela marca do seu tipo. Inteiros em varint (zigzag quando podem ser
+ * negativos) e texto em UTF-8 precedido do comprimento + 1 (0 é null).
+ *
+ * Versão 2: um pedido com id vai dentro da marca MSG_COM_ID e as respostas etiquetadas são
+ * MsgResposta. Com a versão 1 os ids não são enviados e o servidor responde pela ordem.
+ */
+public final class CodecBinario implements CodecTramas {
+
+    public static final int VERSAO = 2;
+
+    /** Formato que os clientes tentam negociar (pd.protocolo.formato=binario|serializacao). */
+    public static final boolean PREFERIDO = !"serializacao".equalsIgnoreCase(Definicoes.texto("pd.protocolo.formato", "binario"));
+    private static final boolean COMPRIMIR = Definicoes.booleano("pd.protocolo.comprimir", true);
+    // Corpos mais pequenos do que isto não compensam a compressão
+    private static final int COMPRIMIR_MIN = Math.max(64, Definicoes.inteiro("pd.protocolo.comprimir_min", 2048));
+    private static final int TIMEOUT_SAUDACAO_MS = 5000;
+    private static final int MAX_PROFUNDIDADE = 32;
+
+    private static final byte[] MAGIA = {'P', 'D', 'C'};
+    private static final int OPCAO_COMPRIMIR = 1;
+    private static final int COMPRIMIDO = 1;
+
+    // Marcas de tipo dos valores
+    private static final int NULO = 0;
+    private static final int TEXTO = 1;
+    private static final int LISTA = 2;
+    private static final int PAGINA = 3;
+    private static final int CURSOR = 4;
+
+    private static final int DOCENTE = 16;
+    private static final int ESTUDANTE = 17;
+    private static final int OPCAO = 18;
+    private static final int PERGUNTA = 19;
+    private static final int HISTORICO = 20;
+    private static final int RESPOSTA_ESTUDANTE = 21;
+    private static final int ESTATISTICAS = 22;
+
+    private static final int MSG_LOGIN = 32;
+    private static final int MSG_LOGOUT = 33;
+    private static final int MSG_REGISTO = 34;
+    private static final int MSG_EDITAR_PERFIL = 35;
+    private static final int MSG_CRIAR_PERGUNTA = 36;
+    private static final int MSG_EDITAR_PERGUNTA = 37;
+    private static final int MSG_ELIMINAR_PERGUNTA = 38;
+    private static final int MSG_OBTER_PERGUNTA = 39;
+    private static final int MSG_OBTER_PERGUNTAS = 40;
+    private static final int MSG_RESPONDER_PERGUNTA = 41;
+    private static final int MSG_OBTER_HISTORICO = 42;
+    private static final int MSG_OBTER_RESPOSTAS = 43;
+    private static final int MSG_OBTER_ESTATISTICAS = 44;
+    private static final int MSG_BLOCO_RESPOSTAS = 45;
+    private static final int MSG_COM_ID = 46;
+    private static final int MSG_RESPOSTA = 47;
+
+    private final int versao;
+    private final boolean comprimir;
+
+    private CodecBinario(int versao, boolean comprimir) {
+        this.versao = versao;
+        this.comprimir = comprimir;
+    }
+
+    public int getVersao() { return versao; }
+    public boolean isComprimir() { return comprimir; }
+
+    // ---- Negociação ----
+
+    /** Indica se o corpo da primeira trama de uma ligação é uma saudação deste formato. */
+    public static boolean isSaudacao(byte[] corpo) {
+        return corpo.length >= MAGIA.length + 2 && corpo[0] == MAGIA[0] && corpo[1] == MAGIA[1] && corpo[2] == MAGIA[2];
+    }
+
+    /** Formato acordado com quem enviou a saudação: a menor das versões e compressão só se ambos a aceitam. */
+    public static CodecBinario acordar(byte[] saudacao) throws IOException {
+        int versao = Math.min(VERSAO, saudacao[3] & 0xFF);
+        if (versao < 1) throw new IOException("Versão do formato binário não suportada: " + (saudacao[3] & 0xFF));
+        return new CodecBinario(versao, COMPRIMIR && (saudacao[4] & OPCAO_COMPRIMIR) != 0);
+    }
+
+    /** Trama de saudação que anuncia a versão e as opções deste formato. */
+    public byte[] saudacao() {
+        byte[] trama = new byte[4 + MAGIA.length + 2];
+        CodecTramas.escreverTamanho(trama, trama.length - 4);
+        System.arraycopy(MAGIA, 0, trama, 4, MAGIA.length);
+        trama[7] = (byte) versao;
+        trama[8] = (byte) (comprimir ? OPCAO_COMPRIMIR : 0);
+        return trama;
+    }
+
+    /**
+     * No cliente, logo após ligar: envia a saudação e devolve o formato acordado com o servidor.
+     * Lança IOException se o servidor não o conhecer (tipicamente fecha a ligação).
+     */
+    public static CodecBinario negociar(Socket socket) throws IOException {
+        int timeout = socket.getSoTimeout();
+        socket.setSoTimeout(TIMEOUT_SAUDACAO_MS);
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(new CodecBinario(VERSAO, COMPRIMIR).saudacao());
+            out.flush();
+
+            byte[] resposta = CodecTramas.lerCorpo(new DataInputStream(socket.getInputStream()));
+            if (!isSaudacao(resposta)) throw new IOException("O servidor não respondeu à saudação do formato binário.");
+            return acordar(resposta);
+        } finally {
+            if (!socket.isClosed()) socket.setSoTimeout(timeout);
+        }
+    }
+
+    // ---- Tramas ----
+
+    @Override
+    public byte[] codificar(Object msg) throws IOException {
+        Escritor e = new Escritor(versao >= 2);
+        e.pos = 5; // tamanho + opções
+        e.valor(msg);
+
+        int tamanho = e.pos - 5;
+        if (comprimir && tamanho >= COMPRIMIR_MIN) {
+            byte[] comprimida = comprimir(e.buf, tamanho);
+            if (comprimida != null) return comprimida;
+        }
+        CodecTramas.escreverTamanho(e.buf, e.pos - 4);
+        e.buf[4] = 0;
+        return Arrays.copyOf(e.buf, e.pos);
+    }
+
+    // Trama com o valor comprimido, ou null se não ficar mais pequena
+    private static byte[] comprimir(byte[] buf, int tamanho) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(buf, 5, tamanho);
+            deflater.finish();
+
+            Escritor e = new Escritor(false);
+            e.pos = 5;
+            e.varint(tamanho);
+            e.garantir(tamanho);
+            while (!deflater.finished()) {
+                int n = deflater.deflate(e.buf, e.pos, e.buf.length - e.pos);
+                e.pos += n;
+                if (e.pos >= 5 + tamanho) return null;
+                if (e.pos == e.buf.length) e.garantir(1024);
+            }
+            CodecTramas.escreverTamanho(e.buf, e.pos - 4);
+            e.buf[4] = COMPRIMIDO;
+            return Arrays.copyOf(e.buf, e.pos);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public Object descodificar(byte[] corpo) throws IOException {
+        if (corpo.length < 1) throw new IOException("Trama vazia.");
+        Leitor l = new Leitor(corpo, 1, corpo.length);
+
+        if ((corpo[0] & COMPRIMIDO) != 0) {
+            long original = l.varint();
+            if (original <= 0 || original > MAX_TRAMA) throw new IOException("Tamanho original inválido: " + original);
+            byte[] dados = new byte[(int) original];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(corpo, l.pos, corpo.length - l.pos);
+                int n = 0;
+                while (n < dados.length && !inflater.finished()) {
+                    int lidos = inflater.inflate(dados, n, dados.length - n);
+                    if (lidos == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    n += lidos;
+                }
+                if (n != dados.length) throw new IOException("Trama comprimida truncada.");
+            } catch (DataFormatException e) {
+                throw new IOException("Trama comprimida inválida: " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+            l = new Leitor(dados, 0, dados.length);
+        }
+
+        Object valor = l.valor();
+        if (l.pos != l.fim) throw new IOException("Trama com " + (l.fim - l.pos) + " bytes a mais.");
+        return valor;
+    }
+
+    // ---- Valores ----
+
+    private static final class Escritor {
+        private final boolean comIds;
+        private byte[] buf = new byte[256];
+        private int pos;
+
+        Escritor(boolean comIds) {
+            this.comIds = comIds;
+        }
+
+        void valor(Object v) throws IOException {
+            if (v == null) {
+                marca(NULO);
+            } else if (v instanceof String) {
+                marca(TEXTO);
+                texto((String) v);
+            } else if (v instanceof List) {
+                List<?> lista = (List<?>) v;
+                marca(LISTA);
+                varint(lista.size());
+                for (Object o : lista) valor(o);
+            } else if (v instanceof Pagina) {
+                Pagina<?> p = (Pagina<?>) v;
+                marca(PAGINA);
+                valor(p.getItens());
+                valor(p.getSeguinte());
+            } else if (v instanceof CursorPagina) {
+                CursorPagina c = (CursorPagina) v;
+                marca(CURSOR);
+                zigzag(c.getInstante());
+                zigzag(c.getId());
+            } else if (v instanceof Mensagem) {
+                mensagem((Mensagem) v);
+            } else {
+                estrutura(v);
+            }
+        }
+
+        private void estrutura(Object v) throws IOException {
+            if (v instanceof Docente) {
+                Docente d = (Docente) v;
+                marca(DOCENTE);
+                texto(d.getNome());
+                texto(d.getEmail());
+                texto(d.getPassword());
+            } else if (v instanceof Estudante) {
+                Estudante e = (Estudante) v;
+                marca(ESTUDANTE);
+                texto(e.getNumEstudante());
+                texto(e.getNome());
+                texto(e.getEmail());
+                texto(e.getPassword());
+            } else if (v instanceof Opcao) {
+                Opcao o = (Opcao) v;
+                marca(OPCAO);
+                texto(o.getLetra());
+                texto(o.getTexto());
+                booleano(o.isCorreta());
+            } else if (v instanceof Pergunta) {
+                Pergunta p = (Pergunta) v;
+                marca(PERGUNTA);
+                zigzag(p.getId());
+                texto(p.getEnunciado());
+                texto(p.getCodigoAcesso());
+                texto(p.getInicio());
+                texto(p.getFim());
+                valor(p.getOpcoes());
+            } else if (v instanceof HistoricoItem) {
+                HistoricoItem h = (HistoricoItem) v;
+                marca(HISTORICO);
+                texto(h.getEnunciado());
+                texto(h.getCodigo());
+                texto(h.getDataResposta());
+                texto(h.getOpcaoEscolhida());
+                booleano(h.isAcertou());
+            } else if (v instanceof RespostaEstudante) {
+                RespostaEstudante r = (RespostaEstudante) v;
+                marca(RESPOSTA_ESTUDANTE);
+                texto(r.getNumEstudante());
+                texto(r.getNome());
+                texto(r.getEmail());
+                texto(r.getOpcaoEscolhida());
+            } else if (v instanceof Estatisticas) {
+                Estatisticas s = (Estatisticas) v;
+                marca(ESTATISTICAS);
+                texto(s.getCodigoAcesso());
+                zigzag(s.getTotal());
+                zigzag(s.getCertas());
+                varint(s.getRespostasPorOpcao().size());
+                for (Map.Entry<String, Integer> e : s.getRespostasPorOpcao().entrySet()) {
+                    texto(e.getKey());
+                    zigzag(e.getValue());
+                }
+            } else {
+                throw new IOException("Tipo não suportado pelo formato binário: " + v.getClass().getName());
+            }
+        }
+
+        private void mensagem(Mensagem m) throws IOException {
+            if (m instanceof MsgResposta) {
+                if (!comIds) throw new IOException("Resposta etiquetada numa ligação sem ids.");
+                marca(MSG_RESPOSTA);
+                varint(m.getId());
+                valor(((MsgResposta) m).getConteudo());
+                return;
+            }
+            if (comIds && m.getId() != 0) {
+                marca(MSG_COM_ID);
+                varint(m.getId());
+            }
+
+            if (m instanceof MsgLogin) {
+                MsgLogin l = (MsgLogin) m;
+                marca(MSG_LOGIN);
+                texto(l.getEmail());
+                texto(l.getPassword());
+            } else if (m instanceof MsgLogout) {
+                marca(MSG_LOGOUT);
+            } else if (m instanceof MsgRegisto) {
+                MsgRegisto r = (MsgRegisto) m;
+                marca(MSG_REGISTO);
+                valor(r.getDocente());
+                valor(r.getEstudante());
+                texto(r.getCodigoDocente());
+            } else if (m instanceof MsgEditarPerfil) {
+                MsgEditarPerfil e = (MsgEditarPerfil) m;
+                marca(MSG_EDITAR_PERFIL);
+                valor(e.getNovoDocente());
+                valor(e.getNovoEstudante());
+            } else if (m instanceof MsgCriarPergunta) {
+                MsgCriarPergunta c = (MsgCriarPergunta) m;
+                marca(MSG_CRIAR_PERGUNTA);
+                zigzag(c.getDocenteId());
+                texto(c.getEnunciado());
+                texto(c.getInicio());
+                texto(c.getFim());
+                valor(c.getOpcoes());
+            } else if (m instanceof MsgEditarPergunta) {
+                MsgEditarPergunta e = (MsgEditarPergunta) m;
+                marca(MSG_EDITAR_PERGUNTA);
+                texto(e.getCodigoAcesso());
+                texto(e.getNovoEnunciado());
+                texto(e.getNovoInicio());
+                texto(e.getNovoFim());
+            } else if (m instanceof MsgEliminarPergunta) {
+                marca(MSG_ELIMINAR_PERGUNTA);
+                texto(((MsgEliminarPergunta) m).getCodigoAcesso());
+            } else if (m instanceof MsgObterPergunta) {
+                marca(MSG_OBTER_PERGUNTA);
+                texto(((MsgObterPergunta) m).getCodigoAcesso());
+            } else if (m instanceof MsgObterPerguntas) {
+                MsgObterPerguntas o = (MsgObterPerguntas) m;
+                marca(MSG_OBTER_PERGUNTAS);
+                texto(o.getFiltro());
+                zigzag(o.getTamanhoPagina());
+                valor(o.getCursor());
+            } else if (m instanceof MsgResponderPergunta) {
+                MsgResponderPergunta r = (MsgResponderPergunta) m;
+                marca(MSG_RESPONDER_PERGUNTA);
+                zigzag(r.getEstudanteId());
+                texto(r.getCodigoAcesso());
+                texto(r.getLetraOpcao());
+            } else if (m instanceof MsgObterHistorico) {
+                MsgObterHistorico h = (MsgObterHistorico) m;
+                marca(MSG_OBTER_HISTORICO);
+                zigzag(h.getTamanhoPagina());
+                valor(h.getCursor());
+            } else if (m instanceof MsgObterRespostas) {
+                MsgObterRespostas r = (MsgObterRespostas) m;
+                marca(MSG_OBTER_RESPOSTAS);
+                texto(r.getCodigoAcesso());
+                zigzag(r.getTamanhoBloco());
+            } else if (m instanceof MsgObterEstatisticas) {
+                marca(MSG_OBTER_ESTATISTICAS);
+                texto(((MsgObterEstatisticas) m).getCodigoAcesso());
+            } else if (m instanceof MsgBlocoRespostas) {
+                MsgBlocoRespostas b = (MsgBlocoRespostas) m;
+                marca(MSG_BLOCO_RESPOSTAS);
+                texto(b.getErro());
+                if (!b.temErro()) {
+                    valor(b.getRespostas());
+                    booleano(b.isUltimo());
+                }
+            } else {
+                throw new IOException("Mensagem não suportada pelo formato binário: " + m.getClass().getName());
+            }
+        }
+
+        void marca(int m) {
+            garantir(1);
+            buf[pos++] = (byte) m;
+        }
+
+        void booleano(boolean b) {
+            marca(b ? 1 : 0);
+        }
+
+        void varint(long v) {
+            garantir(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void zigzag(long v) {
+            varint((v << 1) ^ (v >> 63));
+        }
+
+        void texto(String s) {
+            if (s == null) {
+                varint(0);
+                return;
+            }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length + 1L);
+            garantir(b.length);
+            System.arraycopy(b, 0, buf, pos, b.length);
+            pos += b.length;
+        }
+
+        void garantir(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+
+    private static final class Leitor {
+        private final byte[] buf;
+        private int pos;
+        private final int fim;
+        private int profundidade;
+
+        Leitor(byte[] buf, int pos, int fim) {
+            this.buf = buf;
+            this.pos = pos;
+            this.fim = fim;
+        }
+
+        // Os valores aninham-se (listas de listas...): limita a recursão de uma trama maliciosa
+        Object valor() throws IOException {
+            if (++profundidade > MAX_PROFUNDIDADE) throw new IOException("Valores aninhados em demasia.");
+            try {
+                return lerValor();
+            } finally {
+                profundidade--;
+            }
+        }
+
+        private Object lerValor() throws IOException {
+            exigir(1);
+            int marca = buf[pos++] & 0xFF;
+            switch (marca) {
+                case NULO: return null;
+                case TEXTO: return texto();
+                case LISTA: return elementos(Object.class);
+                case PAGINA: return new Pagina<>(lista(Serializable.class), objeto(CursorPagina.class));
+                case CURSOR: return new CursorPagina(zigzag(), (int) zigzag());
+
+                case DOCENTE: return new Docente(texto(), texto(), texto());
+                case ESTUDANTE: return new Estudante(texto(), texto(), texto(), texto());
+                case OPCAO: return new Opcao(texto(), texto(), booleano());
+                case PERGUNTA: return new Pergunta((int) zigzag(), texto(), texto(), texto(), texto(), lista(Opcao.class));
+                case HISTORICO: return new HistoricoItem(texto(), texto(), texto(), texto(), booleano());
+                case RESPOSTA_ESTUDANTE: return new RespostaEstudante(texto(), texto(), texto(), texto());
+                case ESTATISTICAS: {
+                    String codigo = texto();
+                    int total = (int) zigzag();
+                    int certas = (int) zigzag();
+                    int n = tamanho();
+                    LinkedHashMap<String, Integer> porOpcao = new LinkedHashMap<>();
+                    for (int i = 0; i < n; i++) porOpcao.put(texto(), (int) zigzag());
+                    return new Estatisticas(codigo, total, certas, porOpcao);
+                }
+
+                case MSG_LOGIN: return new MsgLogin(texto(), texto());
+                case MSG_LOGOUT: return new MsgLogout();
+                case MSG_REGISTO: {
+                    Docente d = objeto(Docente.class);
+                    Estudante e = objeto(Estudante.class);
+                    String codigo = texto();
+                    return d != null ? new MsgRegisto(d, codigo) : new MsgRegisto(e);
+                }
+                case MSG_EDITAR_PERFIL: {
+                    Docente d = objeto(Docente.class);
+                    Estudante e = objeto(Estudante.class);
+                    return d != null ? new MsgEditarPerfil(d) : new MsgEditarPerfil(e);
+                }
+                case MSG_CRIAR_PERGUNTA: return new MsgCriarPergunta((int) zigzag(), texto(), texto(), texto(), lista(Opcao.class));
+                case MSG_EDITAR_PERGUNTA: return new MsgEditarPergunta(texto(), texto(), texto(), texto());
+                case MSG_ELIMINAR_PERGUNTA: return new MsgEliminarPergunta(texto());
+                case MSG_OBTER_PERGUNTA: return new MsgObterPergunta(texto());
+                case MSG_OBTER_PERGUNTAS: return new MsgObterPerguntas(texto(), (int) zigzag(), objeto(CursorPagina.class));
+                case MSG_RESPONDER_PERGUNTA: return new MsgResponderPergunta((int) zigzag(), texto(), texto());
+                case MSG_OBTER_HISTORICO: return new MsgObterHistorico((int) zigzag(), objeto(CursorPagina.class));
+                case MSG_OBTER_RESPOSTAS: return new MsgObterRespostas(texto(), (int) zigzag());
+                case MSG_OBTER_ESTATISTICAS: return new MsgObterEstatisticas(texto());
+                case MSG_BLOCO_RESPOSTAS: {
+                    String erro = texto();
+                    if (erro != null) return new MsgBlocoRespostas(erro);
+                    return new MsgBlocoRespostas(lista(RespostaEstudante.class), booleano());
+                }
+                case MSG_COM_ID: {
+                    long id = varint();
+                    Mensagem m = objeto(Mensagem.class);
+                    if (m == null || m instanceof MsgResposta) throw new IOException("Id sem pedido.");
+                    m.setId(id);
+                    return m;
+                }
+                case MSG_RESPOSTA: return new MsgResposta(varint(), (Serializable) valor());
+                default:
+                    throw new IOException("Marca de tipo desconhecida: " + marca);
+            }
+        }
+
+        // Valor que tem de ser null ou do tipo esperado
+        private <T> T objeto(Class<T> tipo) throws IOException {
+            Object v = valor();
+            if (v != null && !tipo.isInstance(v)) {
+                throw new IOException("Esperado " + tipo.getSimpleName() + ", recebido " + v.getClass().getSimpleName());
+            }
+            return tipo.cast(v);
+        }
+
+        private <T> List<T> lista(Class<T> tipo) throws IOException {
+            exigir(1);
+            if (buf[pos] == NULO) {
+                pos++;
+                return null;
+            }
+            if (buf[pos] != LISTA) throw new IOException("Esperada uma lista, marca " + buf[pos]);
+            pos++;
+            return elementos(tipo);
+        }
+
+        private <T> List<T> elementos(Class<T> tipo) throws IOException {
+            int n = tamanho();
+            List<T> lista = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) lista.add(objeto(tipo));
+            return lista;
+        }
+
+        // Número de elementos; cada um ocupa pelo menos um byte, o que trava tamanhos absurdos
+        private int tamanho() throws IOException {
+            long n = varint();
+            if (n > fim - pos) throw new IOException("Tamanho inválido: " + n);
+            return (int) n;
+        }
+
+        private boolean booleano() throws IOException {
+            exigir(1);
+            return buf[pos++] != 0;
+        }
+
+        private long varint() throws IOException {
+            long v = 0;
+            for (int desl = 0; desl < 64; desl += 7) {
+                exigir(1);
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << desl;
+                if (b >= 0) return v;
+            }
+            throw new IOException("Varint demasiado longo.");
+        }
+
+        private long zigzag() throws IOException {
+            long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private String texto() throws IOException {
+            long n = varint();
+            if (n == 0) return null;
+            exigir(n - 1);
+            String s = new String(buf, pos, (int) (n - 1), StandardCharsets.UTF_8);
+            pos += (int) (n - 1);
+            return s;
+        }
+
+        private void exigir(long n) throws IOException {
+            if (n < 0 || n > fim - pos) throw new IOException("Trama truncada.");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package pt.isec.pd.tp.mensagens;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Formato das mensagens TCP entre cliente e servidor. Cada mensagem vai numa trama: um int
+ * com o tamanho do corpo, seguido do corpo. O corpo é serialização Java ({@link TramaObjetos})
+ * ou o formato binário ({@link CodecBinario}), escolhido por ligação.
+ */
+public interface CodecTramas {
+
+    int MAX_TRAMA = 64 * 1024 * 1024;
+
+    /** Trama completa (tamanho + corpo), pronta a escrever. */
+    byte[] codificar(Object msg) throws IOException;
+
+    /** Mensagem contida no corpo de uma trama, já sem o int do tamanho. */
+    Object descodificar(byte[] corpo) throws IOException;
+
+    default void escrever(OutputStream os, Object msg) throws IOException {
+        os.write(codificar(msg));
+        os.flush();
+    }
+
+    default Object ler(DataInputStream in) throws IOException {
+        return descodificar(lerCorpo(in));
+    }
+
+    static byte[] lerCorpo(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len <= 0 || len > MAX_TRAMA) throw new IOException("Trama inválida (" + len + " bytes).");
+        byte[] corpo = new byte[len];
+        in.readFully(corpo);
+        return corpo;
+    }
+
+    static void escreverTamanho(byte[] trama, int len) {
+        trama[0] = (byte) (len >>> 24);
+        trama[1] = (byte) (len >>> 16);
+        trama[2] = (byte) (len >>> 8);
+        trama[3] = (byte) len;
+    }
+}
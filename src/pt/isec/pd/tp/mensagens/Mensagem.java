@@ -4,4 +4,10 @@ import java.io.Serializable;
 
 public abstract class Mensagem implements Serializable {
     private static final long serialVersionUID = 1L;
-}
\ No newline at end of file
+
+    // Identificador do pedido, devolvido na MsgResposta; 0 num pedido sem id (cliente antigo)
+    private long id;
+
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
+}
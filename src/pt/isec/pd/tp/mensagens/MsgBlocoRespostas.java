@@ -0,0 +1,33 @@
+package pt.isec.pd.tp.mensagens;
+
+import pt.isec.pd.tp.estruturas.RespostaEstudante;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MsgBlocoRespostas extends Mensagem {
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<RespostaEstudante> respostas;
+    private final boolean ultimo;
+    private final String erro;
+
+
+    public MsgBlocoRespostas(List<RespostaEstudante> respostas, boolean ultimo) {
+        this.respostas = new ArrayList<>(respostas);
+        this.ultimo = ultimo;
+        this.erro = null;
+    }
+
+
+    public MsgBlocoRespostas(String erro) {
+        this.respostas = new ArrayList<>();
+        this.ultimo = true;
+        this.erro = erro;
+    }
+
+    public List<RespostaEstudante> getRespostas() { return respostas; }
+    public boolean isUltimo() { return ultimo; }
+    public String getErro() { return erro; }
+    public boolean temErro() { return erro != null; }
+}
@@ -1,6 +1,25 @@
 package pt.isec.pd.tp.mensagens;
 
+import pt.isec.pd.tp.estruturas.CursorPagina;
+
 public class MsgObterHistorico extends Mensagem {
     private static final long serialVersionUID = 1L;
 
-}
\ No newline at end of file
+    private final int tamanhoPagina;
+    private final CursorPagina cursor;
+
+    public MsgObterHistorico() {
+        this(0, null);
+    }
+
+
+    public MsgObterHistorico(int tamanhoPagina, CursorPagina cursor) {
+        this.tamanhoPagina = tamanhoPagina;
+        this.cursor = cursor;
+    }
+
+    public int getTamanhoPagina() { return tamanhoPagina; }
+    public CursorPagina getCursor() { return cursor; }
+
+    public boolean isPaginado() { return tamanhoPagina > 0; }
+}
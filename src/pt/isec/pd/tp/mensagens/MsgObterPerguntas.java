@@ -1,14 +1,29 @@
 package pt.isec.pd.tp.mensagens;
 
+import pt.isec.pd.tp.estruturas.CursorPagina;
+
 public class MsgObterPerguntas extends Mensagem {
     private static final long serialVersionUID = 1L;
 
 
     private final String filtro;
+    private final int tamanhoPagina;
+    private final CursorPagina cursor;
 
     public MsgObterPerguntas(String filtro) {
+        this(filtro, 0, null);
+    }
+
+
+    public MsgObterPerguntas(String filtro, int tamanhoPagina, CursorPagina cursor) {
         this.filtro = filtro;
+        this.tamanhoPagina = tamanhoPagina;
+        this.cursor = cursor;
     }
 
     public String getFiltro() { return filtro; }
-}
\ No newline at end of file
+    public int getTamanhoPagina() { return tamanhoPagina; }
+    public CursorPagina getCursor() { return cursor; }
+
+    public boolean isPaginado() { return tamanhoPagina > 0; }
+}
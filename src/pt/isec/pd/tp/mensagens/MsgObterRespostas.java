@@ -4,10 +4,21 @@ public class MsgObterRespostas extends Mensagem {
     private static final long serialVersionUID = 1L;
     
     private final String codigoAcesso;
+    private final int tamanhoBloco;
+
 
     public MsgObterRespostas(String codigoAcesso) {
+        this(codigoAcesso, 0);
+    }
+
+
+    public MsgObterRespostas(String codigoAcesso, int tamanhoBloco) {
         this.codigoAcesso = codigoAcesso;
+        this.tamanhoBloco = tamanhoBloco;
     }
 
     public String getCodigoAcesso() { return codigoAcesso; }
-}
\ No newline at end of file
+    public int getTamanhoBloco() { return tamanhoBloco; }
+
+    public boolean isEmBlocos() { return tamanhoBloco > 0; }
+}
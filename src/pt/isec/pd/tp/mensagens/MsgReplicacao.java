@@ -0,0 +1,21 @@
+package pt.isec.pd.tp.mensagens;
+
+import pt.isec.pd.tp.estruturas.RegistoReplicacao;
+
+import java.util.List;
+
+/**
+ * Lote de escritas consecutivas enviado pelo principal ao grupo multicast, por ordem de versão.
+ * Só viaja codificado por CodecDatagramas, nunca por serialização Java.
+ */
+public class MsgReplicacao extends Mensagem {
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<RegistoReplicacao> registos;
+
+    public MsgReplicacao(List<RegistoReplicacao> registos) {
+        this.registos = registos;
+    }
+
+    public List<RegistoReplicacao> getRegistos() { return registos; }
+}
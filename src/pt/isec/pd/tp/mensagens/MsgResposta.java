@@ -0,0 +1,21 @@
+package pt.isec.pd.tp.mensagens;
+
+import java.io.Serializable;
+
+/**
+ * Resposta do servidor a um pedido com id (o id da resposta é o do pedido). O conteúdo é o
+ * que seria enviado sem etiqueta: um texto "SUCESSO:"/"ERRO:", uma estrutura, uma página, etc.
+ * Um pedido respondido em blocos recebe uma MsgResposta por bloco.
+ */
+public final class MsgResposta extends Mensagem {
+    private static final long serialVersionUID = 1L;
+
+    private final Serializable conteudo;
+
+    public MsgResposta(long idPedido, Serializable conteudo) {
+        setId(idPedido);
+        this.conteudo = conteudo;
+    }
+
+    public Object getConteudo() { return conteudo; }
+}
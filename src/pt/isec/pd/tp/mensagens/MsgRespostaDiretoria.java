@@ -1,6 +1,10 @@
 package pt.isec.pd.tp.mensagens;
 
+import pt.isec.pd.tp.estruturas.FonteSnapshot;
+
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MsgRespostaDiretoria extends Mensagem {
     private static final long serialVersionUID = 1L;
@@ -8,16 +12,24 @@ public class MsgRespostaDiretoria extends Mensagem {
     private final InetAddress ipServidorPrincipal;
     private final int portoClienteTCP;
     private final int portoBDT_TCP;
+    // Só preenchido na resposta ao registo de um servidor; a mais atualizada primeiro
+    private final ArrayList<FonteSnapshot> fontesSnapshot;
 
     public MsgRespostaDiretoria(InetAddress ip, int portoCliente, int portoDB) {
+        this(ip, portoCliente, portoDB, List.of());
+    }
+
+    public MsgRespostaDiretoria(InetAddress ip, int portoCliente, int portoDB, List<FonteSnapshot> fontesSnapshot) {
         this.ipServidorPrincipal = ip;
         this.portoClienteTCP = portoCliente;
         this.portoBDT_TCP = portoDB;
+        this.fontesSnapshot = new ArrayList<>(fontesSnapshot);
     }
 
     public InetAddress getIpServidorPrincipal() { return ipServidorPrincipal; }
     public int getPortoClienteTCP() { return portoClienteTCP; }
     public int getPortoBDT_TCP() { return portoBDT_TCP; }
+    public List<FonteSnapshot> getFontesSnapshot() { return fontesSnapshot == null ? List.of() : fontesSnapshot; }
 
     public boolean existeServidor() { return ipServidorPrincipal != null; }
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+package pt.isec.pd.tp.mensagens;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Pedidos de uma ligação à espera de resposta, do lado do cliente. Cada pedido leva um id que
+ * o servidor devolve na {@link MsgResposta}, pelo que podem estar vários em curso e as respostas
+ * chegar por qualquer ordem. Um servidor sem ids responde sem etiqueta e pela ordem dos pedidos:
+ * essas respostas vão para o pedido mais antigo por responder.
+ */
+public final class PedidosEmCurso {
+
+    private static final class Pendente {
+        final long id;
+        final Consumer<MsgBlocoRespostas> blocos;
+        final CompletableFuture<Object> resposta = new CompletableFuture<>();
+
+        Pendente(long id, Consumer<MsgBlocoRespostas> blocos) {
+            this.id = id;
+            this.blocos = blocos;
+        }
+    }
+
+    private final AtomicLong ultimoId = new AtomicLong();
+    private final Map<Long, Pendente> pendentes = new ConcurrentHashMap<>();
+    private final Queue<Pendente> porOrdem = new ConcurrentLinkedQueue<>();
+    private volatile IOException falha;
+
+    /** Dá um id ao pedido e devolve a sua resposta; chamar antes de o enviar e pela ordem de envio. */
+    public CompletableFuture<Object> registar(Mensagem pedido) {
+        return registar(pedido, null);
+    }
+
+    /**
+     * Como {@link #registar(Mensagem)}, para um pedido respondido em blocos: os blocos intermédios
+     * vão para o consumidor (na thread que lê a ligação) e a resposta é o último ou o erro.
+     */
+    public CompletableFuture<Object> registar(Mensagem pedido, Consumer<MsgBlocoRespostas> blocos) {
+        Pendente p = new Pendente(ultimoId.incrementAndGet(), blocos);
+        pedido.setId(p.id);
+        pendentes.put(p.id, p);
+        porOrdem.add(p);
+        // A ligação pode ter caído entretanto; falhar() já não vê este pedido
+        IOException f = falha;
+        if (f != null) terminar(p).completeExceptionally(f);
+        return p.resposta;
+    }
+
+    /** O envio do pedido falhou: não vai haver resposta. */
+    public void cancelar(Mensagem pedido, Throwable causa) {
+        Pendente p = pendentes.get(pedido.getId());
+        if (p != null) terminar(p).completeExceptionally(causa);
+    }
+
+    /** Entrega o que chegou do servidor; devolve false se nenhum pedido estava à espera. */
+    public boolean entregar(Object recebido) {
+        Pendente p;
+        Object conteudo;
+        if (recebido instanceof MsgResposta) {
+            p = pendentes.get(((MsgResposta) recebido).getId());
+            conteudo = ((MsgResposta) recebido).getConteudo();
+        } else {
+            p = porOrdem.peek();
+            conteudo = recebido;
+        }
+        if (p == null) return false;
+
+        if (p.blocos != null && conteudo instanceof MsgBlocoRespostas) {
+            MsgBlocoRespostas bloco = (MsgBlocoRespostas) conteudo;
+            if (!bloco.isUltimo() && !bloco.temErro()) {
+                try {
+                    p.blocos.accept(bloco);
+                } catch (RuntimeException e) {
+                    terminar(p).completeExceptionally(e);
+                }
+                return true;
+            }
+        }
+        terminar(p).complete(conteudo);
+        return true;
+    }
+
+    /** A ligação caiu: falham os pedidos em curso e os que ainda se registarem. */
+    public void falhar(IOException causa) {
+        falha = causa;
+        for (Pendente p : pendentes.values()) terminar(p).completeExceptionally(causa);
+    }
+
+    private CompletableFuture<Object> terminar(Pendente p) {
+        pendentes.remove(p.id);
+        porOrdem.remove(p);
+        return p.resposta;
+    }
+}
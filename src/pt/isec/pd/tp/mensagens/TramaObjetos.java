@@ -0,0 +1,35 @@
+package pt.isec.pd.tp.mensagens;
+
+import java.io.*;
+
+/**
+ * Corpo das tramas em serialização Java: cada objeto vai serializado à parte, por isso cada
+ * trama descodifica-se sozinha. É o formato dos clientes que não negoceiam o binário.
+ */
+public final class TramaObjetos implements CodecTramas {
+
+    public static final TramaObjetos SERIALIZACAO = new TramaObjetos();
+
+    private TramaObjetos() {}
+
+    @Override
+    public byte[] codificar(Object obj) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+        baos.write(new byte[4]);
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(obj);
+        }
+        byte[] trama = baos.toByteArray();
+        CodecTramas.escreverTamanho(trama, trama.length - 4);
+        return trama;
+    }
+
+    @Override
+    public Object descodificar(byte[] corpo) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(corpo))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package pt.isec.pd.tp.servidor;
+
+import pt.isec.pd.tp.DatabaseManager;
+import pt.isec.pd.tp.Execucao;
+import pt.isec.pd.tp.estruturas.Estudante;
+import pt.isec.pd.tp.mensagens.CodecBinario;
+import pt.isec.pd.tp.mensagens.CodecTramas;
+import pt.isec.pd.tp.mensagens.MsgLogin;
+import pt.isec.pd.tp.mensagens.MsgObterHistorico;
+import pt.isec.pd.tp.mensagens.TramaObjetos;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medição do atendimento de clientes no modo de execução (-Dpd.execucao=pool|virtual) e no
+ * formato (-Dpd.protocolo.formato=binario|serializacao) escolhidos:
+ * abre N ligações a uma FrenteClientes local (BD temporária, sem diretoria nem replicação),
+ * mede o ritmo de aceitação, a memória e as threads com as ligações paradas, o débito de
+ * pedidos com todas as ligações a pedir ao mesmo tempo e o custo de notificar todas. Os clientes correm na mesma JVM, por
+ * isso a memória inclui os seus sockets; serve para comparar os modos, não como valor absoluto.
+ *
+ * Uso: java [-Dpd.execucao=virtual] [-Dpd.protocolo.formato=serializacao] pt.isec.pd.tp.servidor.BancadaClientes [ligacoes] [pedidos_por_ligacao]
+ */
+public class BancadaClientes {
+
+    private static final int THREADS_CLIENTES = 64;
+    private static final int DIFUSOES = 200;
+
+    private static final class Ligacao {
+        final Socket socket;
+        final DataInputStream in;
+        final OutputStream out;
+        final CodecTramas codec;
+
+        Ligacao(Socket socket) throws IOException {
+            this.socket = socket;
+            this.codec = CodecBinario.PREFERIDO ? CodecBinario.negociar(socket) : TramaObjetos.SERIALIZACAO;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        Object pedir(Object msg) throws IOException {
+            codec.escrever(out, msg);
+            return codec.ler(in);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int pedidos = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        File ficheiro = File.createTempFile("bancada", ".db");
+        ficheiro.delete();
+        DatabaseManager db = new DatabaseManager(ficheiro.getPath());
+        db.conectar();
+        db.criarTabelas();
+        db.registarEstudante(new Estudante("1", "Bancada", "bancada@isec.pt", "bancada"));
+
+        InetAddress local = InetAddress.getLoopbackAddress();
+        Servidor servidor = new Servidor(local.getHostAddress(), 0, ficheiro.getPath(), local.getHostAddress());
+        ServerSocketChannel canal = ServerSocketChannel.open().bind(new InetSocketAddress(local, 0), n);
+        FrenteClientes frente = new FrenteClientes(servidor, db, canal);
+        new Thread(frente, "clientes-selector").start();
+        int porto = canal.socket().getLocalPort();
+
+        long memoriaInicial = memoriaUsada();
+        int threadsIniciais = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        // Aceitação: N ligações e um pedido na última, que só é atendido depois de aceites todas
+        List<Ligacao> ligacoes = new ArrayList<>(n);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) ligacoes.add(new Ligacao(new Socket(local, porto)));
+        ligacoes.get(n - 1).pedir(new MsgObterHistorico());
+        double aceitacaoMs = (System.nanoTime() - t0) / 1e6;
+
+        Thread.sleep(500);
+        long memoriaParadas = memoriaUsada();
+        int threadsParadas = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        // Débito: cada ligação autentica-se e faz pedidos seguidos, todas ao mesmo tempo
+        ExecutorService clientes = Executors.newFixedThreadPool(THREADS_CLIENTES);
+        List<Future<?>> tarefas = new ArrayList<>();
+        t0 = System.nanoTime();
+        for (int c = 0; c < THREADS_CLIENTES; c++) {
+            int primeiro = c;
+            tarefas.add(clientes.submit(() -> {
+                for (int i = primeiro; i < n; i += THREADS_CLIENTES) {
+                    Ligacao l = ligacoes.get(i);
+                    l.pedir(new MsgLogin("bancada@isec.pt", "bancada"));
+                    for (int p = 0; p < pedidos; p++) l.pedir(new MsgObterHistorico());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : tarefas) f.get();
+        double debitoSeg = (System.nanoTime() - t0) / 1e9;
+        clientes.shutdown();
+        clientes.awaitTermination(10, TimeUnit.SECONDS);
+
+        // Difusão: notificações a todas as ligações, que não as leem; mede só quem notifica
+        t0 = System.nanoTime();
+        for (int i = 0; i < DIFUSOES; i++) servidor.notificarTodosClientes("Bancada " + i);
+        double difusaoMs = (System.nanoTime() - t0) / 1e6;
+
+        System.out.printf("Modo %s, formato %s, %d ligações%n", Execucao.MODO,
+                ligacoes.get(0).codec instanceof CodecBinario ? "binário" : "serialização", n);
+        System.out.printf("  aceitação: %.0f ms (%.0f ligações/s)%n", aceitacaoMs, n / (aceitacaoMs / 1000));
+        System.out.printf("  paradas: +%.1f MB de heap (%.1f KB por ligação), threads de plataforma %d -> %d%n",
+                (memoriaParadas - memoriaInicial) / 1048576.0, (memoriaParadas - memoriaInicial) / 1024.0 / n,
+                threadsIniciais, threadsParadas);
+        System.out.printf("  pedidos: %d em %.2f s (%.0f pedidos/s)%n",
+                (long) n * (pedidos + 1), debitoSeg, n * (pedidos + 1) / debitoSeg);
+        System.out.printf("  notificações: %d a %d ligações em %.0f ms (%.0f µs por difusão, excesso %s)%n",
+                DIFUSOES, n, difusaoMs, difusaoMs * 1000 / DIFUSOES, FilaNotificacoes.EXCESSO);
+
+        for (Ligacao l : ligacoes) {
+            try { l.socket.close(); } catch (IOException ignored) {}
+        }
+        frente.stop();
+        db.desconectar();
+        ficheiro.delete();
+        new File(ficheiro.getPath() + "-wal").delete();
+        new File(ficheiro.getPath() + "-shm").delete();
+        System.exit(0);
+    }
+
+    private static long memoriaUsada() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
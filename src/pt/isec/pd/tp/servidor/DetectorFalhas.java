@@ -0,0 +1,76 @@
+package pt.isec.pd.tp.servidor;
+
+import pt.isec.pd.tp.Definicoes;
+
+/**
+ * Detetor de falhas phi-accrual (Hayashibara et al.) sobre os intervalos entre heartbeats de um
+ * servidor. Em vez de um timeout fixo, devolve a suspeita phi = -log10(P(o próximo heartbeat
+ * chegar ainda mais tarde)), estimada a partir da média e do desvio padrão dos últimos intervalos;
+ * o servidor é dado como falhado quando phi passa o limiar configurado.
+ * Não é thread-safe: a diretoria usa-o sob o seu próprio lock.
+ */
+class DetectorFalhas {
+
+    static final double LIMIAR = Definicoes.decimal("pd.diretoria.phi", 8);
+    // Intervalo esperado antes de haver amostras; deve ser o pd.heartbeat.intervalo_ms dos servidores
+    static final long INTERVALO_ESPERADO_MS = Math.max(10, Definicoes.longo("pd.heartbeat.intervalo_ms", 1000));
+    private static final double DESVIO_MINIMO_MS = Math.max(1, Definicoes.longo("pd.diretoria.desvio_min_ms", 100));
+    // Atraso tolerado além do habitual (ex.: pausas de GC) antes de a suspeita subir
+    private static final double PAUSA_ACEITAVEL_MS = Math.max(0, Definicoes.longo("pd.diretoria.pausa_aceitavel_ms", 0));
+    private static final int AMOSTRAS = 100;
+    // Antes do primeiro heartbeat real não há intervalos para estimar: o servidor só é dado como
+    // falhado ao fim deste prazo, contado a partir do registo
+    private static final long PRAZO_PRIMEIRO_MS = Math.max(INTERVALO_ESPERADO_MS, Definicoes.longo("pd.diretoria.prazo_primeiro_hb_ms", 30_000));
+
+    private final long[] intervalos = new long[AMOSTRAS];
+    private int n;
+    private int proximo;
+    private double soma;
+    private double somaQuadrados;
+    private long ultimo;
+    private boolean recebeuHeartbeat;
+
+    DetectorFalhas(long agora) {
+        this.ultimo = agora;
+        // Começa com uma estimativa folgada, para não suspeitar de um servidor acabado de registar
+        adicionar(INTERVALO_ESPERADO_MS);
+        adicionar(INTERVALO_ESPERADO_MS + INTERVALO_ESPERADO_MS / 2);
+    }
+
+    void heartbeat(long agora) {
+        adicionar(agora - ultimo);
+        ultimo = agora;
+        recebeuHeartbeat = true;
+    }
+
+    long getUltimo() { return ultimo; }
+
+    double phi(long agora) {
+        double media = soma / n;
+        double desvio = Math.max(DESVIO_MINIMO_MS, Math.sqrt(Math.max(0, somaQuadrados / n - media * media)));
+        double y = (agora - ultimo - media - PAUSA_ACEITAVEL_MS) / desvio;
+
+        // Aproximação logística da cauda da normal, sem perder precisão nos extremos
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        return y > 0 ? -Math.log10(e / (1.0 + e)) : -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    boolean falhou(long agora) {
+        if (!recebeuHeartbeat) return agora - ultimo > PRAZO_PRIMEIRO_MS;
+        return phi(agora) > LIMIAR;
+    }
+
+    private void adicionar(long intervalo) {
+        if (n == AMOSTRAS) {
+            long saiu = intervalos[proximo];
+            soma -= saiu;
+            somaQuadrados -= (double) saiu * saiu;
+        } else {
+            n++;
+        }
+        intervalos[proximo] = intervalo;
+        proximo = (proximo + 1) % AMOSTRAS;
+        soma += intervalo;
+        somaQuadrados += (double) intervalo * intervalo;
+    }
+}
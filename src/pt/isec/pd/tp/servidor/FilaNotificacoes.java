@@ -0,0 +1,64 @@
+package pt.isec.pd.tp.servidor;
+
+import pt.isec.pd.tp.Definicoes;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Notificações de uma ligação à espera de serem escritas, limitada a pd.clientes.max_notificacoes.
+ * Quem notifica só acrescenta (nunca espera nem toca no socket); o que acontece quando um cliente
+ * não lê e a fila enche decide-o pd.clientes.notificacoes.excesso:
+ * "descartar" perde a mais antiga, "juntar" (omissão) ignora repetidas e troca as perdidas por um
+ * aviso com quantas foram, "desligar" fecha a ligação.
+ */
+class FilaNotificacoes {
+
+    enum Excesso { DESCARTAR, JUNTAR, DESLIGAR }
+
+    static final int CAPACIDADE = Math.max(1, Definicoes.inteiro("pd.clientes.max_notificacoes", 64));
+    static final Excesso EXCESSO = excesso(Definicoes.texto("pd.clientes.notificacoes.excesso", "juntar"));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<String> fila = new ArrayDeque<>();
+    private int perdidas;
+
+    private static Excesso excesso(String nome) {
+        for (Excesso e : Excesso.values()) {
+            if (e.name().equalsIgnoreCase(nome)) return e;
+        }
+        return Excesso.JUNTAR;
+    }
+
+    /** Devolve false se a fila está cheia e a política é desligar o cliente. */
+    boolean adicionar(String texto) {
+        lock.lock();
+        try {
+            if (EXCESSO == Excesso.JUNTAR && fila.contains(texto)) return true;
+            if (fila.size() >= CAPACIDADE) {
+                if (EXCESSO == Excesso.DESLIGAR) return false;
+                fila.poll();
+                if (EXCESSO == Excesso.JUNTAR) perdidas++;
+            }
+            fila.add(texto);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Próxima notificação a escrever, ou null se não há nenhuma. */
+    String retirar() {
+        lock.lock();
+        try {
+            if (perdidas > 0) {
+                String aviso = perdidas + (perdidas == 1 ? " notificação anterior não foi entregue." : " notificações anteriores não foram entregues.");
+                perdidas = 0;
+                return aviso;
+            }
+            return fila.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
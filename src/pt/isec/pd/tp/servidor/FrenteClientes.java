@@ -0,0 +1,538 @@
+package pt.isec.pd.tp.servidor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isec.pd.tp.DatabaseManager;
+import pt.isec.pd.tp.Definicoes;
+import pt.isec.pd.tp.Execucao;
+import pt.isec.pd.tp.cliente.CanalCliente;
+import pt.isec.pd.tp.cliente.ClientHandler;
+import pt.isec.pd.tp.mensagens.CodecBinario;
+import pt.isec.pd.tp.mensagens.CodecTramas;
+import pt.isec.pd.tp.mensagens.TramaObjetos;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Atendimento dos clientes TCP com um único Selector: uma thread aceita, lê as tramas
+ * ({@link CodecTramas}) e escreve o que não coube no socket; a lógica do ClientHandler corre
+ * nos trabalhadores de {@link Execucao} (threads virtuais ou um conjunto fixo). Uma ligação parada não ocupa thread nenhuma, pelo que o
+ * número de clientes fica limitado pelos descritores de ficheiro e não pelas threads.
+ * Os pedidos de cada ligação são tratados um de cada vez e pela ordem de chegada, exceto as
+ * consultas com id ({@link ClientHandler#podeCorrerEmParalelo}), que correm em paralelo até
+ * pd.clientes.max_paralelo por ligação; o pedido seguinte que não o possa fazer espera que terminem.
+ * As notificações não passam pelos trabalhadores: vão para a {@link FilaNotificacoes} da ligação e
+ * a thread do selector escreve-as quando o que havia para enviar ao cliente já saiu.
+ * O formato da ligação decide-se pela primeira trama: uma saudação do {@link CodecBinario}
+ * ou, de um cliente antigo, logo um objeto serializado.
+ */
+class FrenteClientes implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger("Clientes");
+
+    private static final int TRABALHADORES = Math.max(1, Definicoes.inteiro("pd.clientes.trabalhadores",
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors())));
+    private static final int MAX_PEDIDO = Math.max(1024, Definicoes.inteiro("pd.clientes.max_pedido", 1024 * 1024));
+    // Bytes por enviar a partir dos quais quem envia espera que o cliente leia
+    private static final int MAX_PENDENTE = Math.max(64 * 1024, Definicoes.inteiro("pd.clientes.max_pendente", 4 * 1024 * 1024));
+    // Pedidos lidos e ainda por tratar a partir dos quais se deixa de ler a ligação
+    private static final int MAX_POR_TRATAR = Math.max(1, Definicoes.inteiro("pd.clientes.max_por_tratar", 32));
+    private static final int MAX_PARALELO = Math.max(1, Definicoes.inteiro("pd.clientes.max_paralelo", 4));
+    private static final long AUTH_TIMEOUT_MS = Definicoes.longo("pd.clientes.timeout_login_ms", 30_000);
+
+    private final Servidor servidor;
+    private final DatabaseManager db;
+    private final ServerSocketChannel canal;
+    private final Selector selector;
+    private final ExecutorService trabalhadores;
+    private final ScheduledExecutorService temporizador;
+    // Ligações cujo interesse (leitura/escrita) o selector tem de rever
+    private final Queue<Ligacao> porAtualizar = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    FrenteClientes(Servidor servidor, DatabaseManager db, ServerSocketChannel canal) throws IOException {
+        this.servidor = servidor;
+        this.db = db;
+        this.canal = canal;
+        this.selector = Selector.open();
+
+        this.trabalhadores = Execucao.criar("cliente", TRABALHADORES);
+        this.temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "clientes-timeout");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        if (Execucao.isVirtual()) log.info("Atendimento de clientes iniciado (uma thread virtual por pedido).");
+        else log.info("Atendimento de clientes iniciado ({} trabalhadores).", TRABALHADORES);
+        try {
+            canal.configureBlocking(false);
+            canal.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (running) {
+                selector.select();
+
+                Ligacao lig;
+                while ((lig = porAtualizar.poll()) != null) lig.atualizarInteresse();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey chave = it.next();
+                    it.remove();
+                    if (!chave.isValid()) continue;
+
+                    if (chave.isAcceptable()) {
+                        aceitar();
+                        continue;
+                    }
+                    lig = (Ligacao) chave.attachment();
+                    try {
+                        if (chave.isWritable()) lig.escreverPendente();
+                        if (chave.isValid() && chave.isReadable()) lig.ler();
+                    } catch (IOException | CancelledKeyException e) {
+                        lig.fechar();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Erro fatal no atendimento de clientes: {}", e.getMessage());
+        } finally {
+            for (SelectionKey chave : selector.keys()) {
+                if (chave.attachment() instanceof Ligacao) ((Ligacao) chave.attachment()).fechar();
+            }
+            try { selector.close(); } catch (IOException e) {}
+            trabalhadores.shutdownNow();
+            temporizador.shutdownNow();
+        }
+    }
+
+    private void aceitar() {
+        SocketChannel sc;
+        while (true) {
+            try {
+                sc = canal.accept();
+                if (sc == null) return;
+            } catch (IOException e) {
+                log.error("Erro ao aceitar cliente: {}", e.getMessage());
+                return;
+            }
+
+            try {
+                sc.configureBlocking(false);
+                sc.socket().setTcpNoDelay(true);
+                Ligacao lig = new Ligacao(sc);
+                lig.handler = new ClientHandler(lig, db, servidor);
+                servidor.registarCliente(lig.handler);
+                lig.chave = sc.register(selector, SelectionKey.OP_READ, lig);
+                lig.timeoutLogin = temporizador.schedule(lig::expirarLogin, AUTH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                log.debug("Cliente ligado: {}", sc.getRemoteAddress());
+            } catch (IOException e) {
+                log.error("Erro ao iniciar handler para cliente: {}", e.getMessage());
+                try { sc.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private final class Ligacao implements CanalCliente {
+        private final SocketChannel sc;
+        private SelectionKey chave;
+        private ClientHandler handler;
+        private Future<?> timeoutLogin;
+        // Formato da ligação, decidido pelo trabalhador ao tratar a primeira trama
+        private volatile CodecTramas codec;
+
+        // Leitura: só a thread do selector
+        private final ByteBuffer cabecalho = ByteBuffer.allocate(4);
+        private ByteBuffer corpo;
+
+        // Pedidos lidos; um único trabalhador de cada vez os trata (agendada)
+        private final Queue<byte[]> recebidas = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger porTratar = new AtomicInteger();
+        private final AtomicBoolean agendada = new AtomicBoolean();
+        private final AtomicBoolean atualizacaoPedida = new AtomicBoolean();
+        private volatile boolean leituraSuspensa;
+
+        // Consultas a correr em paralelo e o pedido que espera por elas, sob lockParalelo
+        private final ReentrantLock lockParalelo = new ReentrantLock();
+        private int emParalelo;
+        private Object adiada;
+
+        // Escrita: sob lockSaida. Quem envia a um cliente lento espera em escoou; não é um
+        // monitor para que essa espera não prenda a thread de suporte de uma thread virtual
+        private final ReentrantLock lockSaida = new ReentrantLock();
+        private final Condition escoou = lockSaida.newCondition();
+        private final ArrayDeque<ByteBuffer> saida = new ArrayDeque<>();
+        private long pendente;
+        private boolean fecharQuandoVazia;
+        private boolean fechada;
+        private final AtomicBoolean terminada = new AtomicBoolean();
+        private final FilaNotificacoes notificacoes = new FilaNotificacoes();
+
+        Ligacao(SocketChannel sc) {
+            this.sc = sc;
+        }
+
+        void ler() throws IOException {
+            while (true) {
+                if (corpo == null) {
+                    if (sc.read(cabecalho) < 0) throw new ClosedChannelException();
+                    if (cabecalho.hasRemaining()) return;
+                    int tamanho = cabecalho.getInt(0);
+                    cabecalho.clear();
+                    if (tamanho <= 0 || tamanho > MAX_PEDIDO) {
+                        log.warn("Pedido inválido de {} ({} bytes). A fechar a ligação.", handler.getUserEmail(), tamanho);
+                        throw new IOException("Trama inválida");
+                    }
+                    corpo = ByteBuffer.allocate(tamanho);
+                }
+                if (sc.read(corpo) < 0) throw new ClosedChannelException();
+                if (corpo.hasRemaining()) return;
+
+                recebidas.add(corpo.array());
+                corpo = null;
+                if (porTratar.incrementAndGet() >= MAX_POR_TRATAR) {
+                    // O cliente envia mais depressa do que é atendido: deixa o TCP travá-lo
+                    leituraSuspensa = true;
+                    atualizarInteresse();
+                }
+                agendar();
+                if (leituraSuspensa) return;
+            }
+        }
+
+        private void agendar() {
+            if (agendada.compareAndSet(false, true)) trabalhadores.execute(this::tratar);
+        }
+
+        private void tratar() {
+            tratar(null);
+        }
+
+        // Corre num trabalhador; pára enquanto um pedido espera por um resultado assíncrono ou
+        // pelas consultas em paralelo, e quem o desbloqueia retoma-o com esse pedido (retomada)
+        private void tratar(Object retomada) {
+            Object msg = retomada;
+            while (true) {
+                try {
+                    if (msg == null) {
+                        byte[] trama = recebidas.poll();
+                        if (trama == null) {
+                            agendada.set(false);
+                            if (recebidas.isEmpty() || !agendada.compareAndSet(false, true)) return;
+                            continue;
+                        }
+                        if (porTratar.decrementAndGet() <= MAX_POR_TRATAR / 2 && leituraSuspensa) {
+                            leituraSuspensa = false;
+                            pedirAtualizacao();
+                        }
+                        if (isFechada() || (msg = descodificar(trama)) == null) continue;
+                    }
+
+                    Object atual = msg;
+                    msg = null;
+                    if (!isFechada() && !despachar(atual)) return;
+                } catch (IOException e) {
+                    fechar();
+                } catch (RejectedExecutionException e) {
+                    return;
+                }
+            }
+        }
+
+        // null para a saudação do formato (já respondida) ou uma mensagem inválida (ligação fechada)
+        private Object descodificar(byte[] trama) throws IOException {
+            if (codec == null && CodecBinario.isSaudacao(trama)) {
+                CodecBinario acordado = CodecBinario.acordar(trama);
+                codec = acordado;
+                enviarTrama(acordado.saudacao());
+                pedirAtualizacao(); // notificações retidas à espera do formato
+                return null;
+            }
+            if (codec == null) {
+                codec = TramaObjetos.SERIALIZACAO;
+                pedirAtualizacao();
+            }
+
+            try {
+                return codec.descodificar(trama);
+            } catch (IOException e) {
+                log.warn("Mensagem inválida de {}: {}", handler.getUserEmail(), e.getMessage());
+                fechar();
+                return null;
+            }
+        }
+
+        // Devolve false se o tratamento da ligação fica suspenso: à espera de um resultado
+        // assíncrono ou, para um pedido que não pode correr em paralelo, das consultas em curso
+        private boolean despachar(Object msg) throws IOException {
+            boolean paralelo = handler.podeCorrerEmParalelo(msg);
+            lockParalelo.lock();
+            try {
+                if (paralelo ? emParalelo >= MAX_PARALELO : emParalelo > 0) {
+                    adiada = msg;
+                    return false;
+                }
+                if (paralelo) emParalelo++;
+            } finally {
+                lockParalelo.unlock();
+            }
+
+            if (paralelo) {
+                trabalhadores.execute(() -> tratarEmParalelo(msg));
+                return true;
+            }
+
+            CompletionStage<?> assincrono = handler.processar(msg);
+            if (assincrono == null) return true;
+            assincrono.whenComplete((resultado, erro) -> trabalhadores.execute(() -> {
+                try {
+                    if (resultado != null) enviar(resultado);
+                } catch (IOException e) {
+                    fechar();
+                }
+                tratar();
+            }));
+            return false;
+        }
+
+        // As consultas respondem logo, nunca com um CompletionStage
+        private void tratarEmParalelo(Object msg) {
+            try {
+                handler.processar(msg);
+            } catch (IOException e) {
+                fechar();
+            } finally {
+                Object retomar = null;
+                lockParalelo.lock();
+                try {
+                    emParalelo--;
+                    if (adiada != null && (handler.podeCorrerEmParalelo(adiada) ? emParalelo < MAX_PARALELO : emParalelo == 0)) {
+                        retomar = adiada;
+                        adiada = null;
+                    }
+                } finally {
+                    lockParalelo.unlock();
+                }
+                if (retomar != null) tratar(retomar);
+            }
+        }
+
+        private boolean isFechada() {
+            lockSaida.lock();
+            try {
+                return fechada || fecharQuandoVazia;
+            } finally {
+                lockSaida.unlock();
+            }
+        }
+
+        // Antes da primeira trama do cliente (ex.: timeout do login) ainda não há formato acordado
+        private CodecTramas formato() {
+            CodecTramas c = codec;
+            return c != null ? c : TramaObjetos.SERIALIZACAO;
+        }
+
+        @Override
+        public void enviar(Object msg) throws IOException {
+            enviarTrama(formato().codificar(msg));
+        }
+
+        private void enviarTrama(byte[] trama) throws IOException {
+            lockSaida.lock();
+            try {
+                while (pendente > MAX_PENDENTE && !fechada) {
+                    escoou.await();
+                }
+                adicionar(trama);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                lockSaida.unlock();
+            }
+        }
+
+        @Override
+        public boolean tentarEnviar(Object msg) {
+            try {
+                byte[] trama = formato().codificar(msg);
+                lockSaida.lock();
+                try {
+                    if (pendente <= MAX_PENDENTE) {
+                        adicionar(trama);
+                        return true;
+                    }
+                } finally {
+                    lockSaida.unlock();
+                }
+                log.warn("Cliente {} não lê o que lhe é enviado. A fechar a ligação.", handler.getUserEmail());
+            } catch (IOException e) {
+                // fecha abaixo
+            }
+            fechar();
+            return false;
+        }
+
+        @Override
+        public void notificar(String mensagem) {
+            if (notificacoes.adicionar(mensagem)) {
+                pedirAtualizacao();
+                return;
+            }
+            if (!marcarFechada()) return;
+            log.warn("Cliente {} não lê as notificações. A fechar a ligação.", handler.getUserEmail());
+            try {
+                trabalhadores.execute(this::fechar);
+            } catch (RejectedExecutionException e) {
+                // Atendimento a terminar: o selector fecha todas as ligações
+            }
+        }
+
+        // Só a thread do selector. Só passa notificações para a saída enquanto o socket as aceita
+        // por inteiro: as de um cliente que não lê ficam na fila limitada, não em bytes pendentes
+        private boolean escoarNotificacoes() {
+            if (codec == null) return true;
+            lockSaida.lock();
+            try {
+                String mensagem;
+                while (!fechada && !fecharQuandoVazia && saida.isEmpty() && (mensagem = notificacoes.retirar()) != null) {
+                    adicionar(codec.codificar(ClientHandler.NOTIFICACAO + mensagem));
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                lockSaida.unlock();
+            }
+        }
+
+        @Override
+        public void fecharAposEnvio() {
+            lockSaida.lock();
+            try {
+                if (fechada) return;
+                fecharQuandoVazia = true;
+                if (!saida.isEmpty()) return;
+            } finally {
+                lockSaida.unlock();
+            }
+            fechar();
+        }
+
+        // Escreve logo o que couber; o resto fica para quando o socket aceitar mais
+        private void adicionar(byte[] trama) throws IOException {
+            if (fechada || fecharQuandoVazia) throw new ClosedChannelException();
+            ByteBuffer buf = ByteBuffer.wrap(trama);
+            if (saida.isEmpty()) {
+                sc.write(buf);
+                if (!buf.hasRemaining()) return;
+            }
+            saida.add(buf);
+            pendente += buf.remaining();
+            if (saida.size() == 1) pedirAtualizacao();
+        }
+
+        // Só a thread do selector
+        void escreverPendente() throws IOException {
+            boolean fecharAgora;
+            lockSaida.lock();
+            try {
+                ByteBuffer buf;
+                while ((buf = saida.peek()) != null) {
+                    int escritos = sc.write(buf);
+                    pendente -= escritos;
+                    if (buf.hasRemaining()) break;
+                    saida.poll();
+                }
+                if (pendente <= MAX_PENDENTE) escoou.signalAll();
+                fecharAgora = saida.isEmpty() && fecharQuandoVazia;
+            } finally {
+                lockSaida.unlock();
+            }
+            if (fecharAgora) fechar();
+            else atualizarInteresse();
+        }
+
+        private void pedirAtualizacao() {
+            if (atualizacaoPedida.compareAndSet(false, true)) {
+                porAtualizar.add(this);
+                selector.wakeup();
+            }
+        }
+
+        // Só a thread do selector
+        void atualizarInteresse() {
+            atualizacaoPedida.set(false);
+            if (chave == null || !chave.isValid()) return;
+            if (!escoarNotificacoes()) {
+                fechar();
+                return;
+            }
+            int ops = leituraSuspensa ? 0 : SelectionKey.OP_READ;
+            lockSaida.lock();
+            try {
+                if (!saida.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            } finally {
+                lockSaida.unlock();
+            }
+            try {
+                chave.interestOps(ops);
+            } catch (CancelledKeyException e) {
+                // Fechada entretanto por outra thread
+            }
+        }
+
+        void expirarLogin() {
+            if (handler.isAutenticado()) return;
+            tentarEnviar("TIMEOUT: Login expirou.");
+            fecharAposEnvio();
+        }
+
+        // Deixa de aceitar envios; devolve false se já estava fechada
+        private boolean marcarFechada() {
+            lockSaida.lock();
+            try {
+                boolean aberta = !fechada;
+                fechada = true;
+                saida.clear();
+                pendente = 0;
+                escoou.signalAll();
+                return aberta;
+            } finally {
+                lockSaida.unlock();
+            }
+        }
+
+        // Fora de lockSaida: removerCliente sincroniza na lista de clientes, que as
+        // notificações percorrem enquanto escrevem nas ligações
+        void fechar() {
+            marcarFechada();
+            if (!terminada.compareAndSet(false, true)) return;
+
+            if (chave != null) chave.cancel();
+            if (timeoutLogin != null) timeoutLogin.cancel(false);
+            try { sc.close(); } catch (IOException e) {}
+            servidor.removerCliente(handler);
+            handler.ligacaoFechada();
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package pt.isec.pd.tp.servidor;
 
+import pt.isec.pd.tp.Alteracao;
+import pt.isec.pd.tp.RespostaPendente;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+
 public interface ServerAPI {
-    void publicarAlteracao(String querySQL, int novaVersao);
+    void publicarAlteracao(Alteracao alteracao);
     void notificarTodosClientes(String mensagem);
-    Object getBDLock();
+    Lock getBDLock();
+    CompletableFuture<RespostaPendente.Estado> submeterResposta(int estudanteId, String codigoAcesso, String letra);
 }
@@ -1,5 +1,11 @@
 package pt.isec.pd.tp.servidor;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isec.pd.tp.CodecDatagramas;
+import pt.isec.pd.tp.Definicoes;
+import pt.isec.pd.tp.RegistoAssincrono;
+import pt.isec.pd.tp.estruturas.FonteSnapshot;
 import pt.isec.pd.tp.mensagens.MsgHeartbeat;
 import pt.isec.pd.tp.mensagens.MsgPedidoServidor;
 import pt.isec.pd.tp.mensagens.MsgRegistoServidor;
@@ -10,6 +16,10 @@ import java.net.*;
 import java.util.Comparator;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 
 class ServidorInfo implements Serializable {
@@ -20,31 +30,48 @@ class ServidorInfo implements Serializable {
     public final int portoBDT_TCP;
 
     public volatile long ultimoHeartbeat;
-    public volatile int versaoBD;
+    public volatile long versaoBD;
     public volatile boolean isPrincipal;
+    // Porto UDP de onde o servidor envia os heartbeats: é lá que recebe as respostas da diretoria
+    public volatile int portoHeartbeat = -1;
+    public final transient DetectorFalhas detetor;
 
-    public ServidorInfo(InetAddress ip, int portoCliente, int portoDB, int versaoBD, boolean isPrincipal) {
+    public ServidorInfo(InetAddress ip, int portoCliente, int portoDB, long versaoBD, boolean isPrincipal) {
         this.ip = ip;
         this.portoClienteTCP = portoCliente;
         this.portoBDT_TCP = portoDB;
         this.versaoBD = versaoBD;
         this.isPrincipal = isPrincipal;
         this.ultimoHeartbeat = System.currentTimeMillis();
+        this.detetor = new DetectorFalhas(ultimoHeartbeat);
     }
 }
 
 
 public class ServicoDeDiretoria {
+    private static final Logger log = LoggerFactory.getLogger("Diretoria");
 
 
-    private static final int TIMEOUT_MS = 17000;
+
+    // Frequência com que se avalia a suspeita de cada servidor (ver DetectorFalhas)
+    private static final long VERIFICACAO_MS = Math.max(10, Definicoes.longo("pd.diretoria.verificacao_ms", 100));
+    // Suspeita acima da qual um backup, embora ainda vivo, já não é indicado como fonte de snapshot
+    private static final double PHI_MAX_FONTE = 1.0;
+
+    // Backups indicados como fonte de snapshot: heartbeat em dia e pouco atrás do principal
+    private static final int MAX_FONTES_SNAPSHOT = 3;
+    private static final long ATRASO_MAX_FONTE = Definicoes.longo("pd.diretoria.atraso_max_fonte", 1000);
 
 
     private final Map<Integer, ServidorInfo> servidoresAtivos = new ConcurrentHashMap<>();
 
     private DatagramSocket socket;
 
+    private final CodecDatagramas.Leitor leitor = new CodecDatagramas.Leitor();
+
     public static void main(String[] args) {
+        RegistoAssincrono.instalar();
+
         if (args.length != 1) {
             System.out.println("Uso: java pt.isec.pd.tp.servidor.ServicoDeDiretoria <porto_udp>");
             return;
@@ -57,23 +84,24 @@ public class ServicoDeDiretoria {
     public void iniciar(int porto) {
         try {
             this.socket = new DatagramSocket(porto);
-            System.out.println("[Diretoria] A escutar no porto " + porto + "...");
+            log.info("A escutar no porto {}...", porto);
 
 
             iniciarMonitorizacao();
 
 
             byte[] buffer = new byte[4096];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
 
             while (true) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                packet.setLength(buffer.length);
                 socket.receive(packet);
 
 
                 processarMensagem(packet);
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Erro fatal no socket UDP", e);
         } finally {
             if (socket != null) socket.close();
         }
@@ -82,8 +110,9 @@ public class ServicoDeDiretoria {
 
 
     private synchronized void processarMensagem(DatagramPacket packet) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(packet.getData()))) {
-            Object msg = ois.readObject();
+        try {
+            Object msg = lerMensagem(packet);
+            if (msg == null) return;
             InetAddress ipRemoto = packet.getAddress();
             int portoRemoto = packet.getPort();
 
@@ -93,17 +122,43 @@ public class ServicoDeDiretoria {
             }
             else if (msg instanceof MsgHeartbeat) {
                 MsgHeartbeat heartbeat = (MsgHeartbeat) msg;
-                processarHeartbeat(heartbeat, ipRemoto);
+                processarHeartbeat(heartbeat, ipRemoto, portoRemoto);
             }
             else if (msg instanceof MsgPedidoServidor) {
 
-                System.out.println("[Diretoria] CLIENTE pediu servidor: " + ipRemoto);
+                log.debug("CLIENTE pediu servidor: {}", ipRemoto);
             }
 
-            enviarResposta(ipRemoto, portoRemoto);
+            int portoRegisto = (msg instanceof MsgRegistoServidor) ? ((MsgRegistoServidor) msg).getPortoClienteTCP() : -1;
+            enviarResposta(ipRemoto, portoRemoto, portoRegisto);
 
         } catch (EOFException | SocketException e) {
-            System.err.println("[Diretoria] Erro ao ler objeto do pacote: " + e.getMessage());
+            log.error("Erro ao ler objeto do pacote: {}", e.getMessage());
+        }
+    }
+
+    // Os heartbeats dos servidores chegam no formato binário; registos e pedidos de clientes em objetos serializados
+    private Object lerMensagem(DatagramPacket packet) throws IOException, ClassNotFoundException {
+        byte[] d = packet.getData();
+        int len = packet.getLength();
+
+        if (!CodecDatagramas.isBinario(d, 0, len)) {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(d, 0, len))) {
+                return ois.readObject();
+            }
+        }
+
+        if (CodecDatagramas.versao(d, 0) != CodecDatagramas.VERSAO
+                || CodecDatagramas.tipo(d, 0) != CodecDatagramas.TIPO_HEARTBEAT
+                || CodecDatagramas.totalFragmentos(d, 0) != 1) {
+            log.warn("Datagrama binário não suportado de {}", packet.getAddress());
+            return null;
+        }
+        try {
+            return leitor.ler(CodecDatagramas.TIPO_HEARTBEAT, d, CodecDatagramas.CABECALHO, len - CodecDatagramas.CABECALHO);
+        } catch (IOException e) {
+            log.warn("Heartbeat inválido de {}: {}", packet.getAddress(), e.getMessage());
+            return null;
         }
     }
 
@@ -112,7 +167,7 @@ public class ServicoDeDiretoria {
         if (servidoresAtivos.containsKey(registo.getPortoClienteTCP())) {
 
             servidoresAtivos.get(registo.getPortoClienteTCP()).ultimoHeartbeat = System.currentTimeMillis();
-            System.out.println("[Diretoria] SERVIDOR já registado (HB): " + ip + ":" + registo.getPortoClienteTCP());
+            log.debug("SERVIDOR já registado (HB): {}:{}", ip, registo.getPortoClienteTCP());
             return;
         }
 
@@ -129,56 +184,70 @@ public class ServicoDeDiretoria {
         servidoresAtivos.put(registo.getPortoClienteTCP(), novoServidor);
 
         if (isPrincipal) {
-            System.out.println(" -> Novo Principal definido: " + ip + ":" + registo.getPortoClienteTCP());
+            log.info("Novo Principal definido: {}:{}", ip, registo.getPortoClienteTCP());
         } else {
-            System.out.println("[Diretoria] SERVIDOR registou-se como BACKUP: " + ip + ":" + registo.getPortoClienteTCP());
+            log.info("SERVIDOR registou-se como BACKUP: {}:{}", ip, registo.getPortoClienteTCP());
         }
     }
 
-    private void processarHeartbeat(MsgHeartbeat heartbeat, InetAddress ip) {
+    private void processarHeartbeat(MsgHeartbeat heartbeat, InetAddress ip, int portoUDP) {
         ServidorInfo info = servidoresAtivos.get(heartbeat.getPortoClienteTCP());
 
         if (info == null) {
-            System.out.println("[Diretoria] HB ignorado: pt.isec.pd.tp.servidor.Servidor não registado. IP: " + ip);
-            return;
+            // Removido enquanto ainda estava vivo: volta como backup, com a versão que anuncia
+            info = new ServidorInfo(ip, heartbeat.getPortoClienteTCP(), heartbeat.getPortoBDT_TCP(), heartbeat.getVersaoBD(), false);
+            servidoresAtivos.put(heartbeat.getPortoClienteTCP(), info);
+            log.warn("Heartbeat de servidor não registado {}:{}: registado de novo como BACKUP.", ip, heartbeat.getPortoClienteTCP());
+
+            if (servidoresAtivos.values().stream().noneMatch(s -> s.isPrincipal)) {
+                log.error("Sem principal ativo. Iniciando promoção...");
+                promoverBackup();
+            }
         }
 
 
         info.ultimoHeartbeat = System.currentTimeMillis();
+        info.detetor.heartbeat(info.ultimoHeartbeat);
         info.versaoBD = heartbeat.getVersaoBD();
+        info.portoHeartbeat = portoUDP;
     }
 
 
 
     private void iniciarMonitorizacao() {
-        new Thread(() -> {
-            while (true) {
-                try {
-                    Thread.sleep(5000);
-                    long agora = System.currentTimeMillis();
-
-
-                    servidoresAtivos.entrySet().removeIf(entry -> {
-                        ServidorInfo info = entry.getValue();
-
-                        if (agora - info.ultimoHeartbeat > TIMEOUT_MS) {
-                            System.out.println("[Diretoria] pt.isec.pd.tp.servidor.Servidor inativo removido: " + info.ip + ":" + info.portoClienteTCP);
-
+        ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "monitor-servidores");
+            t.setDaemon(true);
+            return t;
+        });
+        monitor.scheduleWithFixedDelay(this::verificarServidores, VERIFICACAO_MS, VERIFICACAO_MS, TimeUnit.MILLISECONDS);
+        log.info("Deteção de falhas: phi > {}, heartbeat esperado a cada {} ms, verificação a cada {} ms.",
+                DetectorFalhas.LIMIAR, DetectorFalhas.INTERVALO_ESPERADO_MS, VERIFICACAO_MS);
+    }
 
-                            if (info.isPrincipal) {
-                                System.err.println("[Diretoria] ERRO CRÍTICO: Principal expirou. Iniciando promoção...");
-                                promoverBackup();
-                            }
-                            return true;
-                        }
-                        return false;
-                    });
+    private synchronized void verificarServidores() {
+        try {
+            long agora = System.currentTimeMillis();
+            boolean principalFalhou = false;
+
+            Iterator<ServidorInfo> it = servidoresAtivos.values().iterator();
+            while (it.hasNext()) {
+                ServidorInfo info = it.next();
+                if (!info.detetor.falhou(agora)) continue;
+
+                log.info("Servidor inativo removido: {}:{} ({} ms sem heartbeat, phi {})", info.ip, info.portoClienteTCP,
+                        agora - info.detetor.getUltimo(), String.format("%.1f", info.detetor.phi(agora)));
+                it.remove();
+                if (info.isPrincipal) principalFalhou = true;
+            }
 
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
+            if (principalFalhou) {
+                log.error("ERRO CRÍTICO: Principal expirou. Iniciando promoção...");
+                promoverBackup();
             }
-        }).start();
+        } catch (Exception e) {
+            log.error("Erro na verificação dos servidores: {}", e.getMessage());
+        }
     }
 
 
@@ -187,22 +256,45 @@ public class ServicoDeDiretoria {
         ServidorInfo novoPrincipal = servidoresAtivos.values().stream()
                 .filter(info -> !info.isPrincipal)
 
-                .max(Comparator.comparingInt(s -> s.versaoBD))
+                .max(Comparator.comparingLong(s -> s.versaoBD))
                 .orElse(null);
 
         if (novoPrincipal != null) {
             novoPrincipal.isPrincipal = true;
 
-            System.out.println("[Diretoria] PROMOÇÃO: Backup em porto " + novoPrincipal.portoClienteTCP + " promovido a Principal. Versão BD: " + novoPrincipal.versaoBD);
+            log.info("PROMOÇÃO: Backup em porto {} promovido a Principal. Versão BD: {}", novoPrincipal.portoClienteTCP, novoPrincipal.versaoBD);
+
+            // Avisa já o promovido, sem esperar pela resposta ao seu próximo heartbeat
+            if (novoPrincipal.portoHeartbeat > 0) {
+                try {
+                    enviarResposta(novoPrincipal.ip, novoPrincipal.portoHeartbeat, -1);
+                } catch (IOException e) {
+                    log.warn("Falha ao avisar o novo principal: {}", e.getMessage());
+                }
+            }
         } else {
 
-            System.err.println("[Diretoria] Falha total: Nenhum pt.isec.pd.tp.servidor.Servidor ativo disponível.");
+            log.error("Falha total: Nenhum Servidor ativo disponível.");
         }
     }
 
 
 
-    private void enviarResposta(InetAddress ipDestino, int portoDestino) throws IOException {
+    // Backups de onde um servidor que se está a registar pode copiar a BD, em vez de a pedir ao principal
+    private List<FonteSnapshot> fontesSnapshot(ServidorInfo principal, int portoRegisto) {
+        if (principal == null) return List.of();
+        long agora = System.currentTimeMillis();
+        return servidoresAtivos.values().stream()
+                .filter(info -> !info.isPrincipal && info.portoClienteTCP != portoRegisto)
+                .filter(info -> info.detetor.phi(agora) < PHI_MAX_FONTE)
+                .filter(info -> info.versaoBD > 0 && principal.versaoBD - info.versaoBD <= ATRASO_MAX_FONTE)
+                .sorted(Comparator.comparingLong((ServidorInfo s) -> s.versaoBD).reversed())
+                .limit(MAX_FONTES_SNAPSHOT)
+                .map(info -> new FonteSnapshot(info.ip, info.portoBDT_TCP, info.versaoBD))
+                .collect(Collectors.toList());
+    }
+
+    private void enviarResposta(InetAddress ipDestino, int portoDestino, int portoRegisto) throws IOException {
 
 
         ServidorInfo principal = servidoresAtivos.values().stream()
@@ -214,8 +306,10 @@ public class ServicoDeDiretoria {
         int portoCliente = (principal != null) ? principal.portoClienteTCP : -1;
         int portoDB = (principal != null) ? principal.portoBDT_TCP : -1;
 
+        List<FonteSnapshot> fontes = portoRegisto > 0 ? fontesSnapshot(principal, portoRegisto) : List.of();
+
         MsgRespostaDiretoria resposta = new MsgRespostaDiretoria(
-                ipPrincipal, portoCliente, portoDB
+                ipPrincipal, portoCliente, portoDB, fontes
         );
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -1,26 +1,52 @@
 package pt.isec.pd.tp.servidor;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isec.pd.tp.Alteracao;
+import pt.isec.pd.tp.ColetorRespostas;
 import pt.isec.pd.tp.DatabaseManager;
+import pt.isec.pd.tp.Definicoes;
+import pt.isec.pd.tp.Execucao;
+import pt.isec.pd.tp.FilaReplicacao;
 import pt.isec.pd.tp.HeartbeatSender;
+import pt.isec.pd.tp.LogReplicacao;
 import pt.isec.pd.tp.MulticastListener;
+import pt.isec.pd.tp.ProtocoloBD;
+import pt.isec.pd.tp.RegistoAssincrono;
+import pt.isec.pd.tp.RespostaPendente;
+import pt.isec.pd.tp.SnapshotBD;
 import pt.isec.pd.tp.cliente.ClientHandler;
+import pt.isec.pd.tp.estruturas.FonteSnapshot;
+import pt.isec.pd.tp.estruturas.RegistoReplicacao;
 import pt.isec.pd.tp.mensagens.*;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class Servidor implements ServerAPI {
+    private static final Logger log = LoggerFactory.getLogger("Servidor");
+
 
     private final String ipDiretorio;
     private final int portoDiretorio;
     private final String dbPath;
     private final String ipMulticast;
 
-    private ServerSocket srvSocketClientes;
+    private ServerSocketChannel srvSocketClientes;
     private ServerSocket srvSocketDB;
 
     private int portoClienteTCP;
@@ -29,10 +55,28 @@ public class Servidor implements ServerAPI {
 
     private DatabaseManager db;
     private HeartbeatSender heartbeatSender;
+    private FilaReplicacao filaReplicacao;
+    private LogReplicacao logReplicacao;
+    private SnapshotBD snapshots;
     private MulticastListener multicastListener;
+    private ColetorRespostas coletorRespostas;
+    private FrenteClientes frenteClientes;
+    private ExecutorService pedidosBD;
+    private ExecutorService copiasBD;
 
     private final List<ClientHandler> clientesConectados = Collections.synchronizedList(new ArrayList<>());
-    private final Object BD_LOCK = new Object();
+    // ReentrantLock: quem espera por ele numa thread virtual não prende a thread de suporte
+    private final ReentrantLock BD_LOCK = new ReentrantLock();
+
+    private static final int TENTATIVAS_COPIA = 5;
+    private static final int TENTATIVAS_COPIA_FONTE = 2;
+    // Ligações por aceitar em fila no kernel; com o valor por omissão (50) uma turma a ligar-se
+    // de uma vez fica à espera das retransmissões do TCP
+    private static final int BACKLOG_CLIENTES = Math.max(50, Definicoes.inteiro("pd.clientes.backlog", 1024));
+    // Pedidos no porto de BD atendidos ao mesmo tempo; as cópias integrais têm um conjunto à parte,
+    // para que um snapshot longo não atrase a reparação de lacunas dos outros backups
+    private static final int PEDIDOS_BD = Math.max(1, Definicoes.inteiro("pd.bd.pedidos", 4));
+    private static final int COPIAS_BD = Math.max(1, Definicoes.inteiro("pd.bd.copias", 2));
 
     private boolean isPrincipal = false;
 
@@ -41,7 +85,7 @@ public class Servidor implements ServerAPI {
         this.portoDiretorio = pDir;
         this.dbPath = dbPath;
         this.ipMulticast = ipMulti;
-        System.out.println("[pt.isec.pd.tp.servidor.Servidor] A configurar...");
+        log.info("A configurar...");
     }
 
     public void iniciar() {
@@ -49,16 +93,17 @@ public class Servidor implements ServerAPI {
 
             this.ipLocal = InetAddress.getLocalHost();
 
-            try (ServerSocket srvClientes = new ServerSocket(0);
-                 ServerSocket srvDB = new ServerSocket(0)) {
+            try (ServerSocketChannel srvClientes = ServerSocketChannel.open().bind(new InetSocketAddress(0), BACKLOG_CLIENTES);
+                 // Aberto por canal para que os sockets aceites permitam FileChannel.transferTo
+                 ServerSocket srvDB = ServerSocketChannel.open().bind(new InetSocketAddress(0)).socket()) {
 
                 this.srvSocketClientes = srvClientes;
                 this.srvSocketDB = srvDB;
 
-                this.portoClienteTCP = srvClientes.getLocalPort();
+                this.portoClienteTCP = srvClientes.socket().getLocalPort();
                 this.portoBDT_TCP = srvDB.getLocalPort();
 
-                System.out.println("[pt.isec.pd.tp.servidor.Servidor] A escutar Clientes TCP no porto: " + portoClienteTCP);
+                log.info("A escutar Clientes TCP no porto: {}", portoClienteTCP);
 
 
                 prepararBaseDeDados();
@@ -67,7 +112,7 @@ public class Servidor implements ServerAPI {
                 MsgRespostaDiretoria resposta = registarNoDiretorio();
 
                 if (resposta == null || !resposta.existeServidor()) {
-                    System.err.println("[pt.isec.pd.tp.servidor.Servidor] Falha no registo na Diretoria. A terminar.");
+                    log.error("Falha no registo na Diretoria. A terminar.");
                     fecharRecursos();
                     return;
                 }
@@ -75,16 +120,34 @@ public class Servidor implements ServerAPI {
 
                 this.isPrincipal = (resposta.getPortoClienteTCP() == this.portoClienteTCP);
 
+                this.filaReplicacao = new FilaReplicacao(ipLocal);
+                if (this.isPrincipal) filaReplicacao.ativar(db.getVersaoBD());
+                new Thread(this.filaReplicacao, "fila-replicacao").start();
 
-
-
-                this.heartbeatSender = new HeartbeatSender(this, db, ipDiretorio, portoDiretorio, portoClienteTCP, portoBDT_TCP, ipLocal);
+                // Os heartbeats começam já: um backup a alinhar uma BD grande continua registado na
+                // diretoria, que vê pela versão anunciada quanto lhe falta
+                this.heartbeatSender = new HeartbeatSender(this, db, ipDiretorio, portoDiretorio, portoClienteTCP, portoBDT_TCP, filaReplicacao);
                 this.heartbeatSender.updateRole(this.isPrincipal);
                 new Thread(this.heartbeatSender).start();
 
+                // O backup alinha a BD antes de começar a ouvir a replicação
+                if (!this.isPrincipal) {
+                    sincronizarComPrincipal(resposta.getIpServidorPrincipal(), resposta.getPortoBDT_TCP(), resposta.getFontesSnapshot());
+                }
+
+
+                // Com os heartbeats já a correr, a diretoria pode tê-lo promovido durante a sincronização
+                synchronized (this) {
+                    if (!this.isPrincipal) {
+                        this.multicastListener = new MulticastListener(this, db, ipMulticast, ipLocal);
+                        multicastListener.definirPrincipal(resposta.getIpServidorPrincipal(), resposta.getPortoBDT_TCP());
+                        new Thread(this.multicastListener).start();
+                    }
+                }
 
-                this.multicastListener = new MulticastListener(this, db, ipMulticast, ipLocal);
-                new Thread(this.multicastListener).start();
+
+                this.coletorRespostas = new ColetorRespostas(db, this);
+                new Thread(this.coletorRespostas, "coletor-respostas").start();
 
 
                 aceitarPedidosBD();
@@ -92,23 +155,20 @@ public class Servidor implements ServerAPI {
 
 
                 if (this.isPrincipal) {
-                    System.out.println("[pt.isec.pd.tp.servidor.Servidor] >>> MODO PRINCIPAL <<<");
+                    log.info(">>> MODO PRINCIPAL <<<");
                 } else {
-                    System.out.println("[pt.isec.pd.tp.servidor.Servidor] >>> MODO BACKUP <<<");
-
-                    receberCopiaBD(resposta.getIpServidorPrincipal(), resposta.getPortoBDT_TCP());
+                    log.info(">>> MODO BACKUP <<<");
                 }
 
 
-                System.out.println("[pt.isec.pd.tp.servidor.Servidor] Em funcionamento. Pressione Ctrl+C para sair.");
+                log.info("Em funcionamento. Pressione Ctrl+C para sair.");
                 while(true) { Thread.sleep(10000); }
 
             }
         } catch (InterruptedException e) {
-            System.out.println("[pt.isec.pd.tp.servidor.Servidor] Thread principal interrompida.");
+            log.info("Thread principal interrompida.");
         } catch (Exception e) {
-            System.err.println("[pt.isec.pd.tp.servidor.Servidor] Erro fatal durante a inicialização: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Erro fatal durante a inicialização", e);
         } finally {
             fecharRecursos();
         }
@@ -131,21 +191,23 @@ public class Servidor implements ServerAPI {
         if (this.isPrincipal) return;
 
         this.isPrincipal = true;
-        System.out.println("\n\n************************************************");
-        System.out.println("[pt.isec.pd.tp.servidor.Servidor] >>> PROMOVIDO A PRINCIPAL <<< ");
-        System.out.println("************************************************\n");
+        log.info(">>> PROMOVIDO A PRINCIPAL <<<");
 
 
         if (this.multicastListener != null) {
             this.multicastListener.stop();
             this.multicastListener = null;
-            System.out.println("[pt.isec.pd.tp.servidor.Servidor] Multicast Listener (Replicação) parado.");
+            log.info("Multicast Listener (Replicação) parado.");
         }
 
 
+        if (this.filaReplicacao != null) {
+            this.filaReplicacao.ativar(db.getVersaoBD());
+        }
+
         if (this.heartbeatSender != null) {
             this.heartbeatSender.updateRole(true);
-            System.out.println("[pt.isec.pd.tp.servidor.Servidor] Heartbeat Sender atualizado para Principal.");
+            log.info("Heartbeat Sender atualizado para Principal.");
         }
 
 
@@ -159,8 +221,20 @@ public class Servidor implements ServerAPI {
         if (multicastListener != null) {
             multicastListener.stop();
         }
+        if (filaReplicacao != null) {
+            filaReplicacao.stop();
+        }
+        if (coletorRespostas != null) {
+            coletorRespostas.stop();
+        }
+        if (frenteClientes != null) {
+            frenteClientes.stop();
+        }
         try { srvSocketClientes.close(); } catch (Exception e) {}
         try { srvSocketDB.close(); } catch (Exception e) {}
+        if (pedidosBD != null) pedidosBD.shutdownNow();
+        if (copiasBD != null) copiasBD.shutdownNow();
+        if (snapshots != null) snapshots.limpar();
         if (db != null) db.desconectar();
 
     }
@@ -169,87 +243,171 @@ public class Servidor implements ServerAPI {
         this.db = new DatabaseManager(this.dbPath);
         db.conectar();
         db.criarTabelas();
-        System.out.println("[Principal] BD pronta e tabelas verificadas.");
+        this.logReplicacao = new LogReplicacao(db);
+        this.snapshots = new SnapshotBD(db, dbPath);
+        log.info("BD pronta e tabelas verificadas.");
     }
 
 
-    private void aceitarClientes() {
-        new Thread(() -> {
-            System.out.println("[Accept] Thread de aceitação de clientes iniciada.");
-            while (true) {
-                try {
-                    Socket s = srvSocketClientes.accept();
-                    try {
-
-                        ClientHandler handler = new ClientHandler(s, this.db, this);
-                        clientesConectados.add(handler);
-                        new Thread(handler).start();
-                    } catch (IOException e) {
-                        System.err.println("[Accept] Erro ao iniciar handler para cliente: " + e.getMessage());
-                        s.close();
-                    }
-                } catch (IOException e) {
-                    System.err.println("[Accept] Erro fatal no ServerSocket: " + e.getMessage());
-                    break;
-                }
-            }
-        }).start();
+    private void aceitarClientes() throws IOException {
+        this.frenteClientes = new FrenteClientes(this, db, srvSocketClientes);
+        new Thread(frenteClientes, "clientes-selector").start();
     }
 
-    public Object getBDLock() {
+    void registarCliente(ClientHandler handler) {
+        clientesConectados.add(handler);
+    }
+
+    void removerCliente(ClientHandler handler) {
+        clientesConectados.remove(handler);
+    }
+
+    public Lock getBDLock() {
         return BD_LOCK;
     }
 
 
     private void aceitarPedidosBD() {
+        this.pedidosBD = Execucao.criar("bd", PEDIDOS_BD);
+        this.copiasBD = Execucao.criar("bd-copia", COPIAS_BD);
         new Thread(() -> {
-            System.out.println("[BD Accept] Thread de aceitação de Backups (BD) iniciada.");
+            log.info("Thread de aceitação de Backups (BD) iniciada.");
             while (true) {
+                Socket s;
                 try {
-                    Socket s = srvSocketDB.accept();
-
-                    synchronized (BD_LOCK) {
-                        System.out.println("[BD Accept] BLOQUEIO DE ESCRITA ATIVO. Enviando BD.");
-                        File dbFile = new File(dbPath);
-
-                        try (FileInputStream fis = new FileInputStream(dbFile);
-                             OutputStream os = s.getOutputStream()) {
-
-                            byte[] buffer = new byte[8192];
-                            int bytesRead;
-                            while ((bytesRead = fis.read(buffer)) != -1) {
-                                os.write(buffer, 0, bytesRead);
-                            }
-                            os.flush();
-                            System.out.println("[BD Accept] BD enviada com sucesso.");
-                        }
-                    }
-                    s.close();
+                    s = srvSocketDB.accept();
                 } catch (IOException e) {
-                    System.err.println("[BD Accept] Erro fatal no ServerSocket BD: " + e.getMessage());
+                    log.error("Erro fatal no ServerSocket BD: {}", e.getMessage());
                     break;
                 }
+                try {
+                    pedidosBD.execute(() -> tratarPedidoBD(s));
+                } catch (RejectedExecutionException e) {
+                    try { s.close(); } catch (IOException ignored) {}
+                }
             }
-        }).start();
+        }, "bd-aceitacao").start();
     }
 
-    private void receberCopiaBD(InetAddress ipPrincipal, int portoDBPrincipal) {
-        System.out.println("[Backup] Solicitando BD a " + ipPrincipal + ":" + portoDBPrincipal);
-        try (Socket s = new Socket(ipPrincipal, portoDBPrincipal);
-             InputStream is = s.getInputStream();
-             FileOutputStream fos = new FileOutputStream(dbPath)) {
+    private void tratarPedidoBD(Socket s) {
+        boolean entregue = false;
+        try {
+            s.setSoTimeout(ProtocoloBD.TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            int pedido = in.readUnsignedByte();
+
+            if (pedido == ProtocoloBD.PEDIDO_REGISTOS) {
+                // Reparação de lacuna: lê do log, sem bloquear as escritas
+                ProtocoloBD.responderRegistos(in, s.getOutputStream(), logReplicacao);
+            } else if (pedido == ProtocoloBD.PEDIDO_COPIA) {
+                copiasBD.execute(() -> enviarCopiaBD(s, in));
+                entregue = true;
+            } else {
+                log.warn("Pedido desconhecido no porto de BD: {}", pedido);
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            log.error("Erro ao responder a pedido de BD: {}", e.getMessage());
+        } finally {
+            if (!entregue) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
 
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
+    private void enviarCopiaBD(Socket s, DataInputStream in) {
+        try (s) {
+            // Snapshot tirado sem BD_LOCK: as escritas dos clientes continuam durante o envio
+            ProtocoloBD.responderCopia(in, s, snapshots);
+        } catch (IOException e) {
+            log.error("Erro ao enviar cópia da BD: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Traz a BD local até à versão do principal: se ela continua a do principal e a diferença
+     * está no log dele, basta aplicar os registos em falta; senão recebe a cópia integral,
+     * de preferência de um dos backups indicados pela diretoria, para poupar o principal.
+     */
+    private void sincronizarComPrincipal(InetAddress ipPrincipal, int portoDBPrincipal, List<FonteSnapshot> fontes) {
+        long inicial = db.getVersaoBD();
+        try {
+            if (ProtocoloBD.atualizar(db, ipPrincipal, portoDBPrincipal, Long.MAX_VALUE)) {
+                log.info("BD atualizada pelo log do principal: versão {} -> {}.", inicial, db.getVersaoBD());
+                return;
             }
-            System.out.println("[Backup] Cópia da BD recebida e salva.");
+            log.info("BD local (versão {}) não continua a do principal ou está fora da janela do log.", db.getVersaoBD());
+        } catch (IOException | SQLException e) {
+            log.warn("Falha na atualização incremental da BD: {}", e.getMessage());
+        }
 
-        } catch (Exception e) {
-            System.err.println("[Backup] ERRO: Falha ao obter cópia inicial da BD. A terminar.");
+        boolean deBackup = false;
+        for (FonteSnapshot fonte : fontes) {
+            log.info("A pedir a cópia da BD ao backup {}", fonte);
+            if (obterCopiaBD(fonte.getIp(), fonte.getPortoBDT_TCP(), TENTATIVAS_COPIA_FONTE)) {
+                deBackup = true;
+                break;
+            }
+        }
+        if (!deBackup) receberCopiaBD(ipPrincipal, portoDBPrincipal);
+
+        // O snapshot não trava as escritas nem está na versão do principal: o resto vem do log dele
+        try {
+            if (!ProtocoloBD.atualizar(db, ipPrincipal, portoDBPrincipal, Long.MAX_VALUE) && deBackup) {
+                log.warn("A cópia do backup (versão {}) não continua a BD do principal.", db.getVersaoBD());
+                receberCopiaBD(ipPrincipal, portoDBPrincipal);
+                ProtocoloBD.atualizar(db, ipPrincipal, portoDBPrincipal, Long.MAX_VALUE);
+            }
+        } catch (IOException | SQLException e) {
+            log.warn("Falha ao atualizar a BD após a cópia: {}", e.getMessage());
+        }
+    }
+
+    public synchronized void receberCopiaBD(InetAddress ipPrincipal, int portoDBPrincipal) {
+        if (!obterCopiaBD(ipPrincipal, portoDBPrincipal, TENTATIVAS_COPIA)) {
+            log.error("ERRO: Falha ao obter cópia inicial da BD. A terminar.");
+            System.exit(1);
+        }
+    }
+
+    // Recebe a cópia integral de ip:porto e põe-na no lugar da BD local; false se não chegou a recebê-la
+    private synchronized boolean obterCopiaBD(InetAddress ip, int porto, int tentativas) {
+        log.info("Solicitando BD a {}:{}", ip, porto);
+
+        // Recebe para um ficheiro à parte, que sobrevive a falhas: cada tentativa (e um novo
+        // arranque do servidor) retoma a partir do último bloco verificado
+        File recebida = new File(dbPath + ".recebida");
+        long versao = -1;
+        for (int tentativa = 1; versao < 0 && tentativa <= tentativas; tentativa++) {
+            try {
+                versao = ProtocoloBD.receberCopia(ip, porto, recebida);
+                log.info("Cópia da BD recebida (versão {}, {} bytes).", versao, recebida.length());
+            } catch (IOException e) {
+                log.warn("Transferência da BD interrompida (tentativa {}/{}): {}", tentativa, tentativas, e.getMessage());
+                try {
+                    Thread.sleep(1000L * tentativa);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (versao < 0) return false;
+
+        db.desconectar();
+        new File(dbPath + "-wal").delete();
+        new File(dbPath + "-shm").delete();
+
+        try {
+            Files.move(recebida.toPath(), Paths.get(dbPath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            db.conectar();
+        } catch (IOException | SQLException e) {
+            log.error("ERRO: Falha ao abrir a BD recebida. A terminar.");
             System.exit(1);
         }
+        if (db.getVersaoBD() != versao) {
+            log.warn("Versão da BD recebida ({}) difere da anunciada ({}).", db.getVersaoBD(), versao);
+        }
+        return true;
     }
 
 
@@ -272,37 +430,47 @@ public class Servidor implements ServerAPI {
             ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(packet.getData()));
             return (MsgRespostaDiretoria) ois.readObject();
         } catch (Exception e) {
-            System.err.println("[Registo] Erro ao contactar diretoria: " + e.getMessage());
+            log.error("Erro ao contactar diretoria: {}", e.getMessage());
             return null;
         }
     }
 
 
     @Override
-    public void publicarAlteracao(String querySQL, int novaVersao) {
+    public void publicarAlteracao(Alteracao alteracao) {
         if (!this.isPrincipal) {
-            System.err.println("[Heartbeat] ERRO: pt.isec.pd.tp.servidor.Servidor Backup tentou publicar alteração.");
+            log.error("ERRO: Servidor Backup tentou publicar alteração.");
             return;
         }
 
-        if (heartbeatSender != null) {
-            heartbeatSender.dispararHeartbeatEscrita(querySQL, novaVersao);
+        RegistoReplicacao registo = new RegistoReplicacao(alteracao.getVersao(), alteracao.getOperacoes());
+        logReplicacao.adicionar(registo);
+        if (filaReplicacao != null) {
+            filaReplicacao.publicar(registo);
         }
     }
 
+    @Override
+    public CompletableFuture<RespostaPendente.Estado> submeterResposta(int estudanteId, String codigoAcesso, String letra) {
+        return coletorRespostas.submeter(estudanteId, codigoAcesso, letra);
+    }
+
     @Override
     public void notificarTodosClientes(String mensagem) {
-        clientesConectados.removeIf(handler -> {
-            if (handler.enviarNotificacao(mensagem)) {
-                return false;
-            } else {
-                System.out.println("[Notificacao] pt.isec.pd.tp.cliente.Cliente desconectado durante notificação.");
-                return true;
-            }
-        });
+        // Só enche a fila de cada ligação (ver FilaNotificacoes); sobre uma cópia porque uma
+        // ligação fechada por excesso se retira ela própria da lista
+        List<ClientHandler> clientes;
+        synchronized (clientesConectados) {
+            clientes = new ArrayList<>(clientesConectados);
+        }
+        for (ClientHandler handler : clientes) {
+            handler.enviarNotificacao(mensagem);
+        }
     }
 
     public static void main(String[] args) {
+        RegistoAssincrono.instalar();
+
         if (args.length != 4) {
             System.out.println("Uso: java pt.isec.pd.tp.servidor.Servidor <ip_dir> <porto_dir> <bd_file> <multicast_ip_interface>");
             return;